@@ -0,0 +1,192 @@
+package com.familytree;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the tree to disk on a background thread, so the JavaFX thread never waits for
+ * serialization or I/O.
+ *
+ * Each save takes a {@link FamilyTreeData#snapshot()} when it starts. The snapshot is
+ * consistent because it is taken under the model's read lock, and it is taken as late
+ * as possible, so it includes every edit made before the save ran. Requests for a file
+ * whose save has not started yet are coalesced into that save, and a save is skipped
+ * when the model version has not changed since the file was last written. Files are
+ * written to a temp file and renamed over the target (see {@link JsonManager#saveSnapshot}).
+ */
+public class AutosaveService {
+
+    /**
+     * Outcome of one save.
+     *
+     * @param version The model version now in the file.
+     * @param skipped True if nothing had changed since the last save, so nothing was written.
+     * @param millis  How long the snapshot and write took.
+     */
+    public record SaveResult(File file, long version, boolean skipped, long millis) {
+    }
+
+    private static class PendingSave {
+        final CompletableFuture<SaveResult> result = new CompletableFuture<>();
+        ScheduledFuture<?> task;
+        boolean immediate;
+    }
+
+    private final FamilyTreeData data;
+    private final ScheduledExecutorService executor;
+
+    // Guarded by this
+    private final Map<File, PendingSave> pending = new HashMap<>();
+    private final Map<File, Long> savedVersions = new HashMap<>();
+    private long saveCount;
+    private long skipCount;
+    private long totalMillis;
+    private long lastMillis;
+
+    public AutosaveService(FamilyTreeData data) {
+        this.data = data;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tree-autosave");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Saves the tree to {@code file} as soon as the background thread is free.
+     */
+    public CompletableFuture<SaveResult> save(File file) {
+        return schedule(file, 0);
+    }
+
+    /**
+     * Saves the tree to {@code file} once {@code delayMillis} have passed without another
+     * request for the same file. Calling this after every edit saves once per burst of edits.
+     * A pending immediate save is not postponed.
+     */
+    public CompletableFuture<SaveResult> saveLater(File file, long delayMillis) {
+        return schedule(file, delayMillis);
+    }
+
+    private synchronized CompletableFuture<SaveResult> schedule(File file, long delayMillis) {
+        File key = file.getAbsoluteFile();
+        PendingSave save = pending.get(key);
+        if (save != null && save.immediate) {
+            return save.result;
+        }
+        if (save == null) {
+            save = new PendingSave();
+            pending.put(key, save);
+        } else if (!save.task.cancel(false)) {
+            // Already started; the next request gets a save of its own
+            save = new PendingSave();
+            pending.put(key, save);
+        }
+        save.immediate = delayMillis == 0;
+        PendingSave scheduled = save;
+        save.task = executor.schedule(() -> run(key, scheduled), delayMillis, TimeUnit.MILLISECONDS);
+        return save.result;
+    }
+
+    private void run(File file, PendingSave save) {
+        long start = System.nanoTime();
+        Long savedVersion;
+        synchronized (this) {
+            if (pending.get(file) == save) {
+                pending.remove(file);
+            }
+            savedVersion = savedVersions.get(file);
+        }
+        try {
+            FamilyTreeSnapshot snapshot = data.snapshot();
+            if (savedVersion != null && savedVersion == snapshot.getVersion() && file.exists()) {
+                synchronized (this) {
+                    skipCount++;
+                }
+                save.result.complete(new SaveResult(file, snapshot.getVersion(), true, 0));
+                return;
+            }
+            JsonManager.saveSnapshot(snapshot, file);
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            synchronized (this) {
+                savedVersions.put(file, snapshot.getVersion());
+                saveCount++;
+                totalMillis += millis;
+                lastMillis = millis;
+            }
+            System.out.println("Saved " + file.getName() + " (version " + snapshot.getVersion() + ") in " + millis
+                    + " ms, " + getQueueDepth() + " save(s) queued");
+            save.result.complete(new SaveResult(file, snapshot.getVersion(), false, millis));
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Saving " + file + " failed: " + e.getMessage());
+            save.result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Drops a delayed save of {@code file} that has not started yet, e.g. because a different
+     * tree is about to be loaded. Immediate saves are left alone.
+     *
+     * @return true if a save was dropped.
+     */
+    public synchronized boolean cancelDelayed(File file) {
+        File key = file.getAbsoluteFile();
+        PendingSave save = pending.get(key);
+        if (save == null || save.immediate || !save.task.cancel(false)) {
+            return false;
+        }
+        pending.remove(key);
+        save.result.cancel(false);
+        return true;
+    }
+
+    /**
+     * Number of saves that have been requested but not started.
+     */
+    public synchronized int getQueueDepth() {
+        return pending.size();
+    }
+
+    public synchronized long getSaveCount() {
+        return saveCount;
+    }
+
+    public synchronized long getSkippedCount() {
+        return skipCount;
+    }
+
+    public synchronized long getLastSaveMillis() {
+        return lastMillis;
+    }
+
+    public synchronized double getAverageSaveMillis() {
+        return saveCount == 0 ? 0 : (double) totalMillis / saveCount;
+    }
+
+    /**
+     * Runs the saves that are still pending, immediately, and stops the background thread.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            for (Map.Entry<File, PendingSave> entry : pending.entrySet()) {
+                PendingSave save = entry.getValue();
+                if (save.task.cancel(false)) {
+                    executor.execute(() -> run(entry.getKey(), save));
+                }
+            }
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.familytree;
+
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Layout of the binary tree file (.ftb). All numbers are big-endian.
+ *
+ * <pre>
+ * header (64 bytes)
+ *   int  magic, int version, int personCount, int stringCount,
+ *   long stringDataPos, long stringOffsetsPos, long recordsPos,
+ *   long recordOffsetsPos, long edgesPos, long layoutPos
+ * string data      per string: varint byte length + UTF-8 bytes (names, dates,
+ *                  occupations, ... each distinct value stored once)
+ * string offsets   int[stringCount], relative to stringDataPos
+ * records          per person: varint string refs for id, name, birthDate, deathDate,
+ *                  gender, occupation, bio, profilePicturePath (ref + 1, 0 = null)
+ * record offsets   int[personCount], relative to recordsPos
+ * edges            int[n] father, int[n] mother (person index, -1 = none),
+ *                  int[n + 1] spouseStart, int[] spouses, int[n + 1] childStart, int[] children
+ * layout           int count, then count x (int person index, double x, double y)
+ * </pre>
+ *
+ * Fixed-width sections can be read in place from a memory-mapped file. Files are
+ * limited to 2 GB, the size of a single mapping.
+ */
+final class BinaryTreeFormat {
+    static final int MAGIC = 0x46544221; // "FTB!"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final String EXTENSION = ".ftb";
+
+    // Order of the string refs in a person record
+    static final int FIELD_ID = 0;
+    static final int FIELD_NAME = 1;
+    static final int FIELD_BIRTH_DATE = 2;
+    static final int FIELD_DEATH_DATE = 3;
+    static final int FIELD_GENDER = 4;
+    static final int FIELD_OCCUPATION = 5;
+    static final int FIELD_BIO = 6;
+    static final int FIELD_PICTURE = 7;
+    static final int FIELD_COUNT = 8;
+
+    private BinaryTreeFormat() {
+    }
+
+    static boolean isBinaryTreeFile(String fileName) {
+        return fileName.toLowerCase().endsWith(EXTENSION);
+    }
+
+    /**
+     * Checks the first bytes of an existing file for the magic number, whatever its name.
+     */
+    static boolean hasBinaryHeader(File file) throws IOException {
+        if (!file.isFile() || file.length() < HEADER_SIZE) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC;
+        }
+    }
+
+    static void writeVarint(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Reads an unsigned varint at the buffer's position, advancing it.
+     */
+    static int readVarint(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+}
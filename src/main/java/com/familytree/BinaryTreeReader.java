@@ -0,0 +1,271 @@
+package com.familytree;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.DoubleConsumer;
+
+import static com.familytree.BinaryTreeFormat.*;
+
+/**
+ * Reads binary tree files (see {@link BinaryTreeFormat}) through a read-only memory mapping.
+ * The file is mapped once; offsets, parents and adjacency are read in place without copying,
+ * and strings are decoded only when asked for. The mapping is released by {@link #close()},
+ * so that the file can be replaced (see {@link MappedFiles}).
+ */
+public class BinaryTreeReader {
+    // Report progress every this many persons
+    private static final int PROGRESS_INTERVAL = 1000;
+
+    private final MappedByteBuffer buffer;
+    private final int personCount;
+    private final int stringCount;
+    private final int stringDataPos;
+    private final int stringOffsetsPos;
+    private final int recordsPos;
+    private final int recordOffsetsPos;
+    private final int fatherPos;
+    private final int motherPos;
+    private final int spouseStartPos;
+    private final int spousesPos;
+    private final int childStartPos;
+    private final int childrenPos;
+    private final int layoutPos;
+
+    private BinaryTreeReader(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a binary family tree file");
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported binary tree version " + version);
+        }
+        personCount = buffer.getInt(8);
+        stringCount = buffer.getInt(12);
+        stringDataPos = section(16);
+        stringOffsetsPos = section(24);
+        recordsPos = section(32);
+        recordOffsetsPos = section(40);
+        int edgesPos = section(48);
+        layoutPos = section(56);
+
+        fatherPos = edgesPos;
+        motherPos = fatherPos + personCount * Integer.BYTES;
+        spouseStartPos = motherPos + personCount * Integer.BYTES;
+        spousesPos = spouseStartPos + (personCount + 1) * Integer.BYTES;
+        childStartPos = spousesPos + buffer.getInt(spouseStartPos + personCount * Integer.BYTES) * Integer.BYTES;
+        childrenPos = childStartPos + (personCount + 1) * Integer.BYTES;
+    }
+
+    private int section(int headerOffset) throws IOException {
+        long position = buffer.getLong(headerOffset);
+        if (position < HEADER_SIZE || position > buffer.capacity()) {
+            throw new IOException("Corrupt binary tree file: section offset " + position);
+        }
+        return (int) position;
+    }
+
+    /**
+     * Maps a binary tree file. The mapping stays valid until {@link #close()}.
+     *
+     * @throws IOException if the file cannot be mapped or is not a supported binary tree file.
+     */
+    public static BinaryTreeReader open(File file) throws IOException {
+        MappedByteBuffer buffer = MappedFiles.map(file);
+        try {
+            return new BinaryTreeReader(buffer);
+        } catch (IOException e) {
+            MappedFiles.unmap(buffer);
+            throw e;
+        }
+    }
+
+    /**
+     * Releases the mapping. Nothing may be read through this reader afterwards.
+     */
+    void close() {
+        MappedFiles.unmap(buffer);
+    }
+
+    /**
+     * Reads a whole binary tree file.
+     *
+     * @param file     The file to read.
+     * @param progress Receives the fraction of persons read so far (0..1); may be null.
+     * @return The people and layout positions found in the file.
+     * @throws IOException if the file cannot be read.
+     */
+    public static TreeContent read(File file, DoubleConsumer progress) throws IOException {
+        return read(file, progress, 0);
+    }
+
+    /**
+     * Reads a binary tree file, leaving bio, occupation and picture path in the mapped file.
+     * Those fields are decoded when first accessed and kept in an LRU cache of
+     * {@code cacheSize} persons; see {@link LazyDetails}.
+     */
+    public static TreeContent readLazy(File file, DoubleConsumer progress, int cacheSize) throws IOException {
+        return read(file, progress, cacheSize);
+    }
+
+    private static TreeContent read(File file, DoubleConsumer progress, int lazyCacheSize) throws IOException {
+        BinaryTreeReader reader = open(file);
+        if (lazyCacheSize > 0) {
+            return reader.read(progress, new LazyDetails(file, reader, lazyCacheSize));
+        }
+        TreeContent content = reader.read(progress, null);
+        // Everything has been copied out, so the file can be replaced right away. After a
+        // failure the mapping is left to the garbage collector: workers may still be reading it
+        reader.close();
+        return content;
+    }
+
+    private TreeContent read(DoubleConsumer progress, LazyDetails lazyDetails) {
+        int count = personCount();
+
+        // Each distinct string is decoded once, so repeated values share a single instance.
+        // Threads may race to fill a slot; they store equal immutable strings, so either wins.
+        String[] strings = new String[stringCount];
+
+        // Records are independent, so ranges of them are decoded in parallel; see ParallelLoad
+        Person[] decoded = new Person[count];
+        AtomicInteger done = new AtomicInteger();
+        ParallelLoad.forRanges(count, (from, to) -> {
+            int[] refs = new int[FIELD_COUNT];
+            for (int i = from; i < to; i++) {
+                readRefs(i, refs);
+                Person person = new Person(string(strings, refs[FIELD_ID]), string(strings, refs[FIELD_NAME]),
+                        orEmpty(string(strings, refs[FIELD_BIRTH_DATE])), orEmpty(string(strings, refs[FIELD_DEATH_DATE])),
+                        orEmpty(string(strings, refs[FIELD_GENDER])), "", "", null, null, null, null, null);
+                if (lazyDetails != null) {
+                    person.attachLazyDetails(lazyDetails, i);
+                } else {
+                    person.setBio(orEmpty(string(strings, refs[FIELD_BIO])));
+                    person.setOccupation(orEmpty(string(strings, refs[FIELD_OCCUPATION])));
+                    person.setProfilePicturePath(string(strings, refs[FIELD_PICTURE]));
+                }
+                decoded[i] = person;
+                if (progress != null && done.incrementAndGet() % PROGRESS_INTERVAL == 0) {
+                    progress.accept(0.8 * done.get() / count);
+                }
+            }
+        });
+        List<Person> people = new ArrayList<>(Arrays.asList(decoded));
+
+        // Resolve relationship indices to ids; each range only touches its own people
+        ParallelLoad.forRanges(count, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                Person person = decoded[i];
+                int father = father(i);
+                int mother = mother(i);
+                person.setFatherId(father >= 0 ? decoded[father].getId() : null);
+                person.setMotherId(mother >= 0 ? decoded[mother].getId() : null);
+                for (int k = 0, n = spouseCount(i); k < n; k++) {
+                    person.getSpouseIds().add(decoded[spouseAt(i, k)].getId());
+                }
+                for (int k = 0, n = childCount(i); k < n; k++) {
+                    person.getChildIds().add(decoded[childAt(i, k)].getId());
+                }
+            }
+        });
+        if (progress != null) {
+            progress.accept(0.9);
+        }
+
+        Map<String, Position> layoutPositions = new HashMap<>();
+        int position = layoutPos;
+        int layoutCount = buffer.getInt(position);
+        position += Integer.BYTES;
+        for (int k = 0; k < layoutCount; k++) {
+            String id = people.get(buffer.getInt(position)).getId();
+            double x = buffer.getDouble(position + 4);
+            double y = buffer.getDouble(position + 12);
+            layoutPositions.put(id, new Position(x, y, id));
+            position += 20;
+        }
+
+        if (progress != null) {
+            progress.accept(1.0);
+        }
+        return new TreeContent(people, layoutPositions);
+    }
+
+    private String string(String[] strings, int ref) {
+        if (ref == 0) {
+            return null;
+        }
+        String value = strings[ref - 1];
+        if (value == null) {
+            value = string(ref);
+            strings[ref - 1] = value;
+        }
+        return value;
+    }
+
+    private static String orEmpty(String value) {
+        return value != null ? value : "";
+    }
+
+    public int personCount() {
+        return personCount;
+    }
+
+    /**
+     * Decodes a string by its record ref (string index + 1); returns null for ref 0.
+     */
+    String string(int ref) {
+        if (ref == 0) {
+            return null;
+        }
+        ByteBuffer view = buffer.duplicate();
+        view.position(stringDataPos + buffer.getInt(stringOffsetsPos + (ref - 1) * Integer.BYTES));
+        int length = readVarint(view);
+        byte[] bytes = new byte[length];
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the string refs of a person's record into {@code refs}, which must hold FIELD_COUNT entries.
+     */
+    void readRefs(int index, int[] refs) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(recordsPos + buffer.getInt(recordOffsetsPos + index * Integer.BYTES));
+        for (int f = 0; f < FIELD_COUNT; f++) {
+            refs[f] = readVarint(view);
+        }
+    }
+
+    int father(int index) {
+        return buffer.getInt(fatherPos + index * Integer.BYTES);
+    }
+
+    int mother(int index) {
+        return buffer.getInt(motherPos + index * Integer.BYTES);
+    }
+
+    int spouseCount(int index) {
+        return buffer.getInt(spouseStartPos + (index + 1) * Integer.BYTES) - buffer.getInt(spouseStartPos + index * Integer.BYTES);
+    }
+
+    int spouseAt(int index, int k) {
+        return buffer.getInt(spousesPos + (buffer.getInt(spouseStartPos + index * Integer.BYTES) + k) * Integer.BYTES);
+    }
+
+    int childCount(int index) {
+        return buffer.getInt(childStartPos + (index + 1) * Integer.BYTES) - buffer.getInt(childStartPos + index * Integer.BYTES);
+    }
+
+    int childAt(int index, int k) {
+        return buffer.getInt(childrenPos + (buffer.getInt(childStartPos + index * Integer.BYTES) + k) * Integer.BYTES);
+    }
+}
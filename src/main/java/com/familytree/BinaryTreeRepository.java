@@ -0,0 +1,43 @@
+package com.familytree;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Tree stored in the memory-mapped binary format (see {@link BinaryTreeFormat}).
+ * Files at least {@code familytree.lazyLoadThreshold} bytes large (32 MB by default) are
+ * loaded lazily: bio, occupation and picture path stay in the file until first accessed.
+ */
+public class BinaryTreeRepository extends FileTreeRepository {
+    private static final long LAZY_LOAD_THRESHOLD = Long.getLong("familytree.lazyLoadThreshold", 32L * 1024 * 1024);
+
+    public BinaryTreeRepository(File file) {
+        super(file);
+    }
+
+    @Override
+    public TreeContent loadAll(DoubleConsumer progress) throws IOException {
+        if (file.length() >= LAZY_LOAD_THRESHOLD) {
+            return BinaryTreeReader.readLazy(file, progress, LazyDetails.DEFAULT_CACHE_SIZE);
+        }
+        return BinaryTreeReader.read(file, progress);
+    }
+
+    @Override
+    protected void write(FamilyTreeSnapshot snapshot, File target) throws IOException {
+        BinaryTreeWriter.write(snapshot, target);
+    }
+
+    // BinaryTreeWriter stores persons in snapshot order
+    @Override
+    protected List<PersonRecord> storedOrder(FamilyTreeSnapshot snapshot) {
+        return snapshot.getPeople();
+    }
+
+    @Override
+    protected String extension() {
+        return BinaryTreeFormat.EXTENSION;
+    }
+}
@@ -0,0 +1,167 @@
+package com.familytree;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.familytree.BinaryTreeFormat.*;
+
+/**
+ * Writes a {@link FamilyTreeSnapshot} in the binary format described in {@link BinaryTreeFormat}.
+ */
+public class BinaryTreeWriter {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    public static void write(FamilyTreeSnapshot snapshot, File file) throws IOException {
+        List<PersonRecord> people = snapshot.getPeople();
+        int personCount = people.size();
+
+        Map<String, Integer> personIndex = new HashMap<>(personCount * 4 / 3 + 1);
+        for (int i = 0; i < personCount; i++) {
+            personIndex.put(people.get(i).id(), i);
+        }
+
+        // Intern every string once; refs are stored as index + 1 so that 0 means null
+        Map<String, Integer> stringIndex = new HashMap<>();
+        int[] refs = new int[personCount * FIELD_COUNT];
+        for (int i = 0; i < personCount; i++) {
+            PersonRecord person = people.get(i);
+            int base = i * FIELD_COUNT;
+            refs[base + FIELD_ID] = intern(stringIndex, person.id());
+            refs[base + FIELD_NAME] = intern(stringIndex, person.name());
+            refs[base + FIELD_BIRTH_DATE] = intern(stringIndex, person.birthDate());
+            refs[base + FIELD_DEATH_DATE] = intern(stringIndex, person.deathDate());
+            refs[base + FIELD_GENDER] = intern(stringIndex, person.gender());
+            refs[base + FIELD_OCCUPATION] = intern(stringIndex, person.occupation());
+            refs[base + FIELD_BIO] = intern(stringIndex, person.bio());
+            refs[base + FIELD_PICTURE] = intern(stringIndex, person.profilePicturePath());
+        }
+        String[] strings = new String[stringIndex.size()];
+        for (Map.Entry<String, Integer> entry : stringIndex.entrySet()) {
+            strings[entry.getValue() - 1] = entry.getKey();
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+            out.write(new byte[HEADER_SIZE]);
+
+            // String data, then the offset of each string
+            long stringDataPos = out.size();
+            int[] stringOffsets = new int[strings.length];
+            for (int s = 0; s < strings.length; s++) {
+                stringOffsets[s] = (int) (out.size() - stringDataPos);
+                byte[] bytes = strings[s].getBytes(StandardCharsets.UTF_8);
+                writeVarint(out, bytes.length);
+                out.write(bytes);
+            }
+            long stringOffsetsPos = out.size();
+            for (int offset : stringOffsets) {
+                out.writeInt(offset);
+            }
+
+            // Person records, then the offset of each record
+            long recordsPos = out.size();
+            int[] recordOffsets = new int[personCount];
+            for (int i = 0; i < personCount; i++) {
+                recordOffsets[i] = (int) (out.size() - recordsPos);
+                for (int f = 0; f < FIELD_COUNT; f++) {
+                    writeVarint(out, refs[i * FIELD_COUNT + f]);
+                }
+            }
+            long recordOffsetsPos = out.size();
+            for (int offset : recordOffsets) {
+                out.writeInt(offset);
+            }
+
+            long edgesPos = out.size();
+            writeEdges(out, people, personIndex);
+
+            long layoutPos = out.size();
+            writeLayout(out, snapshot.getLayoutPositions(), personIndex);
+            out.flush();
+            if (out.size() == Integer.MAX_VALUE) {
+                throw new IOException("Tree is too large for the binary format (2 GB limit)");
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(personCount).putInt(strings.length)
+                    .putLong(stringDataPos).putLong(stringOffsetsPos).putLong(recordsPos)
+                    .putLong(recordOffsetsPos).putLong(edgesPos).putLong(layoutPos);
+            header.flip();
+            channel.write(header, 0);
+        }
+    }
+
+    private static int intern(Map<String, Integer> stringIndex, String value) {
+        if (value == null) {
+            return 0;
+        }
+        return stringIndex.computeIfAbsent(value, v -> stringIndex.size() + 1);
+    }
+
+    private static void writeEdges(DataOutputStream out, List<PersonRecord> people, Map<String, Integer> personIndex) throws IOException {
+        for (PersonRecord person : people) {
+            out.writeInt(personIndex.getOrDefault(person.fatherId(), -1));
+        }
+        for (PersonRecord person : people) {
+            out.writeInt(personIndex.getOrDefault(person.motherId(), -1));
+        }
+        writeAdjacency(out, people, personIndex, true);
+        writeAdjacency(out, people, personIndex, false);
+    }
+
+    // CSR block: start offsets for every person, then the concatenated neighbour indices
+    private static void writeAdjacency(DataOutputStream out, List<PersonRecord> people, Map<String, Integer> personIndex,
+                                       boolean spouses) throws IOException {
+        int[] start = new int[people.size() + 1];
+        int total = 0;
+        for (int i = 0; i < people.size(); i++) {
+            start[i] = total;
+            for (String id : spouses ? people.get(i).spouseIds() : people.get(i).childIds()) {
+                if (personIndex.containsKey(id)) {
+                    total++;
+                }
+            }
+        }
+        start[people.size()] = total;
+        for (int value : start) {
+            out.writeInt(value);
+        }
+        for (PersonRecord person : people) {
+            for (String id : spouses ? person.spouseIds() : person.childIds()) {
+                Integer index = personIndex.get(id);
+                if (index != null) {
+                    out.writeInt(index);
+                }
+            }
+        }
+    }
+
+    private static void writeLayout(DataOutputStream out, Map<String, Position> layoutPositions, Map<String, Integer> personIndex) throws IOException {
+        int count = 0;
+        for (String id : layoutPositions.keySet()) {
+            if (personIndex.containsKey(id)) {
+                count++;
+            }
+        }
+        out.writeInt(count);
+        for (Map.Entry<String, Position> entry : layoutPositions.entrySet()) {
+            Integer index = personIndex.get(entry.getKey());
+            if (index != null) {
+                out.writeInt(index);
+                out.writeDouble(entry.getValue().getX());
+                out.writeDouble(entry.getValue().getY());
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.familytree;
+
+import javafx.beans.property.DoubleProperty;
+import javafx.beans.property.ReadOnlyDoubleProperty;
+import javafx.beans.property.ReadOnlyDoubleWrapper;
+import javafx.beans.property.SimpleDoubleProperty;
+
+/**
+ * Pan and zoom of the tree views. A point (x, y) of the tree is shown at
+ * (x * scale + translateX, y * scale + translateY) in the view. Both views follow one
+ * camera, so switching between them keeps the same part of the tree in sight.
+ *
+ * The scale also picks how much is drawn: full {@link PersonCell}s from {@link #CELL_SCALE}
+ * up, boxes with names further out, and coloured dots below {@link #DOT_SCALE}.
+ */
+public class Camera {
+    public static final double MIN_SCALE = 0.005;
+    public static final double MAX_SCALE = 4;
+    /**
+     * Zoom from which people are drawn as full cells with their pictures.
+     */
+    public static final double CELL_SCALE = 0.5;
+    /**
+     * Zoom below which people are drawn as dots.
+     */
+    public static final double DOT_SCALE = 0.12;
+    // Scroll wheel and touchpad deltas are turned into a zoom factor of exp(delta * ZOOM_SPEED),
+    // so small touchpad steps zoom smoothly and a wheel notch (40 px) about 13%
+    private static final double ZOOM_SPEED = 0.003;
+
+    private final DoubleProperty translateX = new SimpleDoubleProperty(this, "translateX");
+    private final DoubleProperty translateY = new SimpleDoubleProperty(this, "translateY");
+    private final ReadOnlyDoubleWrapper scale = new ReadOnlyDoubleWrapper(this, "scale", 1);
+
+    public DoubleProperty translateXProperty() {
+        return translateX;
+    }
+
+    public DoubleProperty translateYProperty() {
+        return translateY;
+    }
+
+    public ReadOnlyDoubleProperty scaleProperty() {
+        return scale.getReadOnlyProperty();
+    }
+
+    public double getTranslateX() {
+        return translateX.get();
+    }
+
+    public double getTranslateY() {
+        return translateY.get();
+    }
+
+    public double getScale() {
+        return scale.get();
+    }
+
+    public void panBy(double dx, double dy) {
+        translateX.set(translateX.get() + dx);
+        translateY.set(translateY.get() + dy);
+    }
+
+    /**
+     * Zooms by a scroll delta, keeping the tree point under (viewX, viewY) where it is.
+     */
+    public void zoomBy(double viewX, double viewY, double delta) {
+        zoomTo(viewX, viewY, getScale() * Math.exp(delta * ZOOM_SPEED));
+    }
+
+    /**
+     * Sets the scale (within MIN_SCALE..MAX_SCALE), keeping the tree point under
+     * (viewX, viewY) where it is.
+     */
+    public void zoomTo(double viewX, double viewY, double newScale) {
+        double treeX = toTreeX(viewX);
+        double treeY = toTreeY(viewY);
+        newScale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, newScale));
+        // Translate first: the scale listeners then see a consistent camera
+        translateX.set(viewX - treeX * newScale);
+        translateY.set(viewY - treeY * newScale);
+        scale.set(newScale);
+    }
+
+    public double toTreeX(double viewX) {
+        return (viewX - getTranslateX()) / getScale();
+    }
+
+    public double toTreeY(double viewY) {
+        return (viewY - getTranslateY()) / getScale();
+    }
+
+    public double toViewX(double treeX) {
+        return treeX * getScale() + getTranslateX();
+    }
+
+    public double toViewY(double treeY) {
+        return treeY * getScale() + getTranslateY();
+    }
+}
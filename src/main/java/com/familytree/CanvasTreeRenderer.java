@@ -0,0 +1,738 @@
+package com.familytree;
+
+import javafx.application.Platform;
+import javafx.geometry.BoundingBox;
+import javafx.geometry.Bounds;
+import javafx.geometry.VPos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.Image;
+import javafx.scene.input.MouseButton;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.TextAlignment;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Draws the tree straight onto canvases instead of creating a node per person, for trees
+ * too large for {@link TreeVisualizer}. Cells look like {@link PersonCell}s and couples are
+ * drawn side by side, as in the node view.
+ *
+ * Lines are drawn on one canvas and cells on another above it. The lines are redrawn as a
+ * whole whenever anything changes; the cells only in the rectangles of the people that
+ * changed, unless the view was panned or zoomed. People are found under the mouse through a
+ * {@link SpatialIndex} of where their cells are drawn, so clicks and drags look at a few
+ * cells only. Menus, dialogs and relationship changes are those of the node view, which
+ * this view calls for them.
+ *
+ * How much is drawn depends on the zoom of the {@link Camera}: full cells with pictures
+ * from {@link Camera#CELL_SCALE}, boxes with names below it, and below
+ * {@link Camera#DOT_SCALE} one dot per person and no lines.
+ */
+public class CanvasTreeRenderer {
+    private static final double CELL_WIDTH = 100;
+    private static final double CELL_HEIGHT = 120;
+    private static final double SPACING = 10;
+    private static final double GROUP_WIDTH = 2 * CELL_WIDTH + SPACING;
+    private static final int IMAGE_SIZE = 80;
+    // Names smaller than this many pixels are not drawn
+    private static final double MIN_FONT_SIZE = 5;
+    // Font size of the names in boxes, at zoom 1
+    private static final double NAME_FONT_SIZE = 30;
+    // More dirty rectangles than this are cheaper to draw as one full repaint
+    private static final int MAX_DIRTY_RECTS = 64;
+
+    private final FamilyTreeData data = FamilyTreeData.getInstance();
+    private final TreeVisualizer actions;
+    private final Camera camera;
+    private final Pane view = new Pane();
+    private final Canvas edgeCanvas = new Canvas();
+    private final Canvas cellCanvas = new Canvas();
+
+    // Top left corner of each drawn cell, in tree coordinates
+    private final SpatialIndex index = new SpatialIndex(512);
+    // The partner each person is drawn next to
+    private final Map<String, String> partners = new HashMap<>();
+    // People whose picture is being loaded, so a repaint does not ask for it again
+    private final Set<String> awaiting = new HashSet<>();
+
+    // Cell rectangles to repaint, in tree coordinates
+    private final List<Bounds> dirty = new ArrayList<>();
+    private boolean fullRepaint;
+
+    // Changes not drawn yet; guarded by pendingIds
+    private final Set<String> pendingIds = new HashSet<>();
+    private boolean pendingReload;
+    private boolean pendingRepaint;
+    private boolean redrawScheduled;
+    private volatile boolean active;
+
+    private String selectedId;
+    private String overlappingId;
+    private String draggedId;
+    private boolean panning;
+    // Drag events only note where the dragged person goes; they are moved once per pulse
+    private CoalescedDrag drag;
+    private final double[] dragOffset = new double[2];
+
+    public CanvasTreeRenderer(TreeVisualizer actions, Camera camera) {
+        this.actions = actions;
+        this.camera = camera;
+        view.getChildren().addAll(edgeCanvas, cellCanvas);
+        edgeCanvas.widthProperty().bind(view.widthProperty());
+        edgeCanvas.heightProperty().bind(view.heightProperty());
+        cellCanvas.widthProperty().bind(view.widthProperty());
+        cellCanvas.heightProperty().bind(view.heightProperty());
+        cellCanvas.widthProperty().addListener(observable -> repaintAll());
+        cellCanvas.heightProperty().addListener(observable -> repaintAll());
+        camera.translateXProperty().addListener(observable -> repaintAll());
+        camera.translateYProperty().addListener(observable -> repaintAll());
+        camera.scaleProperty().addListener(observable -> repaintAll());
+        data.addChangeListener(this::onTreeChange);
+
+        view.setOnMousePressed(event -> {
+            if (!active || event.getButton() != MouseButton.PRIMARY) {
+                return;
+            }
+            String id = personAt(event.getX(), event.getY());
+            select(id);
+            if (id != null) {
+                draggedId = id;
+                String left = leftOf(id);
+                dragOffset[0] = toTreeX(event.getX()) - index.x(left);
+                dragOffset[1] = toTreeY(event.getY()) - index.y(left);
+            } else {
+                panning = true;
+                dragOffset[0] = event.getX();
+                dragOffset[1] = event.getY();
+            }
+            event.consume();
+        });
+
+        view.setOnMouseDragged(event -> {
+            if (!active) {
+                return;
+            }
+            if (draggedId != null) {
+                drag().dragTo(toTreeX(event.getX()) - dragOffset[0], toTreeY(event.getY()) - dragOffset[1]);
+            } else if (panning) {
+                camera.panBy(event.getX() - dragOffset[0], event.getY() - dragOffset[1]);
+                dragOffset[0] = event.getX();
+                dragOffset[1] = event.getY();
+            }
+            event.consume();
+        });
+
+        view.setOnMouseReleased(event -> {
+            if (!active) {
+                return;
+            }
+            drag().finish(); // The drop is checked where the mouse was let go
+            String target = overlappingId;
+            String dragged = draggedId;
+            setOverlapping(null);
+            draggedId = null;
+            panning = false;
+            if (dragged != null && target != null && data.getPerson(dragged) != null && data.getPerson(target) != null) {
+                actions.relate(data.getPerson(dragged), data.getPerson(target));
+            }
+            event.consume();
+        });
+
+        view.setOnScroll(event -> {
+            if (!active) {
+                return;
+            }
+            camera.zoomBy(event.getX(), event.getY(), event.getDeltaY());
+            event.consume();
+        });
+
+        view.setOnContextMenuRequested(event -> {
+            if (!active) {
+                return;
+            }
+            String id = personAt(event.getX(), event.getY());
+            if (id != null) {
+                select(id);
+                actions.showContextMenu(data.getPerson(id), view, event.getScreenX(), event.getScreenY());
+            }
+            event.consume();
+        });
+    }
+
+    /**
+     * The node holding the canvases, sized by its parent.
+     */
+    public Pane getView() {
+        return view;
+    }
+
+    /**
+     * Turns this view on or off. While off it keeps no index and ignores changes; turning
+     * it on draws the whole tree.
+     */
+    public void setActive(boolean active) {
+        if (this.active == active) {
+            return;
+        }
+        synchronized (pendingIds) {
+            this.active = active;
+            pendingIds.clear();
+            pendingReload = false;
+            pendingRepaint = false;
+        }
+        if (active) {
+            refresh();
+            return;
+        }
+        index.clear();
+        partners.clear();
+        awaiting.clear();
+        dirty.clear();
+        selectedId = null;
+        overlappingId = null;
+        draggedId = null;
+        clear(edgeCanvas);
+        clear(cellCanvas);
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Rebuilds the index of drawn cells from the model and repaints everything.
+     */
+    public void refresh() {
+        index.clear();
+        partners.clear();
+        awaiting.clear();
+        selectedId = null;
+        overlappingId = null;
+        draggedId = null;
+        List<Person> unplaced = new ArrayList<>();
+        for (Person person : data.getAllPeople()) {
+            if (!place(person)) {
+                unplaced.add(person);
+            }
+        }
+        placeUnplaced(unplaced);
+        fullRepaint = true;
+        drawEdges();
+        drawCells();
+    }
+
+    // Called by the model with its write lock held: note what changed and draw it on the FX thread
+    private void onTreeChange(TreeChange change) {
+        if (!active) {
+            return;
+        }
+        synchronized (pendingIds) {
+            if (change.reloaded()) {
+                pendingReload = true;
+            } else {
+                for (PersonRecord person : change.updatedPeople()) {
+                    pendingIds.add(person.id());
+                }
+                pendingIds.addAll(change.removedIds());
+                pendingIds.addAll(change.movedPositions().keySet());
+            }
+        }
+        scheduleRedraw();
+    }
+
+    // Panning, zooming and resizing repaint everything, once per pulse
+    private void repaintAll() {
+        if (!active) {
+            return;
+        }
+        synchronized (pendingIds) {
+            pendingRepaint = true;
+        }
+        scheduleRedraw();
+    }
+
+    private void scheduleRedraw() {
+        synchronized (pendingIds) {
+            if (redrawScheduled) {
+                return;
+            }
+            redrawScheduled = true;
+        }
+        Platform.runLater(this::drawPendingChanges);
+    }
+
+    private void drawPendingChanges() {
+        Set<String> ids;
+        boolean reload;
+        boolean repaint;
+        synchronized (pendingIds) {
+            ids = new LinkedHashSet<>(pendingIds);
+            reload = pendingReload;
+            repaint = pendingRepaint;
+            pendingIds.clear();
+            pendingReload = false;
+            pendingRepaint = false;
+            redrawScheduled = false;
+        }
+        if (!active) {
+            return;
+        }
+        if (reload) {
+            refresh();
+            return;
+        }
+        if (!ids.isEmpty()) {
+            update(ids);
+        }
+        if (repaint) {
+            fullRepaint = true;
+        }
+        if (fullRepaint || !ids.isEmpty()) {
+            // A moved person moves the lines of all of their relatives, so lines are always redrawn whole
+            drawEdges();
+        }
+        drawCells();
+    }
+
+    // Brings the index in line with the model for these people and marks where they were and are
+    private void update(Set<String> changedIds) {
+        // A change can split or form a couple, so both partners of old and new couples are looked at
+        Set<String> ids = new LinkedHashSet<>(changedIds);
+        for (String id : changedIds) {
+            String partnerId = partners.get(id);
+            if (partnerId != null) {
+                ids.add(partnerId);
+            }
+            Person person = data.getPerson(id);
+            if (person != null) {
+                partnerId = TreeVisualizer.partnerOf(data, person);
+                if (partnerId != null) {
+                    ids.add(partnerId);
+                }
+            }
+        }
+        List<Person> unplaced = new ArrayList<>();
+        for (String id : ids) {
+            markDirty(id);
+            Person person = data.getPerson(id);
+            if (person == null) {
+                index.remove(id);
+                partners.remove(id);
+                awaiting.remove(id);
+            } else {
+                awaiting.remove(id); // The picture may have changed
+                if (!place(person)) {
+                    unplaced.add(person);
+                }
+            }
+            markDirty(id);
+        }
+        placeUnplaced(unplaced);
+        if (selectedId != null && data.getPerson(selectedId) == null) {
+            selectedId = null;
+        }
+    }
+
+    /**
+     * Indexes where a person's cell is drawn: at their position, or to the right of their
+     * partner when they are the one with the greater id, so a couple is always drawn side
+     * by side however it was stored.
+     *
+     * @return False if the person has no position yet.
+     */
+    private boolean place(Person person) {
+        String id = person.getId();
+        String partnerId = TreeVisualizer.partnerOf(data, person);
+        if (partnerId != null) {
+            partners.put(id, partnerId);
+        } else {
+            partners.remove(id);
+        }
+        Position position = partnerId != null && partnerId.compareTo(id) < 0 ? data.getLayoutPosition(partnerId) : null;
+        if (position != null) {
+            index.put(id, position.getX() + CELL_WIDTH + SPACING, position.getY());
+            return true;
+        }
+        position = data.getLayoutPosition(id);
+        if (position == null) {
+            index.remove(id);
+            return false;
+        }
+        index.put(id, position.getX(), position.getY());
+        return true;
+    }
+
+    // Gives people without a stored position one in view, as the node view does
+    private void placeUnplaced(List<Person> unplaced) {
+        if (unplaced.isEmpty()) {
+            return;
+        }
+        Bounds visible = visibleArea();
+        data.write(() -> {
+            for (Person person : unplaced) {
+                int count = index.size();
+                double x = visible.getMinX() + 50 + count * 10 % Math.max(100, visible.getWidth() - 100);
+                double y = visible.getMinY() + 50 + count * 10 % Math.max(120, visible.getHeight() - 120);
+                data.setLayoutPosition(person.getId(), new Position(x, y));
+                place(person);
+                markDirty(person.getId());
+            }
+        });
+    }
+
+    // Created on the first drag: the timer needs the running toolkit
+    private CoalescedDrag drag() {
+        if (drag == null) {
+            drag = new CoalescedDrag((x, y) -> {
+                if (draggedId != null && data.getPerson(draggedId) != null) {
+                    moveTo(draggedId, x, y);
+                }
+            });
+        }
+        return drag;
+    }
+
+    // Moves a person, or the couple they are drawn in, to a new top left corner
+    private void moveTo(String id, double x, double y) {
+        String partnerId = partners.get(id);
+        if (partnerId != null) {
+            String left = leftOf(id);
+            String right = left.equals(id) ? partnerId : id;
+            // Stored as the node view stores a dragged couple
+            data.write(() -> {
+                data.setLayoutPosition(left, x, y);
+                data.setLayoutPosition(right, x + GROUP_WIDTH / 2, y);
+            });
+            return;
+        }
+        data.setLayoutPosition(id, x, y);
+        // A single person dropped onto another one is related to them
+        setOverlapping(cellOverlapping(id, x, y));
+    }
+
+    // Any other cell overlapping a cell with its corner at x, y
+    private String cellOverlapping(String id, double x, double y) {
+        String[] found = new String[1];
+        index.query(x - CELL_WIDTH, y - CELL_HEIGHT, x + CELL_WIDTH, y + CELL_HEIGHT, other -> {
+            if (found[0] == null && !other.equals(id)) {
+                found[0] = other;
+            }
+        });
+        return found[0];
+    }
+
+    // The person whose cell is under a point of the view, or null. Cells are drawn in id
+    // order, so of overlapping cells the one with the greatest id is on top.
+    private String personAt(double viewX, double viewY) {
+        double x = toTreeX(viewX);
+        double y = toTreeY(viewY);
+        String[] found = new String[1];
+        index.query(x - CELL_WIDTH, y - CELL_HEIGHT, x, y, id -> {
+            if (found[0] == null || id.compareTo(found[0]) > 0) {
+                found[0] = id;
+            }
+        });
+        return found[0];
+    }
+
+    // The one of a couple drawn on the left, or the person alone
+    private String leftOf(String id) {
+        String partnerId = partners.get(id);
+        return partnerId != null && partnerId.compareTo(id) < 0 ? partnerId : id;
+    }
+
+    private void select(String id) {
+        markDirty(selectedId);
+        selectedId = id;
+        markDirty(id);
+        actions.setSelectedPerson(id != null ? data.getPerson(id) : null);
+        drawCells();
+    }
+
+    private void setOverlapping(String id) {
+        if (!Objects.equals(overlappingId, id)) {
+            markDirty(overlappingId);
+            overlappingId = id;
+            markDirty(id);
+            drawCells();
+        }
+    }
+
+    private void markDirty(String id) {
+        if (id != null && index.contains(id)) {
+            dirty.add(new BoundingBox(index.x(id), index.y(id), CELL_WIDTH, CELL_HEIGHT));
+        }
+    }
+
+    /**
+     * The part of the tree on screen, in tree coordinates.
+     */
+    private Bounds visibleArea() {
+        double width = view.getWidth() > 0 ? view.getWidth() : 800;
+        double height = view.getHeight() > 0 ? view.getHeight() : 600;
+        return new BoundingBox(toTreeX(0), toTreeY(0), width / camera.getScale(), height / camera.getScale());
+    }
+
+    private double toTreeX(double viewX) {
+        return camera.toTreeX(viewX);
+    }
+
+    private double toTreeY(double viewY) {
+        return camera.toTreeY(viewY);
+    }
+
+    /**
+     * Draws every line with an end within a screen of the view. Parent lines run from the
+     * child and spouse lines from the spouse with the smaller id; a line whose owner is
+     * further away is drawn from its other end. When people are drawn as dots, no lines are.
+     */
+    private void drawEdges() {
+        GraphicsContext gc = edgeCanvas.getGraphicsContext2D();
+        clear(edgeCanvas);
+        if (camera.getScale() < Camera.DOT_SCALE) {
+            return;
+        }
+        Bounds visible = visibleArea();
+        Set<String> near = new HashSet<>();
+        index.query(visible.getMinX() - visible.getWidth(), visible.getMinY() - visible.getHeight(),
+                visible.getMaxX() + visible.getWidth(), visible.getMaxY() + visible.getHeight(), near::add);
+
+        gc.setStroke(Color.BLACK);
+        gc.setLineWidth(Math.max(0.5, 2 * camera.getScale()));
+        gc.beginPath();
+        for (String id : near) {
+            Person person = data.getPerson(id);
+            if (person == null) {
+                continue;
+            }
+            edge(gc, person.getFatherId(), id);
+            edge(gc, person.getMotherId(), id);
+            for (String childId : person.getChildIds()) {
+                if (!near.contains(childId)) {
+                    edge(gc, id, childId);
+                }
+            }
+            for (String spouseId : person.getSpouseIds()) {
+                if ((spouseId.compareTo(id) > 0 || !near.contains(spouseId)) && !spouseId.equals(partners.get(id))) {
+                    edge(gc, id, spouseId);
+                }
+            }
+        }
+        gc.stroke();
+    }
+
+    // Adds the three segments of a line between the centres of two cells (of couples, the
+    // centre of the pair), like the node view's connection lines
+    private void edge(GraphicsContext gc, String startId, String endId) {
+        if (startId == null || !index.contains(startId) || !index.contains(endId)) {
+            return;
+        }
+        double startX = camera.toViewX(centerX(startId));
+        double startY = camera.toViewY(index.y(startId) + CELL_HEIGHT / 2);
+        double endX = camera.toViewX(centerX(endId));
+        double endY = camera.toViewY(index.y(endId) + CELL_HEIGHT / 2);
+        double midY = startY + (endY - startY) / 2;
+        gc.moveTo(startX, startY);
+        gc.lineTo(startX, midY);
+        gc.lineTo(endX, midY);
+        gc.lineTo(endX, endY);
+    }
+
+    private double centerX(String id) {
+        String left = leftOf(id);
+        return index.x(left) + (partners.containsKey(id) ? GROUP_WIDTH : CELL_WIDTH) / 2;
+    }
+
+    // Repaints the dirty rectangles of the cell canvas, or all of it
+    private void drawCells() {
+        if (!fullRepaint && dirty.isEmpty()) {
+            return;
+        }
+        GraphicsContext gc = cellCanvas.getGraphicsContext2D();
+        double scale = camera.getScale();
+        if (fullRepaint || dirty.size() > MAX_DIRTY_RECTS) {
+            clear(cellCanvas);
+            Bounds visible = visibleArea();
+            drawCellsIn(gc, visible.getMinX(), visible.getMinY(), visible.getMaxX(), visible.getMaxY());
+        } else {
+            for (Bounds area : dirty) {
+                // Pixels snapped outwards, so no antialiased border is left behind
+                double x = Math.floor(camera.toViewX(area.getMinX())) - 2;
+                double y = Math.floor(camera.toViewY(area.getMinY())) - 2;
+                double width = Math.ceil(area.getWidth() * scale) + 4;
+                double height = Math.ceil(area.getHeight() * scale) + 4;
+                gc.save();
+                gc.beginPath();
+                gc.rect(x, y, width, height);
+                gc.clip();
+                gc.clearRect(x, y, width, height);
+                drawCellsIn(gc, toTreeX(x), toTreeY(y), toTreeX(x + width), toTreeY(y + height));
+                gc.restore();
+            }
+        }
+        dirty.clear();
+        fullRepaint = false;
+    }
+
+    // Draws every cell intersecting the rectangle, given in tree coordinates, in the detail
+    // the zoom calls for
+    private void drawCellsIn(GraphicsContext gc, double minX, double minY, double maxX, double maxY) {
+        double scale = camera.getScale();
+        if (scale < Camera.DOT_SCALE) {
+            drawDotsIn(gc, minX, minY, maxX, maxY);
+            return;
+        }
+        List<String> ids = new ArrayList<>();
+        index.query(minX - CELL_WIDTH, minY - CELL_HEIGHT, maxX, maxY, ids::add);
+        ids.sort(null); // The same stacking whichever part is repainted
+        boolean full = scale >= Camera.CELL_SCALE;
+        // Boxes have no picture, so their names get the room and a larger font
+        double fontSize = (full ? Font.getDefault().getSize() : NAME_FONT_SIZE) * scale;
+        boolean names = fontSize >= MIN_FONT_SIZE;
+        gc.setFont(Font.font(Font.getDefault().getFamily(), fontSize));
+        gc.setTextAlign(TextAlignment.CENTER);
+        gc.setTextBaseline(full ? VPos.BOTTOM : VPos.CENTER);
+        for (String id : ids) {
+            Person person = data.getPerson(id);
+            if (person != null) {
+                drawCell(gc, person, camera.toViewX(index.x(id)), camera.toViewY(index.y(id)), full, names);
+            }
+        }
+    }
+
+    private void drawCell(GraphicsContext gc, Person person, double x, double y, boolean full, boolean names) {
+        double scale = camera.getScale();
+        double width = CELL_WIDTH * scale;
+        double height = CELL_HEIGHT * scale;
+        double radius = 10 * scale;
+        gc.setFill(Color.WHITE);
+        gc.fillRoundRect(x, y, width, height, radius, radius);
+        String id = person.getId();
+        if (id.equals(selectedId)) {
+            gc.setStroke(Color.DODGERBLUE);
+            gc.setLineWidth(2);
+        } else if (id.equals(overlappingId)) {
+            gc.setStroke(Color.ORANGE);
+            gc.setLineWidth(2);
+        } else {
+            gc.setStroke(Color.BLACK);
+            gc.setLineWidth(1);
+        }
+        gc.strokeRoundRect(x, y, width, height, radius, radius);
+        if (!full) {
+            if (names && person.getName() != null) {
+                gc.setFill(Color.BLACK);
+                gc.fillText(person.getName(), x + width / 2, y + height / 2, width - 2);
+            }
+            return;
+        }
+
+        Image picture = picture(person);
+        double size = IMAGE_SIZE * scale;
+        double pictureX = x + (width - size) / 2;
+        gc.save();
+        gc.beginPath();
+        gc.arc(pictureX + size / 2, y + size / 2, size / 2, size / 2, 0, 360);
+        gc.closePath();
+        gc.clip();
+        gc.drawImage(picture, pictureX, y, size, size);
+        gc.restore();
+
+        if (person.getName() != null) {
+            gc.setFill(Color.BLACK);
+            gc.fillText(person.getName(), x + width / 2, y + height - 2 * scale, width);
+        }
+    }
+
+    /**
+     * Draws a dot in the middle of every cell in the rectangle, coloured by gender. Far out
+     * many people share a pixel, so each 2 by 2 pixel block gets the first dot that falls in
+     * it and the others are skipped; the selected and the overlapped person are always drawn.
+     */
+    private void drawDotsIn(GraphicsContext gc, double minX, double minY, double maxX, double maxY) {
+        double scale = camera.getScale();
+        double size = Math.max(2, CELL_WIDTH * scale * 0.6);
+        double originX = camera.toViewX(minX);
+        double originY = camera.toViewY(minY);
+        int columns = (int) Math.ceil((maxX - minX) * scale / 2) + 1;
+        int rows = (int) Math.ceil((maxY - minY) * scale / 2) + 1;
+        BitSet taken = new BitSet();
+        index.query(minX - CELL_WIDTH, minY - CELL_HEIGHT, maxX, maxY, id -> {
+            double x = camera.toViewX(index.x(id) + CELL_WIDTH / 2);
+            double y = camera.toViewY(index.y(id) + CELL_HEIGHT / 2);
+            int column = (int) ((x - originX) / 2);
+            int row = (int) ((y - originY) / 2);
+            if (column >= 0 && row >= 0 && column < columns && row < rows) {
+                int block = row * columns + column;
+                if (taken.get(block)) {
+                    return;
+                }
+                taken.set(block);
+            }
+            Person person = data.getPerson(id);
+            if (person != null) {
+                gc.setFill(dotColor(person));
+                gc.fillOval(x - size / 2, y - size / 2, size, size);
+            }
+        });
+        for (String id : new String[] {overlappingId, selectedId}) {
+            Person person = id != null && index.contains(id) ? data.getPerson(id) : null;
+            if (person != null) {
+                double x = camera.toViewX(index.x(id) + CELL_WIDTH / 2);
+                double y = camera.toViewY(index.y(id) + CELL_HEIGHT / 2);
+                gc.setFill(dotColor(person));
+                gc.fillOval(x - size, y - size, 2 * size, 2 * size);
+            }
+        }
+    }
+
+    private Color dotColor(Person person) {
+        if (person.getId().equals(selectedId)) {
+            return Color.DODGERBLUE;
+        }
+        if (person.getId().equals(overlappingId)) {
+            return Color.ORANGE;
+        }
+        if ("Male".equals(person.getGender())) {
+            return Color.STEELBLUE;
+        }
+        if ("Female".equals(person.getGender())) {
+            return Color.INDIANRED;
+        }
+        return Color.GRAY;
+    }
+
+    // The thumbnail, or the placeholder while it loads; its cell is repainted once it is ready
+    private Image picture(Person person) {
+        String id = person.getId();
+        String reference = person.getProfilePicturePath();
+        if (awaiting.contains(id)) {
+            return ThumbnailService.getInstance().placeholder(IMAGE_SIZE);
+        }
+        Image image = ThumbnailService.getInstance().get(reference, IMAGE_SIZE, ready -> {
+            if (awaiting.remove(id)) {
+                markDirty(id);
+                drawCells();
+            }
+        });
+        if (image == ThumbnailService.getInstance().placeholder(IMAGE_SIZE) && reference != null && !reference.isEmpty()) {
+            awaiting.add(id);
+        }
+        return image;
+    }
+
+    private static void clear(Canvas canvas) {
+        canvas.getGraphicsContext2D().clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+    }
+}
@@ -0,0 +1,54 @@
+package com.familytree;
+
+import javafx.animation.AnimationTimer;
+
+/**
+ * Applies a drag at most once per animation pulse. Mouse events only note where the dragged
+ * thing should go; the next pulse moves it there once, however many events came in between,
+ * so the model, the index and the lines are updated once per frame rather than per event.
+ */
+final class CoalescedDrag extends AnimationTimer {
+    /**
+     * Moves the dragged thing to a top left corner, in tree coordinates.
+     */
+    interface Mover {
+        void moveTo(double x, double y);
+    }
+
+    private final Mover mover;
+    private double x;
+    private double y;
+    private boolean pending;
+
+    CoalescedDrag(Mover mover) {
+        this.mover = mover;
+    }
+
+    /**
+     * Notes the latest drag position; it is applied on the next pulse.
+     */
+    void dragTo(double x, double y) {
+        this.x = x;
+        this.y = y;
+        if (!pending) {
+            pending = true;
+            start();
+        }
+    }
+
+    /**
+     * Applies a position still waiting for its pulse, e.g. when the mouse is released first.
+     */
+    void finish() {
+        handle(0);
+    }
+
+    @Override
+    public void handle(long now) {
+        stop();
+        if (pending) {
+            pending = false;
+            mover.moveTo(x, y);
+        }
+    }
+}
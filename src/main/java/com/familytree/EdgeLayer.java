@@ -0,0 +1,280 @@
+package com.familytree;
+
+import javafx.scene.Group;
+import javafx.scene.Node;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.LineTo;
+import javafx.scene.shape.MoveTo;
+import javafx.scene.shape.Path;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The connection lines of {@link TreeVisualizer}, drawn without bindings.
+ *
+ * Each line is one {@link Path} of three segments, bent at the height halfway between its
+ * ends. The point each person's lines end at is kept in plain arrays, indexed by endpoint,
+ * together with the lines attached to it. A person whose node moved is only marked; once per
+ * pulse, after layout, their point is looked up again and only the lines attached to the
+ * people that actually moved are reshaped. Paths of removed lines are hidden and reused.
+ */
+final class EdgeLayer {
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Finds the point a person's lines end at.
+     */
+    interface Anchors {
+        /**
+         * Stores the point in {@code point[0]} and {@code point[1]}.
+         *
+         * @return False if the person has no point at the moment.
+         */
+        boolean locate(String id, double[] point);
+    }
+
+    private final Group group = new Group();
+    private final Anchors anchors;
+    private final Runnable flushTask = this::flush;
+    private final double[] point = new double[2];
+
+    // Endpoints: people with at least one line. Their points are NaN until located
+    private final Map<String, Integer> endpoints = new HashMap<>();
+    private String[] endpointIds = new String[INITIAL_CAPACITY];
+    private double[] anchorX = new double[INITIAL_CAPACITY];
+    private double[] anchorY = new double[INITIAL_CAPACITY];
+    private int[][] incident = new int[INITIAL_CAPACITY][];
+    private int[] incidentCount = new int[INITIAL_CAPACITY];
+    private int[] freeEndpoints = new int[INITIAL_CAPACITY];
+    private int freeEndpointCount;
+    private int endpointSlots;
+
+    // Lines, by slot
+    private int[] lineStart = new int[INITIAL_CAPACITY];
+    private int[] lineEnd = new int[INITIAL_CAPACITY];
+    private Path[] paths = new Path[INITIAL_CAPACITY];
+    private int[] freeLines = new int[INITIAL_CAPACITY];
+    private int freeLineCount;
+    private int lineSlots;
+
+    private final BitSet movedEndpoints = new BitSet();
+    private final BitSet dirtyLines = new BitSet();
+
+    EdgeLayer(Anchors anchors) {
+        this.anchors = anchors;
+        group.setManaged(false);
+        group.setMouseTransparent(true);
+        // Lines are brought up to date after each layout pass, when node sizes are known
+        group.sceneProperty().addListener((observable, oldScene, newScene) -> {
+            if (oldScene != null) {
+                oldScene.removePostLayoutPulseListener(flushTask);
+            }
+            if (newScene != null) {
+                newScene.addPostLayoutPulseListener(flushTask);
+            }
+        });
+    }
+
+    /**
+     * The node holding the lines; it belongs behind the cells.
+     */
+    Node getNode() {
+        return group;
+    }
+
+    /**
+     * Adds a line between two people. It is shaped on the next pulse.
+     *
+     * @return The line's slot, for {@link #remove(int)}.
+     */
+    int add(String startId, String endId) {
+        int start = endpoint(startId);
+        int end = endpoint(endId);
+        int line;
+        if (freeLineCount > 0) {
+            line = freeLines[--freeLineCount];
+        } else {
+            line = lineSlots++;
+            if (line == paths.length) {
+                int capacity = paths.length * 2;
+                lineStart = Arrays.copyOf(lineStart, capacity);
+                lineEnd = Arrays.copyOf(lineEnd, capacity);
+                paths = Arrays.copyOf(paths, capacity);
+            }
+            Path path = new Path(new MoveTo(), new LineTo(), new LineTo(), new LineTo());
+            path.setStrokeWidth(2);
+            path.setStroke(Color.BLACK);
+            paths[line] = path;
+            group.getChildren().add(path);
+        }
+        paths[line].setVisible(false);
+        lineStart[line] = start;
+        lineEnd[line] = end;
+        attach(start, line);
+        attach(end, line);
+        dirtyLines.set(line);
+        // Both ends are located again: a person without a node is placed by position, which may have changed
+        movedEndpoints.set(start);
+        movedEndpoints.set(end);
+        return line;
+    }
+
+    void remove(int line) {
+        paths[line].setVisible(false);
+        dirtyLines.clear(line);
+        detach(lineStart[line], line);
+        detach(lineEnd[line], line);
+        if (freeLineCount == freeLines.length) {
+            freeLines = Arrays.copyOf(freeLines, freeLines.length * 2);
+        }
+        freeLines[freeLineCount++] = line;
+    }
+
+    /**
+     * Notes that a person's point may have changed. Their lines follow on the next pulse.
+     */
+    void moved(String id) {
+        Integer endpoint = endpoints.get(id);
+        if (endpoint != null) {
+            movedEndpoints.set(endpoint);
+        }
+    }
+
+    /**
+     * Locates the people marked as moved and reshapes the lines whose ends changed.
+     */
+    void flush() {
+        for (int endpoint = movedEndpoints.nextSetBit(0); endpoint >= 0; endpoint = movedEndpoints.nextSetBit(endpoint + 1)) {
+            if (endpointIds[endpoint] == null || !anchors.locate(endpointIds[endpoint], point)) {
+                continue;
+            }
+            if (point[0] != anchorX[endpoint] || point[1] != anchorY[endpoint]) {
+                anchorX[endpoint] = point[0];
+                anchorY[endpoint] = point[1];
+                for (int i = 0; i < incidentCount[endpoint]; i++) {
+                    dirtyLines.set(incident[endpoint][i]);
+                }
+            }
+        }
+        movedEndpoints.clear();
+        for (int line = dirtyLines.nextSetBit(0); line >= 0; line = dirtyLines.nextSetBit(line + 1)) {
+            shape(line);
+        }
+        dirtyLines.clear();
+    }
+
+    void clear() {
+        group.getChildren().clear();
+        endpoints.clear();
+        Arrays.fill(endpointIds, null);
+        Arrays.fill(incident, null);
+        Arrays.fill(paths, null);
+        freeEndpointCount = 0;
+        endpointSlots = 0;
+        freeLineCount = 0;
+        lineSlots = 0;
+        movedEndpoints.clear();
+        dirtyLines.clear();
+    }
+
+    /**
+     * The number of lines drawn.
+     */
+    int size() {
+        return lineSlots - freeLineCount;
+    }
+
+    // A line from the start point down (or up) to half height, across, and on to the end point
+    private void shape(int line) {
+        double startX = anchorX[lineStart[line]];
+        double startY = anchorY[lineStart[line]];
+        double endX = anchorX[lineEnd[line]];
+        double endY = anchorY[lineEnd[line]];
+        Path path = paths[line];
+        if (Double.isNaN(startX) || Double.isNaN(endX)) {
+            path.setVisible(false);
+            return;
+        }
+        double midY = startY + (endY - startY) / 2;
+        MoveTo move = (MoveTo) path.getElements().get(0);
+        move.setX(startX);
+        move.setY(startY);
+        LineTo down = (LineTo) path.getElements().get(1);
+        down.setX(startX);
+        down.setY(midY);
+        LineTo across = (LineTo) path.getElements().get(2);
+        across.setX(endX);
+        across.setY(midY);
+        LineTo up = (LineTo) path.getElements().get(3);
+        up.setX(endX);
+        up.setY(endY);
+        path.setVisible(true);
+    }
+
+    // The endpoint of a person, added (and marked for locating) if they had none
+    private int endpoint(String id) {
+        Integer existing = endpoints.get(id);
+        if (existing != null) {
+            return existing;
+        }
+        int endpoint;
+        if (freeEndpointCount > 0) {
+            endpoint = freeEndpoints[--freeEndpointCount];
+        } else {
+            endpoint = endpointSlots++;
+            if (endpoint == endpointIds.length) {
+                int capacity = endpointIds.length * 2;
+                endpointIds = Arrays.copyOf(endpointIds, capacity);
+                anchorX = Arrays.copyOf(anchorX, capacity);
+                anchorY = Arrays.copyOf(anchorY, capacity);
+                incident = Arrays.copyOf(incident, capacity);
+                incidentCount = Arrays.copyOf(incidentCount, capacity);
+            }
+        }
+        endpoints.put(id, endpoint);
+        endpointIds[endpoint] = id;
+        anchorX[endpoint] = Double.NaN;
+        anchorY[endpoint] = Double.NaN;
+        incidentCount[endpoint] = 0;
+        if (incident[endpoint] == null) {
+            incident[endpoint] = new int[4];
+        }
+        movedEndpoints.set(endpoint);
+        return endpoint;
+    }
+
+    private void attach(int endpoint, int line) {
+        int count = incidentCount[endpoint];
+        if (count == incident[endpoint].length) {
+            incident[endpoint] = Arrays.copyOf(incident[endpoint], count * 2);
+        }
+        incident[endpoint][count] = line;
+        incidentCount[endpoint] = count + 1;
+    }
+
+    // Removes a line from an endpoint, and the endpoint once no line is left
+    private void detach(int endpoint, int line) {
+        int[] lines = incident[endpoint];
+        int count = incidentCount[endpoint];
+        for (int i = 0; i < count; i++) {
+            if (lines[i] == line) {
+                lines[i] = lines[count - 1];
+                count--;
+                break;
+            }
+        }
+        incidentCount[endpoint] = count;
+        if (count == 0) {
+            endpoints.remove(endpointIds[endpoint]);
+            endpointIds[endpoint] = null;
+            movedEndpoints.clear(endpoint);
+            if (freeEndpointCount == freeEndpoints.length) {
+                freeEndpoints = Arrays.copyOf(freeEndpoints, freeEndpoints.length * 2);
+            }
+            freeEndpoints[freeEndpointCount++] = endpoint;
+        }
+    }
+}
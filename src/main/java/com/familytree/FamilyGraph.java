@@ -0,0 +1,470 @@
+package com.familytree;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Integer-indexed relationship graph behind {@link FamilyTreeData}.
+ * Every person id is interned to a dense int. Parents are kept in two primitive
+ * arrays and children/spouses in compressed (CSR) adjacency arrays, so traversals
+ * walk int arrays instead of hashing UUID strings.
+ *
+ * Indices are stable for the lifetime of the graph: a removed person leaves a hole
+ * that is only reclaimed by {@link #clear()}.
+ *
+ * Single edits do not touch the CSR arrays. {@link #sync(int)} stores the new
+ * adjacency of the edited node in a small per-node patch, and the patches are
+ * folded back into CSR form once enough of them have accumulated.
+ */
+class FamilyGraph {
+    static final int NONE = -1;
+
+    private final Map<String, Integer> indexById = new HashMap<>();
+    private String[] ids = new String[16];
+    private Person[] persons = new Person[16];
+    private int[] fatherIndex = new int[16];
+    private int[] motherIndex = new int[16];
+    private int size;
+
+    // CSR adjacency: the edges of node i are edges[start[i] .. start[i + 1])
+    private int[] childStart = new int[1];
+    private int[] childEdges = new int[0];
+    private int[] spouseStart = new int[1];
+    private int[] spouseEdges = new int[0];
+
+    // Per-node overrides of the CSR adjacency for nodes edited since the last compaction
+    private int[][] childPatch = new int[16][];
+    private int[][] spousePatch = new int[16][];
+    private int patchCount;
+
+    /**
+     * Drops every interned id. Used when a whole new tree replaces the current one.
+     */
+    void clear() {
+        indexById.clear();
+        Arrays.fill(ids, 0, size, null);
+        Arrays.fill(persons, 0, size, null);
+        Arrays.fill(childPatch, 0, size, null);
+        Arrays.fill(spousePatch, 0, size, null);
+        patchCount = 0;
+        size = 0;
+        childStart = new int[1];
+        childEdges = new int[0];
+        spouseStart = new int[1];
+        spouseEdges = new int[0];
+    }
+
+    /**
+     * Rebuilds all adjacency arrays from the id references held by the given people.
+     * Back-links are derived here as well, so a child listed only through its
+     * fatherId/motherId still shows up among the parent's children. Id resolution runs
+     * in parallel for large trees; the CSR arrays are then filled in one sequential pass.
+     */
+    void rebuild(Collection<Person> people) {
+        Arrays.fill(persons, 0, size, null);
+        Arrays.fill(childPatch, 0, size, null);
+        Arrays.fill(spousePatch, 0, size, null);
+        patchCount = 0;
+        for (Person person : people) {
+            int index = intern(person.getId());
+            persons[index] = person;
+        }
+
+        int n = size;
+
+        // Parents first: the child lists below are filtered against them
+        ParallelLoad.forRanges(n, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                fatherIndex[i] = NONE;
+                motherIndex[i] = NONE;
+                Person person = persons[i];
+                if (person == null) {
+                    continue;
+                }
+                int father = indexOf(person.getFatherId());
+                int mother = indexOf(person.getMotherId());
+                if (father != NONE && father != i) {
+                    fatherIndex[i] = father;
+                }
+                if (mother != NONE && mother != i && mother != father) {
+                    motherIndex[i] = mother;
+                }
+            }
+        });
+
+        // Resolve each node's own child and spouse ids in parallel; only the node's slot is written.
+        // A spouse who does not list this node back is stored as -(spouse + 2), so the reverse edge is added below.
+        int[][] ownChildren = new int[n][];
+        int[][] ownSpouses = new int[n][];
+        ParallelLoad.forRanges(n, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                Person person = persons[i];
+                if (person == null) {
+                    continue;
+                }
+                // Children that are only recorded on the parent's side
+                int[] children = new int[person.getChildIds().size()];
+                int childCount = 0;
+                for (String childId : person.getChildIds()) {
+                    int child = indexOf(childId);
+                    if (child != NONE && child != i && fatherIndex[child] != i && motherIndex[child] != i) {
+                        children[childCount++] = child;
+                    }
+                }
+                ownChildren[i] = Arrays.copyOf(children, childCount);
+
+                int[] spouses = new int[person.getSpouseIds().size()];
+                int spouseCount = 0;
+                for (String spouseId : person.getSpouseIds()) {
+                    int spouse = indexOf(spouseId);
+                    if (spouse == NONE || spouse == i) {
+                        continue;
+                    }
+                    boolean mutual = persons[spouse].getSpouseIds().contains(person.getId());
+                    spouses[spouseCount++] = mutual ? spouse : -(spouse + 2);
+                }
+                ownSpouses[i] = Arrays.copyOf(spouses, spouseCount);
+            }
+        });
+
+        int[] edgeFrom = new int[Math.max(16, people.size() * 2)];
+        int[] edgeTo = new int[edgeFrom.length];
+        int edgeCount = 0;
+
+        // Parents, plus child edges implied by them
+        for (int i = 0; i < n; i++) {
+            if (persons[i] == null) {
+                continue;
+            }
+            for (int parent : new int[]{fatherIndex[i], motherIndex[i]}) {
+                if (parent != NONE) {
+                    if (edgeCount == edgeFrom.length) {
+                        edgeFrom = Arrays.copyOf(edgeFrom, edgeCount * 2);
+                        edgeTo = Arrays.copyOf(edgeTo, edgeCount * 2);
+                    }
+                    edgeFrom[edgeCount] = parent;
+                    edgeTo[edgeCount++] = i;
+                }
+            }
+            for (int child : ownChildren[i]) {
+                if (edgeCount == edgeFrom.length) {
+                    edgeFrom = Arrays.copyOf(edgeFrom, edgeCount * 2);
+                    edgeTo = Arrays.copyOf(edgeTo, edgeCount * 2);
+                }
+                edgeFrom[edgeCount] = i;
+                edgeTo[edgeCount++] = child;
+            }
+        }
+        int[][] children = toCsr(edgeFrom, edgeTo, edgeCount);
+        childStart = children[0];
+        childEdges = children[1];
+
+        // Spouses are symmetric; a pair listed on both sides is only stored once per direction
+        edgeCount = 0;
+        for (int i = 0; i < n; i++) {
+            if (persons[i] == null) {
+                continue;
+            }
+            for (int entry : ownSpouses[i]) {
+                int spouse = entry >= 0 ? entry : -entry - 2;
+                if (edgeCount + 2 > edgeFrom.length) {
+                    edgeFrom = Arrays.copyOf(edgeFrom, edgeFrom.length * 2);
+                    edgeTo = Arrays.copyOf(edgeTo, edgeTo.length * 2);
+                }
+                edgeFrom[edgeCount] = i;
+                edgeTo[edgeCount++] = spouse;
+                if (entry < 0) {
+                    edgeFrom[edgeCount] = spouse;
+                    edgeTo[edgeCount++] = i;
+                }
+            }
+        }
+        int[][] spouses = toCsr(edgeFrom, edgeTo, edgeCount);
+        spouseStart = spouses[0];
+        spouseEdges = spouses[1];
+    }
+
+    // Counting sort of (from, to) pairs into start/edge arrays
+    private int[][] toCsr(int[] edgeFrom, int[] edgeTo, int edgeCount) {
+        int[] start = new int[size + 1];
+        for (int e = 0; e < edgeCount; e++) {
+            start[edgeFrom[e] + 1]++;
+        }
+        for (int i = 0; i < size; i++) {
+            start[i + 1] += start[i];
+        }
+        int[] fill = Arrays.copyOf(start, size);
+        int[] edges = new int[edgeCount];
+        for (int e = 0; e < edgeCount; e++) {
+            edges[fill[edgeFrom[e]]++] = edgeTo[e];
+        }
+        return new int[][]{start, edges};
+    }
+
+    /**
+     * Returns the dense index for the id, allocating a new slot if it has not been seen yet.
+     */
+    int intern(String id) {
+        Integer existing = indexById.get(id);
+        if (existing != null) {
+            return existing;
+        }
+        if (size == ids.length) {
+            int capacity = size * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            persons = Arrays.copyOf(persons, capacity);
+            fatherIndex = Arrays.copyOf(fatherIndex, capacity);
+            motherIndex = Arrays.copyOf(motherIndex, capacity);
+            childPatch = Arrays.copyOf(childPatch, capacity);
+            spousePatch = Arrays.copyOf(spousePatch, capacity);
+        }
+        int index = size++;
+        ids[index] = id;
+        fatherIndex[index] = NONE;
+        motherIndex[index] = NONE;
+        indexById.put(id, index);
+        return index;
+    }
+
+    /**
+     * Adds the person to the graph (or replaces the instance held for its id) and
+     * syncs its edges. Neighbours that gained a link must be synced by the caller.
+     */
+    int put(Person person) {
+        int index = intern(person.getId());
+        persons[index] = person;
+        sync(index);
+        return index;
+    }
+
+    /**
+     * Takes the person at the index out of the graph and re-syncs every neighbour,
+     * so no adjacency list keeps pointing at the hole.
+     */
+    void remove(int index) {
+        if (persons[index] == null) {
+            return;
+        }
+        int[] neighbours = neighbours(index);
+        persons[index] = null;
+        fatherIndex[index] = NONE;
+        motherIndex[index] = NONE;
+        patch(index, new int[0], new int[0]);
+        for (int neighbour : neighbours) {
+            if (persons[neighbour] != null) {
+                sync(neighbour);
+            }
+        }
+    }
+
+    /**
+     * Re-derives the node's parents, children and spouses from the id references on its
+     * {@link Person}. Callers keep the person-level links bidirectional, so the node's own
+     * sets are enough and the cost is proportional to its degree.
+     */
+    void sync(int index) {
+        Person person = persons[index];
+        if (person == null) {
+            return;
+        }
+        int father = indexOf(person.getFatherId());
+        int mother = indexOf(person.getMotherId());
+        fatherIndex[index] = father != index ? father : NONE;
+        motherIndex[index] = mother != index && mother != father ? mother : NONE;
+        patch(index, resolve(person.getChildIds(), index), resolve(person.getSpouseIds(), index));
+    }
+
+    // Indices of the live people among the ids, skipping the node itself
+    private int[] resolve(Collection<String> ids, int self) {
+        int[] resolved = new int[ids.size()];
+        int count = 0;
+        for (String id : ids) {
+            int index = indexOf(id);
+            if (index != NONE && index != self) {
+                resolved[count++] = index;
+            }
+        }
+        return count == resolved.length ? resolved : Arrays.copyOf(resolved, count);
+    }
+
+    private void patch(int index, int[] children, int[] spouses) {
+        if (childPatch[index] == null) {
+            patchCount++;
+        }
+        childPatch[index] = children;
+        spousePatch[index] = spouses;
+        if (patchCount > Math.max(64, size / 4)) {
+            compact();
+        }
+    }
+
+    /**
+     * Folds all per-node patches back into the CSR arrays.
+     */
+    void compact() {
+        int[][] children = compact(childStart, childEdges, childPatch);
+        int[][] spouses = compact(spouseStart, spouseEdges, spousePatch);
+        childStart = children[0];
+        childEdges = children[1];
+        spouseStart = spouses[0];
+        spouseEdges = spouses[1];
+        Arrays.fill(childPatch, 0, size, null);
+        Arrays.fill(spousePatch, 0, size, null);
+        patchCount = 0;
+    }
+
+    private int[][] compact(int[] start, int[] edges, int[][] patches) {
+        int[] newStart = new int[size + 1];
+        for (int i = 0; i < size; i++) {
+            newStart[i + 1] = newStart[i] + degree(start, patches, i);
+        }
+        int[] newEdges = new int[newStart[size]];
+        for (int i = 0; i < size; i++) {
+            if (patches[i] != null) {
+                System.arraycopy(patches[i], 0, newEdges, newStart[i], patches[i].length);
+            } else if (i + 1 < start.length) {
+                System.arraycopy(edges, start[i], newEdges, newStart[i], start[i + 1] - start[i]);
+            }
+        }
+        return new int[][]{newStart, newEdges};
+    }
+
+    private static int degree(int[] start, int[][] patches, int index) {
+        if (patches[index] != null) {
+            return patches[index].length;
+        }
+        return index + 1 < start.length ? start[index + 1] - start[index] : 0;
+    }
+
+    // Parents, children and spouses of the node, possibly with duplicates
+    private int[] neighbours(int index) {
+        int children = childCount(index);
+        int spouses = spouseCount(index);
+        int[] result = new int[children + spouses + 2];
+        int count = 0;
+        for (int k = 0; k < children; k++) {
+            result[count++] = childAt(index, k);
+        }
+        for (int k = 0; k < spouses; k++) {
+            result[count++] = spouseAt(index, k);
+        }
+        if (fatherIndex[index] != NONE) {
+            result[count++] = fatherIndex[index];
+        }
+        if (motherIndex[index] != NONE) {
+            result[count++] = motherIndex[index];
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Compares the live people and their links with another graph by id.
+     *
+     * @return a description of the first difference, or null if both graphs agree.
+     */
+    String describeDifference(FamilyGraph other) {
+        for (int i = 0; i < size; i++) {
+            Person person = persons[i];
+            int j = other.indexOf(ids[i]);
+            if (person == null) {
+                if (j != NONE) {
+                    return "Person " + ids[i] + " is only present in the other graph";
+                }
+                continue;
+            }
+            if (j == NONE) {
+                return "Person " + ids[i] + " is missing from the other graph";
+            }
+            if (!Objects.equals(idOrNull(fatherIndex[i]), other.idOrNull(other.fatherIndex[j]))
+                    || !Objects.equals(idOrNull(motherIndex[i]), other.idOrNull(other.motherIndex[j]))) {
+                return "Parents of " + ids[i] + " differ";
+            }
+            if (!childIds(i).equals(other.childIds(j))) {
+                return "Children of " + ids[i] + " differ: " + childIds(i) + " vs " + other.childIds(j);
+            }
+            if (!spouseIds(i).equals(other.spouseIds(j))) {
+                return "Spouses of " + ids[i] + " differ: " + spouseIds(i) + " vs " + other.spouseIds(j);
+            }
+        }
+        for (int j = 0; j < other.size; j++) {
+            if (other.persons[j] != null && indexOf(other.ids[j]) == NONE) {
+                return "Person " + other.ids[j] + " is missing from this graph";
+            }
+        }
+        return null;
+    }
+
+    private String idOrNull(int index) {
+        return index == NONE ? null : ids[index];
+    }
+
+    private Set<String> childIds(int index) {
+        Set<String> result = new HashSet<>();
+        for (int k = 0, n = childCount(index); k < n; k++) {
+            result.add(ids[childAt(index, k)]);
+        }
+        return result;
+    }
+
+    private Set<String> spouseIds(int index) {
+        Set<String> result = new HashSet<>();
+        for (int k = 0, n = spouseCount(index); k < n; k++) {
+            result.add(ids[spouseAt(index, k)]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the dense index of a person currently in the graph, or {@link #NONE}.
+     */
+    int indexOf(String id) {
+        if (id == null) {
+            return NONE;
+        }
+        Integer index = indexById.get(id);
+        return index != null && persons[index] != null ? index : NONE;
+    }
+
+    int size() {
+        return size;
+    }
+
+    String idAt(int index) {
+        return ids[index];
+    }
+
+    Person personAt(int index) {
+        return persons[index];
+    }
+
+    int father(int index) {
+        return fatherIndex[index];
+    }
+
+    int mother(int index) {
+        return motherIndex[index];
+    }
+
+    int childCount(int index) {
+        return degree(childStart, childPatch, index);
+    }
+
+    int childAt(int index, int k) {
+        int[] patch = childPatch[index];
+        return patch != null ? patch[k] : childEdges[childStart[index] + k];
+    }
+
+    int spouseCount(int index) {
+        return degree(spouseStart, spousePatch, index);
+    }
+
+    int spouseAt(int index, int k) {
+        int[] patch = spousePatch[index];
+        return patch != null ? patch[k] : spouseEdges[spouseStart[index] + k];
+    }
+}
@@ -1,10 +1,13 @@
 package com.familytree;
 
 import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.concurrent.Task;
 import javafx.embed.swing.SwingFXUtils;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.image.WritableImage;
+import javafx.scene.input.KeyCombination;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.VBox;
 import javafx.scene.SnapshotParameters;
@@ -14,12 +17,29 @@ import javafx.stage.Stage;
 import javax.imageio.ImageIO;
 import java.io.File;
 import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoubleConsumer;
 import java.util.stream.Collectors; // Added for toList()
 
 public class FamilyTreeApp extends Application {
 
     private FamilyTreePane treePane;
+    private final ProgressBar loadProgress = new ProgressBar();
+    private final AutosaveService autosave = new AutosaveService(FamilyTreeData.getInstance());
+    // Journal of the file the tree was opened from or last saved to; null for a new tree
+    private TreeJournal journal;
+    // Commits edits to the database the tree was opened from or saved to
+    private RepositorySync repositorySync;
+    // Tree file the photo store knows the pictures of, and those pictures; null for a new tree
+    private volatile File photoTreeFile;
+    private final Set<String> registeredPhotos = ConcurrentHashMap.newKeySet();
 
     @Override
     public void start(Stage primaryStage) {
@@ -36,6 +56,9 @@ public class FamilyTreeApp extends Application {
         Menu fileMenu = new Menu("File");
         MenuItem openItem = new MenuItem("Open...");
         openItem.setOnAction(e -> handleOpen(primaryStage));
+        MenuItem quickSaveItem = new MenuItem("Save");
+        quickSaveItem.setAccelerator(KeyCombination.keyCombination("Shortcut+S"));
+        quickSaveItem.setOnAction(e -> handleQuickSave(primaryStage));
         MenuItem saveItem = new MenuItem("Save As...");
         saveItem.setOnAction(e -> handleSave(primaryStage));
 
@@ -43,10 +66,18 @@ public class FamilyTreeApp extends Application {
         MenuItem saveImageItem = new MenuItem("Save as Image...");
         saveImageItem.setOnAction(e -> handleSaveAsImage(primaryStage));
 
+        MenuItem importGedcomItem = new MenuItem("Import GEDCOM...");
+        importGedcomItem.setOnAction(e -> handleImportGedcom(primaryStage));
+        MenuItem cleanPhotosItem = new MenuItem("Clean Up Photos...");
+        cleanPhotosItem.setOnAction(e -> handleCleanUpPhotos());
+        MenuItem exportGedcomItem = new MenuItem("Export GEDCOM...");
+        exportGedcomItem.setOnAction(e -> exportGedcom(primaryStage, null, "family_tree.ged"));
+
         MenuItem exitItem = new MenuItem("Exit");
         exitItem.setOnAction(e -> primaryStage.close());
 
-        fileMenu.getItems().addAll(openItem, saveItem, saveImageItem, new SeparatorMenuItem(), exitItem);
+        fileMenu.getItems().addAll(openItem, quickSaveItem, saveItem, saveImageItem, new SeparatorMenuItem(),
+                importGedcomItem, exportGedcomItem, cleanPhotosItem, new SeparatorMenuItem(), exitItem);
         System.out.println("File menu created.");
 
         // Theme Menu
@@ -73,13 +104,15 @@ public class FamilyTreeApp extends Application {
         Button autoLayoutButton = new Button("Auto Layout");
 
         treePane = new FamilyTreePane();
+        FamilyTreeData.getInstance().addChangeListener(this::registerNewPhotos);
 
         addButton.setOnAction(e -> treePane.getVisualizer().addPerson(null));
         editButton.setOnAction(e -> treePane.getVisualizer().editSelectedPerson());
         deleteButton.setOnAction(e -> treePane.getVisualizer().deleteSelectedPerson());
         autoLayoutButton.setOnAction(e -> handleAutoLayout());
 
-        toolbar.getItems().addAll(addButton, editButton, deleteButton, new Separator(), autoLayoutButton);
+        loadProgress.setVisible(false);
+        toolbar.getItems().addAll(addButton, editButton, deleteButton, new Separator(), autoLayoutButton, loadProgress);
         System.out.println("Toolbar created.");
 
         // Combine MenuBar and ToolBar in a VBox at the top
@@ -107,7 +140,7 @@ public class FamilyTreeApp extends Application {
 
         primaryStage.setOnShown(event -> {
             System.out.println("Stage shown, performing initial visualizer refresh.");
-            treePane.getVisualizer().refresh();
+            treePane.refresh();
         });
 
         primaryStage.show();
@@ -118,36 +151,285 @@ public class FamilyTreeApp extends Application {
     private void handleOpen(Stage stage) {
         FileChooser fileChooser = new FileChooser();
         fileChooser.setTitle("Open Family Tree File");
-        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("JSON Files", "*.json"));
+        addTreeFileFilters(fileChooser);
         File file = fileChooser.showOpenDialog(stage);
 
         if (file != null) {
+            loadInBackground(file, progress -> {
+                TreeContent content = JsonManager.readTree(file, progress);
+                // Recover edits that had not been checkpointed when the app last stopped
+                return TreeJournal.replay(file, content);
+            }, true);
+        }
+    }
+
+    private void handleImportGedcom(Stage stage) {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Import GEDCOM File");
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("GEDCOM Files", "*.ged", "*.GED"));
+        File file = fileChooser.showOpenDialog(stage);
+
+        if (file != null) {
+            // The imported tree is not tied to a file until it is saved
+            loadInBackground(file, progress -> GedcomImporter.read(file, progress), false);
+        }
+    }
+
+    /**
+     * Exports the tree, or only the people in {@code only}, to a GEDCOM file of the user's
+     * choice. The snapshot is taken right away; writing happens on a background thread.
+     */
+    static void exportGedcom(Stage stage, Set<String> only, String initialFileName) {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Export GEDCOM File");
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("GEDCOM Files", "*.ged"));
+        fileChooser.setInitialFileName(initialFileName);
+        File file = fileChooser.showSaveDialog(stage);
+        if (file == null) {
+            return;
+        }
+        FamilyTreeSnapshot snapshot = FamilyTreeData.getInstance().snapshot();
+        CompletableFuture.runAsync(() -> {
             try {
-                JsonManager.loadTree(file);
-                FamilyTreeData.getInstance().linkAllRelationships();
-                treePane.getVisualizer().refresh();
-                showAlert(Alert.AlertType.INFORMATION, "Load Successful", "Family tree loaded from " + file.getName());
+                GedcomExporter.write(snapshot, file, only, null);
             } catch (IOException e) {
-                showAlert(Alert.AlertType.ERROR, "Load Failed", "Could not load file: " + e.getMessage());
+                throw new CompletionException(e);
+            }
+        }).whenComplete((result, error) -> Platform.runLater(() -> {
+            if (error != null) {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                showAlert(Alert.AlertType.ERROR, "Export Failed", "Could not export: " + cause.getMessage());
+            } else {
+                showAlert(Alert.AlertType.INFORMATION, "Export Successful", "Family tree exported to " + file.getName());
+            }
+        }));
+    }
+
+    /**
+     * Removes photos that neither the open tree nor any tree the photo store knows of refers
+     * to from the photo store.
+     */
+    private void handleCleanUpPhotos() {
+        PhotoStore store = PhotoStore.getInstance();
+        Alert confirm = new Alert(Alert.AlertType.CONFIRMATION,
+                "Photos in " + store.getRoot() + " that neither this tree nor any tree opened or saved "
+                        + "before uses will be deleted. Continue?");
+        confirm.setTitle("Clean Up Photos");
+        confirm.setHeaderText(null);
+        if (confirm.showAndWait().orElse(ButtonType.CANCEL) != ButtonType.OK) {
+            return;
+        }
+        Instant gatheredAt = Instant.now();
+        List<String> references = new ArrayList<>();
+        for (PersonRecord person : FamilyTreeData.getInstance().snapshot().getPeople()) {
+            if (person.profilePicturePath() != null) {
+                references.add(person.profilePicturePath());
             }
         }
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return store.collectGarbage(references, gatheredAt);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }).whenComplete((result, error) -> Platform.runLater(() -> {
+            if (error != null) {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                showAlert(Alert.AlertType.ERROR, "Clean Up Failed", "Could not clean up photos: " + cause.getMessage());
+            } else {
+                showAlert(Alert.AlertType.INFORMATION, "Clean Up Finished", "Removed " + result.removed()
+                        + " unused photo(s), freeing " + result.bytesFreed() / 1024 + " KB. Photos of "
+                        + result.trees() + " saved tree(s) were kept.");
+            }
+        }));
+    }
+
+    private interface TreeReader {
+        TreeContent read(DoubleConsumer progress) throws IOException;
+    }
+
+    /**
+     * Reads a tree on a background thread; only the final swap into the model happens on
+     * the FX thread. With {@code journaled} the tree stays attached to {@code file}.
+     */
+    private void loadInBackground(File file, TreeReader reader, boolean journaled) {
+        Task<TreeContent> loadTask = new Task<>() {
+            @Override
+            protected TreeContent call() throws IOException {
+                return reader.read(fraction -> updateProgress(fraction, 1.0));
+            }
+        };
+        loadProgress.progressProperty().bind(loadTask.progressProperty());
+        loadProgress.setVisible(true);
+        loadTask.setOnSucceeded(e -> {
+            loadProgress.setVisible(false);
+            closeJournal();
+            FamilyTreeData.getInstance().load(loadTask.getValue());
+            if (journaled) {
+                startJournal(file);
+            }
+            showAlert(Alert.AlertType.INFORMATION, "Load Successful", "Family tree loaded from " + file.getName());
+        });
+        loadTask.setOnFailed(e -> {
+            loadProgress.setVisible(false);
+            showAlert(Alert.AlertType.ERROR, "Load Failed", "Could not load file: " + loadTask.getException().getMessage());
+        });
+        Thread loader = new Thread(loadTask, "tree-loader");
+        loader.setDaemon(true);
+        loader.start();
     }
 
     private void handleSave(Stage stage) {
         FileChooser fileChooser = new FileChooser();
         fileChooser.setTitle("Save Family Tree File");
-        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("JSON Files", "*.json"));
+        addTreeFileFilters(fileChooser);
         fileChooser.setInitialFileName("family_tree.json");
         File file = fileChooser.showSaveDialog(stage);
 
         if (file != null) {
             try {
-                JsonManager.saveTree(file);
-                showAlert(Alert.AlertType.INFORMATION, "Save Successful", "Family tree saved to " + file.getName());
+                closeJournal();
+                TreeJournal.discard(file);
             } catch (IOException e) {
                 showAlert(Alert.AlertType.ERROR, "Save Failed", "Could not save file: " + e.getMessage());
+                return;
+            }
+            if (H2TreeRepository.isDatabaseFile(file.getName())) {
+                // The database is filled on its sync thread, ahead of the edits that follow
+                try {
+                    openJournal(file);
+                } catch (IOException e) {
+                    showAlert(Alert.AlertType.ERROR, "Save Failed", "Could not open " + file.getName() + ": " + e.getMessage());
+                    return;
+                }
+                reportSave(repositorySync.saveAll(), file);
+            } else {
+                // Serialize and write in the background; edits made meanwhile go to the new journal
+                reportSave(autosave.save(file), file);
+                startJournal(file);
+            }
+        }
+    }
+
+    private void reportSave(CompletableFuture<?> save, File file) {
+        save.whenComplete((result, error) -> Platform.runLater(() -> {
+            if (error != null) {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                showAlert(Alert.AlertType.ERROR, "Save Failed", "Could not save file: " + cause.getMessage());
+            } else {
+                showAlert(Alert.AlertType.INFORMATION, "Save Successful", "Family tree saved to " + file.getName());
+            }
+        }));
+    }
+
+    private static void addTreeFileFilters(FileChooser fileChooser) {
+        fileChooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("JSON Files", "*.json"),
+                new FileChooser.ExtensionFilter("Binary Tree Files", "*.ftb"),
+                new FileChooser.ExtensionFilter("Tree Databases", "*" + H2TreeRepository.EXTENSION));
+    }
+
+    /**
+     * Saves to the current file. While a journal is attached only the pending journal
+     * entries are forced to disk; the tree file itself is rewritten at checkpoints.
+     */
+    private void handleQuickSave(Stage stage) {
+        if (journal == null && repositorySync == null) {
+            handleSave(stage);
+            return;
+        }
+        try {
+            if (journal != null) {
+                journal.sync();
+            } else {
+                repositorySync.sync();
+            }
+        } catch (IOException e) {
+            showAlert(Alert.AlertType.ERROR, "Save Failed", "Could not save file: " + e.getMessage());
+        }
+    }
+
+    // A failure is only logged; edits then stay in memory until the next save
+    private void startJournal(File file) {
+        try {
+            openJournal(file);
+        } catch (IOException e) {
+            System.err.println("Could not start the journal for " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void openJournal(File file) throws IOException {
+        if (H2TreeRepository.isDatabaseFile(file.getName())) {
+            repositorySync = RepositorySync.start(FamilyTreeData.getInstance(), new H2TreeRepository(file));
+        } else {
+            journal = TreeJournal.start(FamilyTreeData.getInstance(), autosave, file);
+        }
+        registerPhotos(file);
+    }
+
+    // Tells the photo store which pictures the tree in the model, as stored in file, uses
+    private void registerPhotos(File file) {
+        registeredPhotos.clear();
+        for (PersonRecord person : FamilyTreeData.getInstance().snapshot().getPeople()) {
+            if (person.profilePicturePath() != null) {
+                registeredPhotos.add(person.profilePicturePath());
             }
         }
+        photoTreeFile = file;
+        try {
+            PhotoStore.getInstance().registerTree(file, new ArrayList<>(registeredPhotos));
+        } catch (IOException e) {
+            System.err.println("Could not register the photos of " + file + ": " + e.getMessage());
+        }
+    }
+
+    // Called by the model with its write lock held: notes pictures new to the tree and
+    // registers them in the background
+    private void registerNewPhotos(TreeChange change) {
+        File file = photoTreeFile;
+        if (file == null) {
+            return;
+        }
+        List<String> added = new ArrayList<>();
+        for (PersonRecord person : change.updatedPeople()) {
+            if (person.profilePicturePath() != null && registeredPhotos.add(person.profilePicturePath())) {
+                added.add(person.profilePicturePath());
+            }
+        }
+        if (!added.isEmpty()) {
+            CompletableFuture.runAsync(() -> {
+                try {
+                    PhotoStore.getInstance().addTreeReferences(file, added);
+                } catch (IOException e) {
+                    System.err.println("Could not register the photos of " + file + ": " + e.getMessage());
+                }
+            });
+        }
+    }
+
+    // Leaves unfolded entries on disk; they are replayed when the file is opened again
+    private void closeJournal() {
+        // Pictures no longer used stay registered until the file is opened or saved again
+        photoTreeFile = null;
+        if (journal != null) {
+            journal.close(false);
+            journal = null;
+        }
+        if (repositorySync != null) {
+            repositorySync.close();
+            repositorySync = null;
+        }
+    }
+
+    @Override
+    public void stop() {
+        // Fold pending journal entries into the tree file on a clean exit
+        if (journal != null) {
+            journal.close(true);
+            journal = null;
+        }
+        closeJournal();
+        autosave.shutdown();
     }
 
     private void handleAutoLayout() {
@@ -161,10 +443,12 @@ public class FamilyTreeApp extends Application {
         // Fix: Convert Collection<Person> to List<Person>
         Map<String, Position> newLayoutPositions = layout.layout(data.getAllPeople().stream().collect(Collectors.toList()), null);
 
-        for (Map.Entry<String, Position> entry : newLayoutPositions.entrySet()) {
-            data.setLayoutPosition(entry.getKey(), entry.getValue());
-        }
-        treePane.getVisualizer().refresh();
+        // One write, so the view moves every node in a single redraw
+        data.write(() -> {
+            for (Map.Entry<String, Position> entry : newLayoutPositions.entrySet()) {
+                data.setLayoutPosition(entry.getKey(), entry.getValue());
+            }
+        });
         showAlert(Alert.AlertType.INFORMATION, "Layout Applied", "Family tree nodes have been re-arranged.");
     }
 
@@ -201,7 +485,7 @@ public class FamilyTreeApp extends Application {
         }
     }
 
-    private void showAlert(Alert.AlertType type, String title, String message) {
+    private static void showAlert(Alert.AlertType type, String title, String message) {
         Alert alert = new Alert(type);
         alert.setTitle(title);
         alert.setHeaderText(null);
@@ -1,154 +1,730 @@
 package com.familytree;
 
-import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 
-import java.io.*;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
+/**
+ * The family tree model.
+ *
+ * Concurrency: every mutation runs under the write lock and bumps {@link #getVersion()},
+ * so writes are serialized. The JavaFX thread is the normal writer and may use the live
+ * views ({@link #getAllPeople()}, {@link #getPersonList()}). Background jobs such as
+ * autosave, layout or indexing must read through {@link #snapshot()}, which returns an
+ * immutable view that never contains a half-applied mutation. Code that changes
+ * {@link Person} fields directly has to do so inside {@link #write(Runnable)} and call
+ * {@link #updatePerson(Person)} so that change listeners hear about it.
+ *
+ * The lock is reentrant (listeners of the person list may call back into the model
+ * while a write is in progress), which rules out StampedLock here.
+ *
+ * Snapshots are copy-on-write. When a top-level write completes, the records of the people
+ * it touched are replaced in the {@link PersonStore}; a snapshot then shares the record and
+ * position chunks of the stores, and the next write to a shared chunk copies that chunk.
+ * Taking a snapshot holds the read lock for one reference per chunk, and a write pays for
+ * the chunks it touches, not for the size of the tree.
+ */
 public class FamilyTreeData {
-    private static FamilyTreeData instance;
+    private static final boolean VERIFY_LINKS = Boolean.getBoolean("familytree.verifyLinks");
 
-    private final Map<String, Person> people;
-    private final Map<String, Position> layoutPositions;
-    private final ObservableList<Person> personList;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private long version;
+    private volatile FamilyTreeSnapshot lastSnapshot;
+
+    // Single id-keyed collection of people; also the observable list shown by the UI
+    private final PersonStore people;
+    // Positions as primitive coordinates by dense slot, so moves allocate nothing
+    private final LayoutStore layoutPositions;
+
+    // Int-indexed relationship graph, kept in sync by every mutation
+    private final FamilyGraph graph = new FamilyGraph();
+
+    // What the current top-level write has changed so far; published when it completes
+    private final List<Consumer<TreeChange>> changeListeners = new CopyOnWriteArrayList<>();
+    private int writeDepth;
+    private final Set<String> changedIds = new LinkedHashSet<>();
+    private final Set<String> removedIds = new LinkedHashSet<>();
+    private final Set<String> movedIds = new LinkedHashSet<>();
+    private boolean reloaded;
 
     private FamilyTreeData() {
-        this.people = new HashMap<>();
-        this.layoutPositions = new HashMap<>();
-        this.personList = FXCollections.observableArrayList();
+        this.people = new PersonStore();
+        this.layoutPositions = new LayoutStore();
+    }
+
+    // Initialization-on-demand holder: lazy and thread-safe without locking on every call
+    private static class Holder {
+        private static final FamilyTreeData INSTANCE = new FamilyTreeData();
     }
 
     public static FamilyTreeData getInstance() {
-        if (instance == null) {
-            instance = new FamilyTreeData();
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Runs a mutation under the write lock. Nested calls are allowed.
+     */
+    public void write(Runnable mutation) {
+        lock.writeLock().lock();
+        writeDepth++;
+        try {
+            mutation.run();
+            version++;
+        } finally {
+            writeDepth--;
+            try {
+                if (writeDepth == 0) {
+                    publishChanges();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
         }
-        return instance;
+    }
+
+    /**
+     * Registers a listener that receives one {@link TreeChange} per top-level write.
+     * Listeners run on the mutating thread with the write lock held, so they see changes
+     * in order but must not block; hand heavy work to another thread.
+     */
+    public void addChangeListener(Consumer<TreeChange> listener) {
+        changeListeners.add(listener);
+    }
+
+    public void removeChangeListener(Consumer<TreeChange> listener) {
+        changeListeners.remove(listener);
+    }
+
+    private void publishChanges() {
+        if (!reloaded && changedIds.isEmpty() && removedIds.isEmpty() && movedIds.isEmpty()) {
+            return;
+        }
+        // Snapshots read these records, so they are refreshed whether or not anyone listens
+        List<PersonRecord> updated = List.of();
+        if (reloaded) {
+            people.rebuildRecords();
+        } else if (!changedIds.isEmpty()) {
+            updated = new ArrayList<>(changedIds.size());
+            for (String id : changedIds) {
+                Person person = people.get(id);
+                if (person != null) {
+                    PersonRecord record = PersonRecord.of(person);
+                    people.setRecord(record);
+                    updated.add(record);
+                }
+            }
+        }
+        if (!changeListeners.isEmpty()) {
+            TreeChange change;
+            if (reloaded) {
+                change = new TreeChange(version, List.of(), Set.of(), Map.of(), true);
+            } else {
+                Map<String, Position> moved = new LinkedHashMap<>();
+                for (String id : movedIds) {
+                    Position position = layoutPositions.get(id); // A copy
+                    if (position != null) {
+                        moved.put(id, position);
+                    }
+                }
+                change = new TreeChange(version, Collections.unmodifiableList(updated),
+                        Collections.unmodifiableSet(new LinkedHashSet<>(removedIds)), Collections.unmodifiableMap(moved), false);
+            }
+            for (Consumer<TreeChange> listener : changeListeners) {
+                try {
+                    listener.accept(change);
+                } catch (RuntimeException e) {
+                    System.err.println("Tree change listener failed: " + e.getMessage());
+                }
+            }
+        }
+        changedIds.clear();
+        removedIds.clear();
+        movedIds.clear();
+        reloaded = false;
+    }
+
+    private <T> T read(Supplier<T> reader) {
+        lock.readLock().lock();
+        try {
+            return reader.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Monotonic counter that changes with every mutation.
+     */
+    public long getVersion() {
+        return read(() -> version);
+    }
+
+    /**
+     * Returns an immutable view of the whole tree. It shares everything unchanged with the
+     * model, so taking one does not copy the tree. Repeated calls without an intervening
+     * mutation return the same instance.
+     */
+    public FamilyTreeSnapshot snapshot() {
+        FamilyTreeSnapshot snapshot = read(() -> {
+            FamilyTreeSnapshot cached = lastSnapshot;
+            return cached != null && cached.getVersion() == version ? cached
+                    : new FamilyTreeSnapshot(version, people.shareRecords(), layoutPositions.share());
+        });
+        lastSnapshot = snapshot;
+        return snapshot;
     }
 
     // Getters
     public ObservableList<Person> getPersonList() {
-        return personList;
+        return people;
     }
 
+    /**
+     * Returns a live, read-only view of everyone in the tree. No copy is made, so
+     * callers must not add or remove people while iterating over it.
+     */
     public List<Person> getAllPeople() {
-        return new ArrayList<>(people.values());
+        return people;
     }
 
     public Person getPerson(String id) {
-        return people.get(id);
+        return read(() -> people.get(id));
     }
 
+    /**
+     * A copy of a person's layout position, or null if they have none. Changing it does not
+     * move the person; use {@link #setLayoutPosition}.
+     */
     public Position getLayoutPosition(String personId) {
-        return layoutPositions.get(personId);
+        return read(() -> layoutPositions.get(personId));
     }
 
     public List<Person> getSpouses(Person person) {
+        return read(() -> spousesOf(person));
+    }
+
+    private List<Person> spousesOf(Person person) {
         List<Person> spouses = new ArrayList<>();
-        for (String spouseId : person.getSpouseIds()) {
-            Person spouse = getPerson(spouseId);
-            if (spouse != null) {
-                spouses.add(spouse);
+        FamilyGraph g = graph;
+        int index = g.indexOf(person.getId());
+        if (index == FamilyGraph.NONE) {
+            // Not part of the tree yet (e.g. a person being created in a dialog)
+            for (String spouseId : person.getSpouseIds()) {
+                Person spouse = getPerson(spouseId);
+                if (spouse != null) {
+                    spouses.add(spouse);
+                }
             }
+            return spouses;
+        }
+        for (int k = 0, n = g.spouseCount(index); k < n; k++) {
+            spouses.add(g.personAt(g.spouseAt(index, k)));
         }
         return spouses;
     }
 
     public List<Person> getChildren(Person person) {
+        return read(() -> childrenOf(person));
+    }
+
+    private List<Person> childrenOf(Person person) {
         List<Person> children = new ArrayList<>();
         if (person != null) {
-            for (String childId : person.getChildIds()) {
-                Person child = getPerson(childId);
-                if (child != null) {
-                    children.add(child);
+            FamilyGraph g = graph;
+            int index = g.indexOf(person.getId());
+            if (index == FamilyGraph.NONE) {
+                for (String childId : person.getChildIds()) {
+                    Person child = getPerson(childId);
+                    if (child != null) {
+                        children.add(child);
+                    }
                 }
+                return children;
+            }
+            for (int k = 0, n = g.childCount(index); k < n; k++) {
+                children.add(g.personAt(g.childAt(index, k)));
             }
         }
         return children;
     }
 
+    public Person getFather(Person person) {
+        if (person == null) {
+            return null;
+        }
+        return read(() -> {
+            int index = graph.indexOf(person.getId());
+            if (index == FamilyGraph.NONE) {
+                return people.get(person.getFatherId());
+            }
+            int father = graph.father(index);
+            return father != FamilyGraph.NONE ? graph.personAt(father) : null;
+        });
+    }
+
+    public Person getMother(Person person) {
+        if (person == null) {
+            return null;
+        }
+        return read(() -> {
+            int index = graph.indexOf(person.getId());
+            if (index == FamilyGraph.NONE) {
+                return people.get(person.getMotherId());
+            }
+            int mother = graph.mother(index);
+            return mother != FamilyGraph.NONE ? graph.personAt(mother) : null;
+        });
+    }
+
+    public List<Person> getParents(Person person) {
+        List<Person> parents = new ArrayList<>(2);
+        Person father = getFather(person);
+        Person mother = getMother(person);
+        if (father != null) {
+            parents.add(father);
+        }
+        if (mother != null) {
+            parents.add(mother);
+        }
+        return parents;
+    }
+
     // New setters and methods
     public void addPerson(Person person) {
-        people.put(person.getId(), person);
-        personList.add(person);
+        write(() -> {
+            people.put(person);
+            linkPerson(person);
+        });
     }
 
+    /**
+     * Removes a person and clears every reference other people hold to them.
+     * Uses the graph's reverse adjacency, so the cost is proportional to the person's degree.
+     */
     public void removePerson(Person person) {
-        people.remove(person.getId());
-        personList.remove(person);
+        removePeople(List.of(person));
     }
 
-    public void setLayoutPosition(String personId, Position position) {
-        layoutPositions.put(personId, position);
+    /**
+     * Removes a whole branch: the person together with all of their descendants.
+     */
+    public void removeWithDescendants(Person person) {
+        write(() -> {
+            List<Person> branch = collectBranch(person, true);
+            branch.add(0, person);
+            removePeopleLocked(branch);
+        });
     }
 
-    public void updatePerson(Person person) {
-        this.people.put(person.getId(), person);
-        int index = personList.indexOf(person);
-        if (index >= 0) {
-            personList.set(index, person);
-        }
+    /**
+     * Removes the person together with their whole ancestor line.
+     */
+    public void removeWithAncestors(Person person) {
+        write(() -> {
+            List<Person> branch = collectBranch(person, false);
+            branch.add(0, person);
+            removePeopleLocked(branch);
+        });
     }
 
+    /**
+     * Removes a group of people as one operation. References between two removed people
+     * are dropped with them; only the survivors bordering the group are rewritten.
+     */
+    public void removePeople(Collection<Person> toRemove) {
+        write(() -> removePeopleLocked(toRemove));
+    }
 
-    public void linkAllRelationships() {
-        for (Person person : people.values()) {
-            for (String spouseId : person.getSpouseIds()) {
-                Person spouse = people.get(spouseId);
-                if (spouse != null && !spouse.getSpouseIds().contains(person.getId())) {
-                    spouse.addSpouseId(person.getId());
+    private void removePeopleLocked(Collection<Person> toRemove) {
+        FamilyGraph g = graph;
+        // Sized to the removal set, not the graph, so removing one person stays O(degree)
+        Set<Integer> removed = new LinkedHashSet<>();
+        for (Person person : toRemove) {
+            int index = g.indexOf(person.getId());
+            if (index != FamilyGraph.NONE) {
+                removed.add(index);
+            }
+        }
+        List<Integer> indices = new ArrayList<>(removed);
+
+        // Clear back-references held by the surviving neighbours
+        for (int index : indices) {
+            String id = g.idAt(index);
+            for (int k = 0, n = g.childCount(index); k < n; k++) {
+                int child = g.childAt(index, k);
+                if (!removed.contains(child)) {
+                    Person childPerson = g.personAt(child);
+                    if (id.equals(childPerson.getFatherId())) {
+                        childPerson.setFatherId(null);
+                    }
+                    if (id.equals(childPerson.getMotherId())) {
+                        childPerson.setMotherId(null);
+                    }
+                    changedIds.add(childPerson.getId());
                 }
             }
-            if (person.getFatherId() != null) {
-                Person father = people.get(person.getFatherId());
-                if (father != null && !father.getChildIds().contains(person.getId())) {
-                    father.addChildId(person.getId());
+            for (int parent : new int[]{g.father(index), g.mother(index)}) {
+                if (parent != FamilyGraph.NONE && !removed.contains(parent)) {
+                    g.personAt(parent).removeChildId(id);
+                    changedIds.add(g.idAt(parent));
                 }
             }
-            if (person.getMotherId() != null) {
-                Person mother = people.get(person.getMotherId());
-                if (mother != null && !mother.getChildIds().contains(person.getId())) {
-                    mother.addChildId(person.getId());
+            for (int k = 0, n = g.spouseCount(index); k < n; k++) {
+                int spouse = g.spouseAt(index, k);
+                if (!removed.contains(spouse)) {
+                    g.personAt(spouse).removeSpouseId(id);
+                    changedIds.add(g.idAt(spouse));
                 }
             }
         }
+
+        for (int index : indices) {
+            Person person = g.personAt(index);
+            people.removeById(person.getId());
+            layoutPositions.remove(person.getId());
+            g.remove(index);
+            changedIds.remove(person.getId());
+            movedIds.remove(person.getId());
+            removedIds.add(person.getId());
+        }
+        verifyIfEnabled();
+    }
+
+    /**
+     * Returns everyone reachable through child links, in breadth-first order.
+     */
+    public List<Person> getDescendants(Person person) {
+        return read(() -> collectBranch(person, true));
+    }
+
+    /**
+     * Returns everyone reachable through father/mother links, in breadth-first order.
+     */
+    public List<Person> getAncestors(Person person) {
+        return read(() -> collectBranch(person, false));
+    }
+
+    private List<Person> collectBranch(Person person, boolean descendants) {
+        List<Person> result = new ArrayList<>();
+        FamilyGraph g = graph;
+        int root = g.indexOf(person.getId());
+        if (root == FamilyGraph.NONE) {
+            return result;
+        }
+        // Grows with the branch rather than the graph, so small branches stay cheap in large trees
+        Set<Integer> visited = new HashSet<>();
+        int[] queue = new int[16];
+        int head = 0;
+        int tail = 0;
+        visited.add(root);
+        queue[tail++] = root;
+        while (head < tail) {
+            int index = queue[head++];
+            if (index != root) {
+                result.add(g.personAt(index));
+            }
+            if (descendants) {
+                for (int k = 0, n = g.childCount(index); k < n; k++) {
+                    int child = g.childAt(index, k);
+                    if (visited.add(child)) {
+                        queue = enqueue(queue, tail++, child);
+                    }
+                }
+            } else {
+                for (int parent : new int[]{g.father(index), g.mother(index)}) {
+                    if (parent != FamilyGraph.NONE && visited.add(parent)) {
+                        queue = enqueue(queue, tail++, parent);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static int[] enqueue(int[] queue, int at, int index) {
+        if (at == queue.length) {
+            queue = Arrays.copyOf(queue, queue.length * 2);
+        }
+        queue[at] = index;
+        return queue;
+    }
+
+    public void setLayoutPosition(String personId, Position position) {
+        setLayoutPosition(personId, position.getX(), position.getY());
+    }
+
+    /**
+     * Moves a person without allocating a {@link Position}; used by drags on every pulse.
+     */
+    public void setLayoutPosition(String personId, double x, double y) {
+        write(() -> {
+            layoutPositions.set(personId, x, y);
+            movedIds.add(personId);
+        });
+    }
+
+    public void updatePerson(Person person) {
+        write(() -> {
+            people.put(person);
+            linkPerson(person);
+        });
+    }
+
+    /**
+     * Full sweep that makes every spouse link symmetric and adds each person to their
+     * parents' child lists. Only needed after loading a file; single edits go through
+     * the incremental methods below.
+     */
+    public void linkAllRelationships() {
+        write(this::linkAllLocked);
+    }
+
+    private void linkAllLocked() {
+        // The graph derives every back-link from whichever side records it
+        graph.rebuild(people);
+        FamilyGraph g = graph;
+        // Copy them onto the people in parallel; each range only writes its own people's sets
+        ParallelLoad.forRanges(g.size(), (from, to) -> {
+            for (int i = from; i < to; i++) {
+                Person person = g.personAt(i);
+                if (person == null) {
+                    continue;
+                }
+                for (int k = 0, n = g.childCount(i); k < n; k++) {
+                    person.getChildIds().add(g.idAt(g.childAt(i, k)));
+                }
+                for (int k = 0, n = g.spouseCount(i); k < n; k++) {
+                    person.getSpouseIds().add(g.idAt(g.spouseAt(i, k)));
+                }
+            }
+        });
+        reloaded = true;
     }
 
     public void setAllData(FamilyTreeData other) {
-        this.people.clear();
-        this.people.putAll(other.people);
+        FamilyTreeSnapshot source = other.snapshot();
+        List<Person> copies = new ArrayList<>(source.getPeople().size());
+        for (PersonRecord record : source.getPeople()) {
+            copies.add(record.toPerson());
+        }
+        setAllData(copies, source.getLayoutPositions());
+    }
+
+    /**
+     * Replaces the whole tree, e.g. after loading a file. Call linkAllRelationships afterwards.
+     */
+    public void setAllData(Collection<Person> newPeople, Map<String, Position> newLayoutPositions) {
+        write(() -> {
+            replaceLocked(newPeople, newLayoutPositions);
+            graph.rebuild(people);
+        });
+    }
 
-        this.layoutPositions.clear();
-        this.layoutPositions.putAll(other.layoutPositions);
+    private void replaceLocked(Collection<Person> newPeople, Map<String, Position> newLayoutPositions) {
+        this.people.setAll(newPeople);
 
-        this.personList.clear();
-        this.personList.addAll(other.personList);
+        this.layoutPositions.setAll(newLayoutPositions);
+
+        graph.clear();
+        reloaded = true;
+    }
+
+    /**
+     * Replaces the tree with freshly loaded content and runs the one full relink.
+     */
+    public void load(TreeContent content) {
+        write(() -> {
+            replaceLocked(content.people(), content.layoutPositions());
+            linkAllLocked();
+        });
     }
 
     public void setParentChildRelationship(Person parent, Person child) {
-        if (child.getFatherId() != null && child.getMotherId() != null) {
-            throw new IllegalStateException("This person already has two parents set.");
+        write(() -> {
+            if (child.getFatherId() != null && child.getMotherId() != null) {
+                throw new IllegalStateException("This person already has two parents set.");
+            }
+
+            if ("Male".equals(parent.getGender())) {
+                setFather(child, parent);
+            } else {
+                setMother(child, parent);
+            }
+        });
+    }
+
+    /**
+     * Sets or clears (with null) the father of a person, moving the child between the
+     * old and new father's child lists.
+     */
+    public void setFather(Person child, Person father) {
+        String newId = father != null ? father.getId() : null;
+        write(() -> {
+            if (Objects.equals(child.getFatherId(), newId)) {
+                return;
+            }
+            Person oldFather = people.get(child.getFatherId());
+            if (oldFather != null && !Objects.equals(child.getMotherId(), oldFather.getId())) {
+                oldFather.removeChildId(child.getId());
+            }
+            child.setFatherId(newId);
+            if (father != null) {
+                father.addChildId(child.getId());
+            }
+            syncGraph(child, oldFather, father);
+        });
+    }
+
+    /**
+     * Sets or clears (with null) the mother of a person, moving the child between the
+     * old and new mother's child lists.
+     */
+    public void setMother(Person child, Person mother) {
+        String newId = mother != null ? mother.getId() : null;
+        write(() -> {
+            if (Objects.equals(child.getMotherId(), newId)) {
+                return;
+            }
+            Person oldMother = people.get(child.getMotherId());
+            if (oldMother != null && !Objects.equals(child.getFatherId(), oldMother.getId())) {
+                oldMother.removeChildId(child.getId());
+            }
+            child.setMotherId(newId);
+            if (mother != null) {
+                mother.addChildId(child.getId());
+            }
+            syncGraph(child, oldMother, mother);
+        });
+    }
+
+    public void setSpouseRelationship(Person spouse1, Person spouse2) {
+        write(() -> {
+            spouse1.addSpouseId(spouse2.getId());
+            spouse2.addSpouseId(spouse1.getId());
+            syncGraph(spouse1, spouse2);
+        });
+    }
+
+    public void removeSpouseRelationship(Person spouse1, Person spouse2) {
+        write(() -> {
+            spouse1.removeSpouseId(spouse2.getId());
+            spouse2.removeSpouseId(spouse1.getId());
+            syncGraph(spouse1, spouse2);
+        });
+    }
+
+    /**
+     * Makes the references held by one person bidirectional: its spouses list it back
+     * and its parents list it as a child. This is linkAllRelationships restricted to the
+     * edges of a single person.
+     */
+    private void linkPerson(Person person) {
+        List<Person> touched = new ArrayList<>();
+        touched.add(person);
+        for (String spouseId : person.getSpouseIds()) {
+            Person spouse = people.get(spouseId);
+            if (spouse != null) {
+                spouse.addSpouseId(person.getId());
+                touched.add(spouse);
+            }
+        }
+        Person father = people.get(person.getFatherId());
+        if (father != null) {
+            father.addChildId(person.getId());
+            touched.add(father);
+        }
+        Person mother = people.get(person.getMotherId());
+        if (mother != null) {
+            mother.addChildId(person.getId());
+            touched.add(mother);
+        }
+        // Children are synced too, so their parent slots resolve now that this person exists
+        for (String childId : person.getChildIds()) {
+            Person child = people.get(childId);
+            if (child != null) {
+                touched.add(child);
+            }
         }
+        syncGraph(touched.toArray(new Person[0]));
+    }
 
-        if ("Male".equals(parent.getGender())) {
-            child.setFatherId(parent.getId());
-        } else {
-            child.setMotherId(parent.getId());
+    // Re-syncs the graph nodes of the given people
+    private void syncGraph(Person... touched) {
+        for (Person person : touched) {
+            if (person == null || people.get(person.getId()) != person) {
+                continue;
+            }
+            int index = graph.indexOf(person.getId());
+            if (index == FamilyGraph.NONE) {
+                graph.put(person);
+            } else {
+                graph.sync(index);
+            }
+            changedIds.add(person.getId());
+            removedIds.remove(person.getId());
         }
-        parent.addChildId(child.getId());
+        verifyIfEnabled();
     }
 
-    public void setSpouseRelationship(Person spouse1, Person spouse2) {
-        spouse1.addSpouseId(spouse2.getId());
-        spouse2.addSpouseId(spouse1.getId());
+    private void verifyIfEnabled() {
+        if (VERIFY_LINKS) {
+            verifyLinks();
+        }
     }
 
+    /**
+     * Checks that the incrementally maintained links equal what a full
+     * {@link #linkAllRelationships()} would produce. Runs after every mutation when the
+     * application is started with {@code -Dfamilytree.verifyLinks=true}.
+     *
+     * @throws IllegalStateException describing the first mismatch found.
+     */
+    public void verifyLinks() {
+        read(() -> {
+            verifyLinksLocked();
+            return null;
+        });
+    }
+
+    private void verifyLinksLocked() {
+        for (Person person : people) {
+            for (String spouseId : person.getSpouseIds()) {
+                Person spouse = people.get(spouseId);
+                if (spouse != null && !spouse.getSpouseIds().contains(person.getId())) {
+                    throw new IllegalStateException("Spouse link " + person.getId() + " -> " + spouseId + " is not mirrored");
+                }
+            }
+            for (String parentId : new String[]{person.getFatherId(), person.getMotherId()}) {
+                Person parent = parentId != null ? people.get(parentId) : null;
+                if (parent != null && !parent.getChildIds().contains(person.getId())) {
+                    throw new IllegalStateException(parentId + " does not list child " + person.getId());
+                }
+            }
+        }
+        FamilyGraph expected = new FamilyGraph();
+        expected.rebuild(people);
+        String difference = graph.describeDifference(expected);
+        if (difference != null) {
+            throw new IllegalStateException("Incremental graph differs from a full relink: " + difference);
+        }
+    }
+
+    /**
+     * Read-only map view of the people keyed by id.
+     */
     public Map<String, Person> getPeople() {
-        return people;
+        return people.asMap();
     }
 
+    /**
+     * Live read-only map of layout positions; for use on the JavaFX thread only.
+     */
     public Map<String, Position> getLayoutPositions() {
-        return layoutPositions;
+        return layoutPositions.asMap();
     }
 }
@@ -5,11 +5,8 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
 
 import java.io.*;
-import java.lang.reflect.Type;
-import java.nio.file.Files;
 import java.util.List;
 
 public class FamilyTreeIO {
@@ -30,10 +27,10 @@ public class FamilyTreeIO {
         }
     }
 
+    // Reads any of the known file shapes, not only the list written by save()
     public static List<Person> load(String filename) {
-        try (Reader reader = new FileReader(filename)) {
-            Type listType = new TypeToken<List<Person>>() {}.getType();
-            List<Person> data = gson.fromJson(reader, listType);
+        try {
+            List<Person> data = JsonTreeReader.read(new File(filename), null).people();
             System.out.println("Loaded from " + filename);
             return data;
         } catch (IOException e) {
@@ -47,14 +44,6 @@ public class FamilyTreeIO {
     }
 
     public static FamilyTreeData loadFromFile(File file) throws IOException {
-        ObjectMapper mapper = new ObjectMapper();
-        String json = new String(Files.readAllBytes(file.toPath()));
-        System.out.println("DEBUG raw JSON: " + json);
-        FamilyTreeData loaded = mapper.readValue(file, FamilyTreeData.class);
-        System.out.println("DEBUG: loaded.getPersons().size() = " + loaded.getAllPeople().size());
-        for (Person p : loaded.getAllPeople()) {
-            System.out.println("DEBUG: Person = " + p.getName());
-        }
-        return loaded;
+        return JsonManager.loadTree(file);
     }
 }
\ No newline at end of file
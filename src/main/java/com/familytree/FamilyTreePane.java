@@ -1,90 +1,71 @@
 package com.familytree;
 
-import javafx.geometry.Point2D;
+import javafx.application.Platform;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.image.Image;
 import javafx.scene.layout.Pane;
 import javafx.scene.layout.Region;
 import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
 
 public class FamilyTreePane extends Pane {
+    // Trees with at least this many people are drawn on a canvas instead of with a node per person
+    private static final int CANVAS_THRESHOLD = Integer.getInteger("familytree.canvasThreshold", 5000);
+
     private Theme theme;
     private Image backgroundImage;
 
     private final Canvas backgroundCanvas = new Canvas();
     private final Pane treeDrawingPane = new Pane(); // This pane will hold PersonCells and Lines
     private final TreeVisualizer visualizer;
-
-    // Commented out variables as mouse handlers are disabled
-    // private double scale = 1.0;
-    // private double dragStartX, dragStartY;
-    // private double initialTranslateX, initialTranslateY;
+    private final CanvasTreeRenderer canvasRenderer;
+    private final FamilyTreeData data = FamilyTreeData.getInstance();
+    private volatile boolean usingCanvas;
+    private boolean rendererCheckScheduled;
+    // Pan and zoom, shared by both views
+    private final Camera camera = new Camera();
 
     public FamilyTreePane() {
+        // Registered before the views' own listeners, so a switch of view runs before they draw
+        data.addChangeListener(this::onTreeChange);
+
         // Initialize TreeVisualizer with the treeDrawingPane
-        this.visualizer = new TreeVisualizer(treeDrawingPane);
+        this.visualizer = new TreeVisualizer(treeDrawingPane, camera);
+        this.canvasRenderer = new CanvasTreeRenderer(visualizer, camera);
+        Pane canvasView = canvasRenderer.getView();
+        canvasView.setVisible(false);
+        canvasView.prefWidthProperty().bind(widthProperty());
+        canvasView.prefHeightProperty().bind(heightProperty());
 
-        // Add background canvas and the drawing pane to this FamilyTreePane
-        getChildren().addAll(backgroundCanvas, treeDrawingPane);
+        // Add background canvas and the drawing panes to this FamilyTreePane
+        getChildren().addAll(backgroundCanvas, treeDrawingPane, canvasView);
 
         // Bind background canvas size to FamilyTreePane's size
         backgroundCanvas.widthProperty().bind(widthProperty());
         backgroundCanvas.heightProperty().bind(heightProperty());
 
-        // CRITICAL: Ensure treeDrawingPane (visualizationPane) also binds its size to its parent
-        // This makes sure it has a width/height greater than 0 for drag clamping
+        // The visualizer works out the visible part of the tree from treeDrawingPane's size
         treeDrawingPane.prefWidthProperty().bind(widthProperty());
         treeDrawingPane.prefHeightProperty().bind(heightProperty());
 
+        // The tree is panned and zoomed inside this pane; keep it from drawing over the rest of the window
+        Rectangle clip = new Rectangle();
+        clip.widthProperty().bind(widthProperty());
+        clip.heightProperty().bind(heightProperty());
+        setClip(clip);
+
         // Redraw background when size changes
         backgroundCanvas.widthProperty().addListener((obs, oldVal, newVal) -> drawBackground());
         backgroundCanvas.heightProperty().addListener((obs, oldVal, newVal) -> drawBackground());
 
-        // --- START OF TEMPORARILY COMMENTED OUT MOUSE HANDLERS ---
-        // Mouse handlers for panning the entire visualization (background and treeDrawingPane)
-        /*
-        setOnMousePressed(event -> {
-            if (event.getTarget() == this || event.getTarget() == backgroundCanvas) {
-                visualizer.deselectAllNodes(); // Deselect any selected person when clicking background
-                dragStartX = event.getSceneX();
-                dragStartY = event.getSceneY();
-                initialTranslateX = treeDrawingPane.getTranslateX(); // Pan the drawing pane
-                initialTranslateY = treeDrawingPane.getTranslateY();
-                event.consume();
+        // Zoomed out too far for person cells, the canvas draws boxes or dots instead
+        camera.scaleProperty().addListener(observable -> {
+            if (wantsCanvas() != usingCanvas) {
+                chooseRenderer();
             }
         });
 
-        setOnMouseDragged(event -> {
-            if (event.getTarget() == this || event.getTarget() == backgroundCanvas) {
-                double offsetX = event.getSceneX() - dragStartX;
-                double offsetY = event.getSceneY() - dragStartY;
-                treeDrawingPane.setTranslateX(initialTranslateX + offsetX);
-                treeDrawingPane.setTranslateY(initialTranslateY + offsetY);
-                event.consume();
-            }
-        });
-
-        // Handle zoom for the entire visualization
-        setOnScroll(event -> {
-            double zoomFactor = event.getDeltaY() > 0 ? 1.1 : 0.9;
-            scale *= zoomFactor;
-
-            treeDrawingPane.setScaleX(scale);
-            treeDrawingPane.setScaleY(scale);
-
-            Point2D mouse = new Point2D(event.getX(), event.getY());
-            Point2D innerCoord = treeDrawingPane.parentToLocal(mouse);
-            double dx = innerCoord.getX() * (1 - zoomFactor);
-            double dy = innerCoord.getY() * (1 - zoomFactor);
-            treeDrawingPane.setTranslateX(treeDrawingPane.getTranslateX() + dx);
-            treeDrawingPane.setTranslateY(treeDrawingY.getTranslateY() + dy);
-
-            event.consume();
-        });
-        */
-        // --- END OF TEMPORARILY COMMENTED OUT MOUSE HANDLERS ---
-
         // Initial background draw
         drawBackground();
     }
@@ -109,4 +90,77 @@ public class FamilyTreePane extends Pane {
     public TreeVisualizer getVisualizer() {
         return visualizer;
     }
+
+    public CanvasTreeRenderer getCanvasRenderer() {
+        return canvasRenderer;
+    }
+
+    public Camera getCamera() {
+        return camera;
+    }
+
+    /**
+     * Draws the whole tree with the view suited to its size.
+     */
+    public void refresh() {
+        if (chooseRenderer()) {
+            return; // The view switched to has drawn everything
+        }
+        if (usingCanvas) {
+            canvasRenderer.refresh();
+        } else {
+            visualizer.refresh();
+        }
+    }
+
+    // Called by the model with its write lock held; a change in size can need the other view
+    private void onTreeChange(TreeChange change) {
+        if (wantsCanvas() == usingCanvas) {
+            return;
+        }
+        synchronized (this) {
+            if (rendererCheckScheduled) {
+                return;
+            }
+            rendererCheckScheduled = true;
+        }
+        Platform.runLater(() -> {
+            synchronized (this) {
+                rendererCheckScheduled = false;
+            }
+            chooseRenderer();
+        });
+    }
+
+    // Large trees, and any tree zoomed out below full cells, are drawn on the canvas. Both
+    // limits switch back a little past the point they switched at, so adding and removing one
+    // person, or zooming back and forth by a notch, does not flip views
+    private boolean wantsCanvas() {
+        int count = data.getAllPeople().size();
+        double scale = camera.getScale();
+        if (usingCanvas) {
+            return count >= CANVAS_THRESHOLD * 9 / 10 || scale < Camera.CELL_SCALE;
+        }
+        return count >= CANVAS_THRESHOLD || scale < Camera.CELL_SCALE * 0.9;
+    }
+
+    // Returns whether the view was switched
+    private boolean chooseRenderer() {
+        boolean canvas = wantsCanvas();
+        if (canvas == usingCanvas && (canvas ? canvasRenderer.isActive() : visualizer.isActive())) {
+            return false;
+        }
+        usingCanvas = canvas;
+        // The view being left lets go of its nodes first
+        if (canvas) {
+            visualizer.setActive(false);
+            canvasRenderer.setActive(true);
+        } else {
+            canvasRenderer.setActive(false);
+            visualizer.setActive(true);
+        }
+        treeDrawingPane.setVisible(!canvas);
+        canvasRenderer.getView().setVisible(canvas);
+        return true;
+    }
 }
\ No newline at end of file
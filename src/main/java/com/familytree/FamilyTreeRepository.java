@@ -0,0 +1,70 @@
+package com.familytree;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Storage backend for a family tree. File backends ({@link JsonTreeRepository},
+ * {@link BinaryTreeRepository}) always read and write whole trees; the database backend
+ * ({@link H2TreeRepository}) commits single edits. Trees are always opened in full, as the
+ * model holds the whole tree in memory.
+ */
+public interface FamilyTreeRepository extends AutoCloseable {
+
+    /**
+     * Picks the backend from the file name: *.mv.db is an H2 database, *.ftb the binary
+     * format, anything else JSON.
+     */
+    static FamilyTreeRepository forFile(File file) throws IOException {
+        if (H2TreeRepository.isDatabaseFile(file.getName())) {
+            return new H2TreeRepository(file);
+        }
+        if (BinaryTreeFormat.isBinaryTreeFile(file.getName())) {
+            return new BinaryTreeRepository(file);
+        }
+        return new JsonTreeRepository(file, true);
+    }
+
+    /**
+     * Picks the backend for reading an existing file from its content where the name is
+     * not enough: a binary tree is recognised by its magic number under any name, and
+     * everything else goes to the JSON reader, which detects the JSON shape itself.
+     */
+    static FamilyTreeRepository forReading(File file) throws IOException {
+        if (!H2TreeRepository.isDatabaseFile(file.getName()) && BinaryTreeFormat.hasBinaryHeader(file)) {
+            return new BinaryTreeRepository(file);
+        }
+        if (BinaryTreeFormat.isBinaryTreeFile(file.getName()) && file.isFile()) {
+            return new JsonTreeRepository(file, true);
+        }
+        return forFile(file);
+    }
+
+    /**
+     * Reads the whole tree.
+     *
+     * @param progress Receives the fraction read so far (0..1); may be null.
+     */
+    TreeContent loadAll(DoubleConsumer progress) throws IOException;
+
+    /**
+     * Replaces the stored tree with {@code snapshot}, atomically: a failed save leaves
+     * the previous tree in place.
+     */
+    void saveAll(FamilyTreeSnapshot snapshot) throws IOException;
+
+    /**
+     * Stores one change as a single transaction. Changes flagged
+     * {@link TreeChange#reloaded()} carry no data; use {@link #saveAll} for those.
+     */
+    void apply(TreeChange change) throws IOException;
+
+    /**
+     * True if {@link #apply} costs the size of the change rather than the size of the tree.
+     */
+    boolean isIncremental();
+
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,56 @@
+package com.familytree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, consistent view of a {@link FamilyTreeData} at one version.
+ * Safe to hand to background threads (autosave, layout, search indexing).
+ * The model's snapshots share their records and positions with the model (see
+ * {@link FamilyTreeData#snapshot()}).
+ */
+public final class FamilyTreeSnapshot {
+    private final long version;
+    private final List<PersonRecord> people;
+    private final Map<String, Position> layoutPositions;
+
+    FamilyTreeSnapshot(long version, List<PersonRecord> people, Map<String, Position> layoutPositions) {
+        this.version = version;
+        this.people = people;
+        this.layoutPositions = layoutPositions;
+    }
+
+    /**
+     * Copies content read from a file, e.g. to write it back out in another format.
+     */
+    public static FamilyTreeSnapshot of(TreeContent content) {
+        List<PersonRecord> records = new ArrayList<>(content.people().size());
+        for (Person person : content.people()) {
+            records.add(PersonRecord.of(person));
+        }
+        Map<String, Position> positions = new HashMap<>(content.layoutPositions().size() * 4 / 3 + 1);
+        for (Map.Entry<String, Position> entry : content.layoutPositions().entrySet()) {
+            Position position = entry.getValue();
+            positions.put(entry.getKey(), new Position(position.getX(), position.getY(), position.getId()));
+        }
+        return new FamilyTreeSnapshot(0, Collections.unmodifiableList(records), Collections.unmodifiableMap(positions));
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public List<PersonRecord> getPeople() {
+        return people;
+    }
+
+    /**
+     * The layout positions; the map is unmodifiable and each lookup returns a new {@link Position}.
+     */
+    public Map<String, Position> getLayoutPositions() {
+        return layoutPositions;
+    }
+}
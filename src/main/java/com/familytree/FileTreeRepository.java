@@ -0,0 +1,97 @@
+package com.familytree;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Common part of the single-file backends. Saves go to a temp file that is renamed over
+ * the target, so readers and crashes only ever see the old or the new tree. Edits have to
+ * rewrite the whole file; keep a {@link TreeJournal} in front of these for edits.
+ *
+ * Windows refuses to replace a file that is memory-mapped, and a mapping is otherwise only
+ * released by the garbage collector. Readers therefore release their mappings once they are
+ * done (see {@link MappedFiles}), and a tree still being read lazily from the target is
+ * switched over to the new file around the rename (see {@link LazyDetails#replace}).
+ */
+abstract class FileTreeRepository implements FamilyTreeRepository {
+    protected final File file;
+
+    protected FileTreeRepository(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Writes a snapshot to {@code target} in this backend's format.
+     */
+    protected abstract void write(FamilyTreeSnapshot snapshot, File target) throws IOException;
+
+    protected abstract String extension();
+
+    /**
+     * The persons of a snapshot in the order {@link #write} stores them, if lazily loaded
+     * persons can be read from the written file; null otherwise.
+     */
+    protected List<PersonRecord> storedOrder(FamilyTreeSnapshot snapshot) {
+        return null;
+    }
+
+    @Override
+    public void saveAll(FamilyTreeSnapshot snapshot) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(file.getName() + ".", ".tmp" + extension(), directory);
+        try {
+            write(snapshot, temp);
+            try (FileChannel written = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+                written.force(true);
+            }
+            // Persons may still be read lazily from the file being replaced
+            LazyDetails.replace(file, storedOrder(snapshot), () -> Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE));
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    /**
+     * Rewrites the whole file with the change applied.
+     */
+    @Override
+    public void apply(TreeChange change) throws IOException {
+        if (change.reloaded()) {
+            throw new IllegalArgumentException("A reloaded tree has to be stored with saveAll");
+        }
+        TreeContent content = loadAll(null);
+        Map<String, Person> people = new LinkedHashMap<>();
+        for (Person person : content.people()) {
+            people.put(person.getId(), person);
+        }
+        Map<String, Position> layoutPositions = new HashMap<>(content.layoutPositions());
+        for (String id : change.removedIds()) {
+            people.remove(id);
+            layoutPositions.remove(id);
+        }
+        for (PersonRecord record : change.updatedPeople()) {
+            people.put(record.id(), record.toPerson());
+        }
+        layoutPositions.putAll(change.movedPositions());
+        saveAll(FamilyTreeSnapshot.of(new TreeContent(new ArrayList<>(people.values()), layoutPositions)));
+    }
+
+    @Override
+    public boolean isIncremental() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,329 @@
+package com.familytree;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Streaming GEDCOM 5.5.1 exporter.
+ *
+ * Records are written from a {@link FamilyTreeSnapshot} through a buffered writer, so the
+ * model stays editable while a large tree is exported. Memory is still linear in the number
+ * of people: the snapshot holds one {@link PersonRecord} per person (lazily loaded bios,
+ * occupations and picture paths stay in their file and are read as each record is written),
+ * and the exporter adds an id-to-index map of the exported people, plus a list of them when
+ * only a branch is exported. No text is collected beyond the current line.
+ *
+ * The model has no family records, so FAM records are synthesized: one per couple (a spouse
+ * pair, or the two parents of a child) holding their shared children, plus one per person for
+ * children with no other parent. A family's xref is derived from its members' indices, so
+ * each INDI line can name its FAMS/FAMC records without a family table, and each family is
+ * written by its lower-indexed member.
+ */
+public class GedcomExporter {
+    // GEDCOM 5.5.1 caps line values at 255 characters; longer text is split with CONC
+    private static final int MAX_VALUE_LENGTH = 240;
+    private static final int NONE = -1;
+
+    private final List<PersonRecord> people;
+    private final Map<String, Integer> indices;
+    private final Writer out;
+
+    private GedcomExporter(List<PersonRecord> people, Map<String, Integer> indices, Writer out) {
+        this.people = people;
+        this.indices = indices;
+        this.out = out;
+    }
+
+    /**
+     * Writes the whole snapshot as GEDCOM.
+     */
+    public static void write(FamilyTreeSnapshot snapshot, File file, DoubleConsumer progress) throws IOException {
+        write(snapshot, file, null, progress);
+    }
+
+    /**
+     * Writes the people of the snapshot whose ids are in {@code only} (everyone when null).
+     * Links to people outside the selection are left out.
+     *
+     * @param progress Receives the fraction written so far (0..1); may be null.
+     */
+    public static void write(FamilyTreeSnapshot snapshot, File file, Set<String> only, DoubleConsumer progress)
+            throws IOException {
+        List<PersonRecord> people = snapshot.getPeople();
+        if (only != null) {
+            people = new ArrayList<>(only.size());
+            for (PersonRecord person : snapshot.getPeople()) {
+                if (only.contains(person.id())) {
+                    people.add(person);
+                }
+            }
+        }
+        Map<String, Integer> indices = new HashMap<>(people.size() * 2);
+        for (int i = 0; i < people.size(); i++) {
+            indices.put(people.get(i).id(), i);
+        }
+
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            GedcomExporter exporter = new GedcomExporter(people, indices, writer);
+            exporter.writeHeader(file.getName());
+            int total = Math.max(1, people.size() * 2);
+            for (int i = 0; i < people.size(); i++) {
+                exporter.writeIndividual(i);
+                if (progress != null && (i & 0x3FFF) == 0) {
+                    progress.accept((double) i / total);
+                }
+            }
+            for (int i = 0; i < people.size(); i++) {
+                exporter.writeFamilies(i);
+                if (progress != null && (i & 0x3FFF) == 0) {
+                    progress.accept((double) (people.size() + i) / total);
+                }
+            }
+            exporter.line(0, "TRLR");
+        }
+        if (progress != null) {
+            progress.accept(1.0);
+        }
+        System.out.println("Exported " + people.size() + " people to " + file.getName());
+    }
+
+    /**
+     * Returns the ids of a branch: the person, all of their descendants and the spouses of
+     * each of them, so the exported families are complete.
+     */
+    public static Set<String> descendantBranch(FamilyTreeData data, Person root) {
+        Set<String> ids = new LinkedHashSet<>();
+        List<Person> branch = new ArrayList<>();
+        branch.add(root);
+        branch.addAll(data.getDescendants(root));
+        for (Person person : branch) {
+            ids.add(person.getId());
+            ids.addAll(person.getSpouseIds());
+        }
+        return ids;
+    }
+
+    private void writeHeader(String fileName) throws IOException {
+        line(0, "HEAD");
+        line(1, "SOUR FamilyTreeApp");
+        line(1, "GEDC");
+        line(2, "VERS 5.5.1");
+        line(2, "FORM LINEAGE-LINKED");
+        line(1, "CHAR UTF-8");
+        line(1, "FILE " + fileName);
+    }
+
+    private void writeIndividual(int index) throws IOException {
+        PersonRecord person = people.get(index);
+        line(0, "@" + individualXref(index) + "@ INDI");
+        line(1, "NAME " + gedcomName(person.name()));
+        String sex = sex(person.gender());
+        if (sex != null) {
+            line(1, "SEX " + sex);
+        }
+        if (!isBlank(person.birthDate())) {
+            line(1, "BIRT");
+            line(2, "DATE " + person.birthDate());
+        }
+        if (!isBlank(person.deathDate())) {
+            line(1, "DEAT");
+            line(2, "DATE " + person.deathDate());
+        }
+        if (!isBlank(person.occupation())) {
+            line(1, "OCCU " + person.occupation());
+        }
+        if (!isBlank(person.profilePicturePath())) {
+            // Store references are relative to the photo store; other programs need the real file
+            line(1, "OBJE");
+            line(2, "FILE " + PhotoStore.getInstance().resolve(person.profilePicturePath()).getPath());
+        }
+        if (!isBlank(person.bio())) {
+            text(1, "NOTE", person.bio());
+        }
+
+        int father = indexOf(person.fatherId());
+        int mother = indexOf(person.motherId());
+        if (father != NONE || mother != NONE) {
+            line(1, "FAMC @" + familyXref(father, mother) + "@");
+        }
+        for (int partner : partners(index)) {
+            line(1, "FAMS @" + familyXref(index, partner) + "@");
+        }
+    }
+
+    // Writes the families this person is the lower-indexed member of
+    private void writeFamilies(int index) throws IOException {
+        for (int partner : partners(index)) {
+            if (partner != NONE && partner < index) {
+                continue;
+            }
+            List<Integer> children = new ArrayList<>();
+            int husband = NONE;
+            for (String childId : people.get(index).childIds()) {
+                int child = indexOf(childId);
+                if (child == NONE) {
+                    continue;
+                }
+                PersonRecord record = people.get(child);
+                int father = indexOf(record.fatherId());
+                int mother = indexOf(record.motherId());
+                int other = father == index ? mother : father;
+                if (other == partner && (father == index || mother == index)) {
+                    children.add(child);
+                    husband = father;
+                }
+            }
+            if (husband == NONE) {
+                // Childless couple or single parent: decide the roles by gender
+                boolean female = "Female".equals(people.get(index).gender());
+                boolean partnerFemale = partner != NONE && "Female".equals(people.get(partner).gender());
+                husband = female && !partnerFemale ? partner : index;
+            }
+            int wife = husband == index ? partner : index;
+
+            line(0, "@" + familyXref(index, partner) + "@ FAM");
+            if (husband != NONE) {
+                line(1, "HUSB @" + individualXref(husband) + "@");
+            }
+            if (wife != NONE) {
+                line(1, "WIFE @" + individualXref(wife) + "@");
+            }
+            for (int child : children) {
+                line(1, "CHIL @" + individualXref(child) + "@");
+            }
+        }
+    }
+
+    /**
+     * Everyone this person forms a family with: their spouses and the other parent of each
+     * of their children, in a stable order. NONE stands for children without another parent.
+     */
+    private Set<Integer> partners(int index) {
+        PersonRecord person = people.get(index);
+        Set<Integer> partners = new LinkedHashSet<>();
+        for (String spouseId : person.spouseIds()) {
+            int spouse = indexOf(spouseId);
+            if (spouse != NONE && spouse != index) {
+                partners.add(spouse);
+            }
+        }
+        for (String childId : person.childIds()) {
+            int child = indexOf(childId);
+            if (child == NONE) {
+                continue;
+            }
+            PersonRecord record = people.get(child);
+            int father = indexOf(record.fatherId());
+            int mother = indexOf(record.motherId());
+            if (father == index) {
+                partners.add(mother);
+            } else if (mother == index) {
+                partners.add(father);
+            }
+        }
+        return partners;
+    }
+
+    private int indexOf(String id) {
+        if (id == null) {
+            return NONE;
+        }
+        Integer index = indices.get(id);
+        return index != null ? index : NONE;
+    }
+
+    private static String individualXref(int index) {
+        return "I" + index;
+    }
+
+    // The same couple yields the same xref from either side
+    private static String familyXref(int a, int b) {
+        if (a == NONE) {
+            return "F" + b;
+        }
+        if (b == NONE) {
+            return "F" + a;
+        }
+        return "F" + Math.min(a, b) + "_" + Math.max(a, b);
+    }
+
+    /**
+     * "John Smith" becomes "John /Smith/": the last word is taken as the surname.
+     */
+    private static String gedcomName(String name) {
+        if (isBlank(name)) {
+            return "";
+        }
+        String trimmed = name.strip().replace("/", "");
+        int space = trimmed.lastIndexOf(' ');
+        if (space < 0) {
+            return trimmed;
+        }
+        return trimmed.substring(0, space) + " /" + trimmed.substring(space + 1) + "/";
+    }
+
+    private static String sex(String gender) {
+        if ("Male".equals(gender)) {
+            return "M";
+        }
+        if ("Female".equals(gender)) {
+            return "F";
+        }
+        return isBlank(gender) ? null : "U";
+    }
+
+    // Multi-line text: the first line on the tag, the rest as CONT, long lines split with CONC
+    private void text(int level, String tag, String text) throws IOException {
+        String[] lines = text.split("\r?\n", -1);
+        for (int i = 0; i < lines.length; i++) {
+            String value = lines[i];
+            int end = splitPoint(value, 0);
+            String first = value.substring(0, end);
+            if (i == 0) {
+                line(level, first.isEmpty() ? tag : tag + " " + first);
+            } else {
+                line(level + 1, first.isEmpty() ? "CONT" : "CONT " + first);
+            }
+            while (end < value.length()) {
+                int start = end;
+                end = splitPoint(value, start);
+                line(level + 1, "CONC " + value.substring(start, end));
+            }
+        }
+    }
+
+    // Readers trim line ends, so a CONC split must not fall next to a space
+    private static int splitPoint(String value, int start) {
+        int end = Math.min(value.length(), start + MAX_VALUE_LENGTH);
+        if (end == value.length()) {
+            return end;
+        }
+        int split = end;
+        while (split > start + 1 && (value.charAt(split - 1) == ' ' || value.charAt(split) == ' ')) {
+            split--;
+        }
+        return split > start + 1 ? split : end;
+    }
+
+    private void line(int level, String content) throws IOException {
+        out.write(Integer.toString(level));
+        out.write(' ');
+        out.write(content);
+        out.write('\n');
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+}
@@ -0,0 +1,397 @@
+package com.familytree;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Streaming GEDCOM 5.5.1 importer.
+ *
+ * The file is read line by line and cut into level-0 records. Batches of records are
+ * parsed in parallel on the common fork-join pool while reading continues; only a few
+ * batches of raw lines are held at any time. INDI records become {@link Person}s (NAME,
+ * SEX, BIRT/DEAT dates, OCCU, NOTE as bio, OBJE/FILE as picture) and FAM records are
+ * resolved into father, mother, spouse and child ids in one linking pass at the end.
+ * Progress covers reading the file; linking and layout follow the last report.
+ * Person ids are the record xrefs without the @ signs.
+ */
+public class GedcomImporter {
+    // Records per parse task, and how many tasks may be in flight at once
+    private static final int BATCH_SIZE = 2000;
+    private static final int MAX_IN_FLIGHT = Math.max(2, ForkJoinPool.getCommonPoolParallelism() * 2);
+
+    private record Individual(Person person, List<String> childOf, List<String> spouseIn, List<String> noteRefs) {
+    }
+
+    private record Family(String id, String husband, String wife, List<String> children) {
+    }
+
+    // What one batch of records parsed into
+    private record Batch(List<Individual> individuals, List<Family> families, Map<String, String> notes) {
+    }
+
+    /**
+     * Reads a GEDCOM file.
+     *
+     * @param file     The file to read; UTF-8 (with or without BOM) or plain ASCII.
+     * @param progress Receives the fraction of the file read so far (0..1); may be null.
+     * @return The people found in the file, linked and laid out with {@link TreeLayout}.
+     * @throws IOException if the file cannot be read.
+     */
+    public static TreeContent read(File file, DoubleConsumer progress) throws IOException {
+        long fileSize = Math.max(1, file.length());
+        Map<String, Individual> individuals = new LinkedHashMap<>();
+        List<Family> families = new ArrayList<>();
+        Map<String, String> notes = new HashMap<>();
+        ArrayDeque<ForkJoinTask<Batch>> inFlight = new ArrayDeque<>();
+
+        try (CountingInputStream counter = new CountingInputStream(Files.newInputStream(file.toPath()));
+             BufferedReader reader = new BufferedReader(new InputStreamReader(counter, StandardCharsets.UTF_8), 1 << 16)) {
+            List<List<String>> batch = new ArrayList<>(BATCH_SIZE);
+            List<String> record = null;
+            String line = reader.readLine();
+            // A byte order mark can only start the first line
+            if (line != null && line.startsWith("\uFEFF")) {
+                line = line.substring(1);
+            }
+            for (; line != null; line = reader.readLine()) {
+                line = line.strip();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                if (line.startsWith("0 ")) {
+                    record = new ArrayList<>();
+                    batch.add(record);
+                    if (batch.size() == BATCH_SIZE) {
+                        // The record just started is still being filled, so it moves to the next batch
+                        batch.remove(batch.size() - 1);
+                        submit(inFlight, batch, individuals, families, notes);
+                        batch = new ArrayList<>(BATCH_SIZE);
+                        batch.add(record);
+                        if (progress != null) {
+                            progress.accept(Math.min(1.0, (double) counter.count / fileSize));
+                        }
+                    }
+                }
+                if (record != null) {
+                    record.add(line);
+                }
+            }
+            submit(inFlight, batch, individuals, families, notes);
+        }
+        while (!inFlight.isEmpty()) {
+            merge(inFlight.poll().join(), individuals, families, notes);
+        }
+
+        List<Person> people = link(individuals, families, notes);
+        if (progress != null) {
+            progress.accept(1.0);
+        }
+        System.out.println("Imported " + people.size() + " people and " + families.size() + " families from " + file.getName());
+        // GEDCOM carries no coordinates
+        return new TreeContent(people, new TreeLayout().layout(people, null));
+    }
+
+    private static void submit(ArrayDeque<ForkJoinTask<Batch>> inFlight, List<List<String>> records,
+                               Map<String, Individual> individuals, List<Family> families, Map<String, String> notes) {
+        if (records.isEmpty()) {
+            return;
+        }
+        inFlight.add(ForkJoinPool.commonPool().submit(() -> parseBatch(records)));
+        // Bound memory: wait for the oldest batch (which also keeps the file order)
+        while (inFlight.size() > MAX_IN_FLIGHT) {
+            merge(inFlight.poll().join(), individuals, families, notes);
+        }
+    }
+
+    private static void merge(Batch batch, Map<String, Individual> individuals, List<Family> families, Map<String, String> notes) {
+        for (Individual individual : batch.individuals()) {
+            individuals.putIfAbsent(individual.person().getId(), individual);
+        }
+        families.addAll(batch.families());
+        notes.putAll(batch.notes());
+    }
+
+    private static Batch parseBatch(List<List<String>> records) {
+        List<Individual> individuals = new ArrayList<>();
+        List<Family> families = new ArrayList<>();
+        Map<String, String> notes = new HashMap<>();
+        for (List<String> record : records) {
+            String[] header = record.get(0).split(" ", 4);
+            if (header.length < 3 || !header[1].startsWith("@")) {
+                continue; // HEAD, TRLR and records without an xref
+            }
+            String id = xref(header[1]);
+            switch (header[2]) {
+                case "INDI" -> individuals.add(parseIndividual(id, record));
+                case "FAM" -> families.add(parseFamily(id, record));
+                case "NOTE" -> notes.put(id, text(record, 0, header.length > 3 ? header[3] : ""));
+                default -> {
+                }
+            }
+        }
+        return new Batch(individuals, families, notes);
+    }
+
+    private static Individual parseIndividual(String id, List<String> record) {
+        Person person = new Person(id, null);
+        List<String> childOf = new ArrayList<>();
+        List<String> spouseIn = new ArrayList<>();
+        List<String> noteRefs = new ArrayList<>();
+        StringBuilder bio = new StringBuilder();
+        String event = null;
+
+        for (int i = 1; i < record.size(); i++) {
+            String[] parts = record.get(i).split(" ", 3);
+            if (parts.length < 2) {
+                continue;
+            }
+            int level = parseLevel(parts[0]);
+            String tag = parts[1];
+            String value = parts.length > 2 ? parts[2] : "";
+            if (level == 1) {
+                event = tag;
+                switch (tag) {
+                    case "NAME" -> {
+                        if (person.getName() == null) {
+                            person.setName(value.replace("/", " ").replaceAll("\\s+", " ").strip());
+                        }
+                    }
+                    case "SEX" -> person.setGender(gender(value));
+                    case "OCCU" -> person.setOccupation(value);
+                    case "FAMC" -> childOf.add(xref(value));
+                    case "FAMS" -> spouseIn.add(xref(value));
+                    case "NOTE" -> {
+                        if (value.startsWith("@")) {
+                            noteRefs.add(xref(value));
+                        } else {
+                            if (bio.length() > 0) {
+                                bio.append('\n');
+                            }
+                            bio.append(text(record, i, value));
+                        }
+                    }
+                    default -> {
+                    }
+                }
+            } else if (level == 2) {
+                if ("DATE".equals(tag) && "BIRT".equals(event) && person.getBirthDate().isEmpty()) {
+                    person.setBirthDate(value);
+                } else if ("DATE".equals(tag) && "DEAT".equals(event) && person.getDeathDate().isEmpty()) {
+                    person.setDeathDate(value);
+                } else if ("FILE".equals(tag) && "OBJE".equals(event) && person.getProfilePicturePath() == null) {
+                    person.setProfilePicturePath(value);
+                }
+            }
+        }
+        if (person.getName() == null) {
+            person.setName("");
+        }
+        person.setBio(bio.toString());
+        return new Individual(person, childOf, spouseIn, noteRefs);
+    }
+
+    private static Family parseFamily(String id, List<String> record) {
+        String husband = null;
+        String wife = null;
+        List<String> children = new ArrayList<>();
+        for (int i = 1; i < record.size(); i++) {
+            String[] parts = record.get(i).split(" ", 3);
+            if (parts.length < 3 || parseLevel(parts[0]) != 1) {
+                continue;
+            }
+            switch (parts[1]) {
+                case "HUSB" -> husband = xref(parts[2]);
+                case "WIFE" -> wife = xref(parts[2]);
+                case "CHIL" -> children.add(xref(parts[2]));
+                default -> {
+                }
+            }
+        }
+        return new Family(id, husband, wife, children);
+    }
+
+    /**
+     * Joins a text value with its CONT (new line) and CONC (same line) continuations.
+     */
+    private static String text(List<String> record, int index, String value) {
+        StringBuilder text = new StringBuilder(value);
+        int level = parseLevel(record.get(index).split(" ", 2)[0]);
+        for (int i = index + 1; i < record.size(); i++) {
+            String[] parts = record.get(i).split(" ", 3);
+            if (parts.length < 2 || parseLevel(parts[0]) != level + 1) {
+                break;
+            }
+            String continuation = parts.length > 2 ? parts[2] : "";
+            if ("CONT".equals(parts[1])) {
+                text.append('\n').append(continuation);
+            } else if ("CONC".equals(parts[1])) {
+                text.append(continuation);
+            } else {
+                break;
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Resolves families into parent, spouse and child ids. A family's members come from
+     * its HUSB/WIFE/CHIL lines as well as from FAMS/FAMC lines of the individuals, so files
+     * that only carry one side of the link still import completely.
+     */
+    private static List<Person> link(Map<String, Individual> individuals, List<Family> families, Map<String, String> notes) {
+        Map<String, Family> familiesById = new HashMap<>();
+        Map<String, Set<String>> spousesOf = new HashMap<>();
+        Map<String, Set<String>> childrenOf = new HashMap<>();
+        for (Family family : families) {
+            familiesById.put(family.id(), family);
+            Set<String> spouses = spousesOf.computeIfAbsent(family.id(), id -> new LinkedHashSet<>());
+            if (family.husband() != null) {
+                spouses.add(family.husband());
+            }
+            if (family.wife() != null) {
+                spouses.add(family.wife());
+            }
+            childrenOf.computeIfAbsent(family.id(), id -> new LinkedHashSet<>()).addAll(family.children());
+        }
+        for (Individual individual : individuals.values()) {
+            String id = individual.person().getId();
+            for (String familyId : individual.spouseIn()) {
+                spousesOf.computeIfAbsent(familyId, key -> new LinkedHashSet<>()).add(id);
+            }
+            for (String familyId : individual.childOf()) {
+                childrenOf.computeIfAbsent(familyId, key -> new LinkedHashSet<>()).add(id);
+            }
+            for (String noteId : individual.noteRefs()) {
+                String note = notes.get(noteId);
+                if (note != null) {
+                    Person person = individual.person();
+                    person.setBio(person.getBio().isEmpty() ? note : person.getBio() + "\n" + note);
+                }
+            }
+        }
+
+        for (Map.Entry<String, Set<String>> entry : spousesOf.entrySet()) {
+            Family family = familiesById.get(entry.getKey());
+            String father = family != null ? family.husband() : null;
+            String mother = family != null ? family.wife() : null;
+            List<Person> spouses = new ArrayList<>();
+            for (String spouseId : entry.getValue()) {
+                Individual spouse = individuals.get(spouseId);
+                if (spouse == null) {
+                    continue;
+                }
+                spouses.add(spouse.person());
+                // Without a FAM record the role follows the spouse's sex
+                if (father == null && "Male".equals(spouse.person().getGender())) {
+                    father = spouseId;
+                } else if (mother == null && !spouseId.equals(father)) {
+                    mother = spouseId;
+                }
+            }
+            for (Person a : spouses) {
+                for (Person b : spouses) {
+                    if (a != b) {
+                        a.addSpouseId(b.getId());
+                    }
+                }
+            }
+            for (String childId : childrenOf.getOrDefault(entry.getKey(), Set.of())) {
+                Individual child = individuals.get(childId);
+                if (child == null) {
+                    continue;
+                }
+                setParent(child.person(), individuals.get(father), true);
+                setParent(child.person(), individuals.get(mother), false);
+            }
+        }
+
+        List<Person> people = new ArrayList<>(individuals.size());
+        for (Individual individual : individuals.values()) {
+            people.add(individual.person());
+        }
+        return people;
+    }
+
+    // The first family listing a child decides its parents
+    private static void setParent(Person child, Individual parent, boolean father) {
+        if (parent == null || child == parent.person()) {
+            return;
+        }
+        if (father && child.getFatherId() == null) {
+            child.setFatherId(parent.person().getId());
+            parent.person().addChildId(child.getId());
+        } else if (!father && child.getMotherId() == null) {
+            child.setMotherId(parent.person().getId());
+            parent.person().addChildId(child.getId());
+        }
+    }
+
+    static String gender(String sex) {
+        return switch (sex.strip()) {
+            case "M" -> "Male";
+            case "F" -> "Female";
+            case "" -> "";
+            default -> "Other";
+        };
+    }
+
+    private static String xref(String value) {
+        String trimmed = value.strip();
+        if (trimmed.length() > 1 && trimmed.startsWith("@") && trimmed.endsWith("@")) {
+            return trimmed.substring(1, trimmed.length() - 1);
+        }
+        return trimmed;
+    }
+
+    private static int parseLevel(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Tracks how far into the file the reader is, for progress
+    private static class CountingInputStream extends FilterInputStream {
+        volatile long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+}
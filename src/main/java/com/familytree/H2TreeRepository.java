@@ -0,0 +1,283 @@
+package com.familytree;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Tree stored in an embedded H2 database file (no server). Persons and the two edge
+ * tables are indexed by id, so {@link #apply(TreeChange)} commits an edit as one small
+ * transaction without touching the rest of the tree.
+ *
+ * <pre>
+ * person(seq, id PK, name, birth_date, death_date, gender, bio, occupation, picture, father_id, mother_id)
+ * spouse(person_id, spouse_id)   PK (person_id, spouse_id)
+ * child(parent_id, child_id)     PK (parent_id, child_id), index on child_id
+ * layout(id PK, x, y)
+ * </pre>
+ */
+public class H2TreeRepository implements FamilyTreeRepository {
+    public static final String EXTENSION = ".mv.db";
+
+    private static final int BATCH_SIZE = 1000;
+    // Report progress every this many persons
+    private static final int PROGRESS_INTERVAL = 1000;
+
+    private final Connection connection;
+
+    public H2TreeRepository(File file) throws IOException {
+        String path = file.getAbsolutePath();
+        if (isDatabaseFile(path)) {
+            // H2 adds the extension itself
+            path = path.substring(0, path.length() - EXTENSION.length());
+        }
+        try {
+            connection = DriverManager.getConnection("jdbc:h2:file:" + path);
+            connection.setAutoCommit(false);
+            createSchema();
+        } catch (SQLException e) {
+            throw new IOException("Could not open database " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    public static boolean isDatabaseFile(String fileName) {
+        return fileName.toLowerCase().endsWith(EXTENSION);
+    }
+
+    private void createSchema() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS person ("
+                    + "seq BIGINT GENERATED BY DEFAULT AS IDENTITY, id VARCHAR PRIMARY KEY, name VARCHAR, "
+                    + "birth_date VARCHAR, death_date VARCHAR, gender VARCHAR, bio CLOB, occupation VARCHAR, "
+                    + "picture VARCHAR, father_id VARCHAR, mother_id VARCHAR)");
+            statement.execute("CREATE TABLE IF NOT EXISTS spouse (person_id VARCHAR, spouse_id VARCHAR, "
+                    + "PRIMARY KEY (person_id, spouse_id))");
+            statement.execute("CREATE TABLE IF NOT EXISTS child (parent_id VARCHAR, child_id VARCHAR, "
+                    + "PRIMARY KEY (parent_id, child_id))");
+            statement.execute("CREATE INDEX IF NOT EXISTS child_by_child ON child (child_id)");
+            statement.execute("CREATE TABLE IF NOT EXISTS layout (id VARCHAR PRIMARY KEY, x DOUBLE, y DOUBLE)");
+        }
+        connection.commit();
+    }
+
+    @Override
+    public TreeContent loadAll(DoubleConsumer progress) throws IOException {
+        try {
+            int total = 0;
+            try (Statement statement = connection.createStatement();
+                 ResultSet rows = statement.executeQuery("SELECT COUNT(*) FROM person")) {
+                rows.next();
+                total = rows.getInt(1);
+            }
+
+            Map<String, Person> people = new LinkedHashMap<>(total * 4 / 3 + 1);
+            try (Statement statement = connection.createStatement();
+                 ResultSet rows = statement.executeQuery("SELECT * FROM person ORDER BY seq")) {
+                while (rows.next()) {
+                    Person person = readPerson(rows);
+                    people.put(person.getId(), person);
+                    if (progress != null && people.size() % PROGRESS_INTERVAL == 0) {
+                        progress.accept(0.9 * people.size() / Math.max(1, total));
+                    }
+                }
+            }
+            try (Statement statement = connection.createStatement();
+                 ResultSet rows = statement.executeQuery("SELECT person_id, spouse_id FROM spouse")) {
+                while (rows.next()) {
+                    Person person = people.get(rows.getString(1));
+                    if (person != null) {
+                        person.addSpouseId(rows.getString(2));
+                    }
+                }
+            }
+            try (Statement statement = connection.createStatement();
+                 ResultSet rows = statement.executeQuery("SELECT parent_id, child_id FROM child")) {
+                while (rows.next()) {
+                    Person person = people.get(rows.getString(1));
+                    if (person != null) {
+                        person.addChildId(rows.getString(2));
+                    }
+                }
+            }
+            Map<String, Position> layoutPositions = new HashMap<>();
+            try (Statement statement = connection.createStatement();
+                 ResultSet rows = statement.executeQuery("SELECT id, x, y FROM layout")) {
+                while (rows.next()) {
+                    String id = rows.getString(1);
+                    layoutPositions.put(id, new Position(rows.getDouble(2), rows.getDouble(3), id));
+                }
+            }
+            connection.commit();
+            if (progress != null) {
+                progress.accept(1.0);
+            }
+            return new TreeContent(new ArrayList<>(people.values()), layoutPositions);
+        } catch (SQLException e) {
+            throw failure("load the tree", e);
+        }
+    }
+
+    private static Person readPerson(ResultSet rows) throws SQLException {
+        return new Person(rows.getString("id"), rows.getString("name"), orEmpty(rows.getString("birth_date")),
+                orEmpty(rows.getString("death_date")), orEmpty(rows.getString("gender")), orEmpty(rows.getString("bio")),
+                orEmpty(rows.getString("occupation")), rows.getString("father_id"), rows.getString("mother_id"),
+                rows.getString("picture"), null, null);
+    }
+
+    private static String orEmpty(String value) {
+        return value != null ? value : "";
+    }
+
+    @Override
+    public void saveAll(FamilyTreeSnapshot snapshot) throws IOException {
+        try {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("DELETE FROM spouse");
+                statement.execute("DELETE FROM child");
+                statement.execute("DELETE FROM layout");
+                statement.execute("DELETE FROM person");
+            }
+            try (PreparedStatement insertPerson = connection.prepareStatement(
+                    "INSERT INTO person (id, name, birth_date, death_date, gender, bio, occupation, picture, father_id, mother_id) "
+                            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+                 PreparedStatement insertSpouse = connection.prepareStatement("INSERT INTO spouse VALUES (?, ?)");
+                 PreparedStatement insertChild = connection.prepareStatement("INSERT INTO child VALUES (?, ?)")) {
+                int pending = 0;
+                for (PersonRecord person : snapshot.getPeople()) {
+                    bindPerson(insertPerson, person);
+                    insertPerson.addBatch();
+                    addEdges(insertSpouse, person.id(), person.spouseIds());
+                    addEdges(insertChild, person.id(), person.childIds());
+                    if (++pending == BATCH_SIZE) {
+                        insertPerson.executeBatch();
+                        insertSpouse.executeBatch();
+                        insertChild.executeBatch();
+                        pending = 0;
+                    }
+                }
+                insertPerson.executeBatch();
+                insertSpouse.executeBatch();
+                insertChild.executeBatch();
+            }
+            try (PreparedStatement insertLayout = connection.prepareStatement("INSERT INTO layout VALUES (?, ?, ?)")) {
+                for (Map.Entry<String, Position> entry : snapshot.getLayoutPositions().entrySet()) {
+                    insertLayout.setString(1, entry.getKey());
+                    insertLayout.setDouble(2, entry.getValue().getX());
+                    insertLayout.setDouble(3, entry.getValue().getY());
+                    insertLayout.addBatch();
+                }
+                insertLayout.executeBatch();
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            rollback();
+            throw failure("save the tree", e);
+        }
+    }
+
+    private static void bindPerson(PreparedStatement statement, PersonRecord person) throws SQLException {
+        statement.setString(1, person.id());
+        statement.setString(2, person.name());
+        statement.setString(3, person.birthDate());
+        statement.setString(4, person.deathDate());
+        statement.setString(5, person.gender());
+        statement.setString(6, person.bio());
+        statement.setString(7, person.occupation());
+        statement.setString(8, person.profilePicturePath());
+        statement.setString(9, person.fatherId());
+        statement.setString(10, person.motherId());
+    }
+
+    private static void addEdges(PreparedStatement statement, String ownerId, Collection<String> targetIds) throws SQLException {
+        for (String targetId : targetIds) {
+            statement.setString(1, ownerId);
+            statement.setString(2, targetId);
+            statement.addBatch();
+        }
+    }
+
+    @Override
+    public void apply(TreeChange change) throws IOException {
+        if (change.reloaded()) {
+            throw new IllegalArgumentException("A reloaded tree has to be stored with saveAll");
+        }
+        try (PreparedStatement mergePerson = connection.prepareStatement(
+                "MERGE INTO person (id, name, birth_date, death_date, gender, bio, occupation, picture, father_id, mother_id) "
+                        + "KEY (id) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+             PreparedStatement deletePerson = connection.prepareStatement("DELETE FROM person WHERE id = ?");
+             PreparedStatement deleteSpouses = connection.prepareStatement("DELETE FROM spouse WHERE person_id = ?");
+             PreparedStatement deleteChildren = connection.prepareStatement("DELETE FROM child WHERE parent_id = ?");
+             PreparedStatement deleteLayout = connection.prepareStatement("DELETE FROM layout WHERE id = ?");
+             PreparedStatement insertSpouse = connection.prepareStatement("INSERT INTO spouse VALUES (?, ?)");
+             PreparedStatement insertChild = connection.prepareStatement("INSERT INTO child VALUES (?, ?)");
+             PreparedStatement mergeLayout = connection.prepareStatement("MERGE INTO layout KEY (id) VALUES (?, ?, ?)")) {
+            for (String id : change.removedIds()) {
+                for (PreparedStatement statement : List.of(deleteSpouses, deleteChildren, deleteLayout, deletePerson)) {
+                    statement.setString(1, id);
+                    statement.executeUpdate();
+                }
+            }
+            // Each updated record carries the person's full edge lists, so they are replaced wholesale
+            for (PersonRecord person : change.updatedPeople()) {
+                bindPerson(mergePerson, person);
+                mergePerson.executeUpdate();
+                deleteSpouses.setString(1, person.id());
+                deleteSpouses.executeUpdate();
+                deleteChildren.setString(1, person.id());
+                deleteChildren.executeUpdate();
+                addEdges(insertSpouse, person.id(), person.spouseIds());
+                addEdges(insertChild, person.id(), person.childIds());
+            }
+            insertSpouse.executeBatch();
+            insertChild.executeBatch();
+            for (Map.Entry<String, Position> entry : change.movedPositions().entrySet()) {
+                mergeLayout.setString(1, entry.getKey());
+                mergeLayout.setDouble(2, entry.getValue().getX());
+                mergeLayout.setDouble(3, entry.getValue().getY());
+                mergeLayout.executeUpdate();
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            rollback();
+            throw failure("store a change", e);
+        }
+    }
+
+    @Override
+    public boolean isIncremental() {
+        return true;
+    }
+
+    private void rollback() {
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            System.err.println("Rollback failed: " + e.getMessage());
+        }
+    }
+
+    private static IOException failure(String action, SQLException e) {
+        return new IOException("Could not " + action + ": " + e.getMessage(), e);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            throw failure("close the database", e);
+        }
+    }
+}
@@ -1,28 +1,53 @@
 package com.familytree;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.util.function.DoubleConsumer;
 
+/**
+ * Entry points for reading and writing whole trees. The storage format follows the file
+ * name; see {@link FamilyTreeRepository#forFile(File)}.
+ */
 public class JsonManager {
-    // We now build the Gson instance with the custom FamilyTreeDataAdapter
-    private static final Gson gson = new GsonBuilder()
-            .setPrettyPrinting()
-            .registerTypeAdapter(FamilyTreeData.class, new FamilyTreeDataAdapter())
-            .create();
 
     /**
      * Saves the current FamilyTreeData instance to a user-specified file.
+     * Files ending in .ftb are written in the binary format, .mv.db to an H2 database,
+     * anything else as JSON.
      * @param file The File object representing the save location.
      * @throws IOException if an I/O error occurs.
      */
     public static void saveTree(File file) throws IOException {
-        try (FileWriter writer = new FileWriter(file)) {
-            // Get the singleton instance to save its state
-            gson.toJson(FamilyTreeData.getInstance(), writer);
+        saveTree(file, false);
+    }
+
+    /**
+     * Saves the current FamilyTreeData instance, optionally without indentation.
+     * @param file The File object representing the save location.
+     * @param compact true to write compact (non-pretty) JSON.
+     * @throws IOException if an I/O error occurs.
+     */
+    public static void saveTree(File file, boolean compact) throws IOException {
+        FamilyTreeData data = FamilyTreeData.getInstance();
+        FamilyTreeSnapshot snapshot = data.snapshot();
+        if (compact && !BinaryTreeFormat.isBinaryTreeFile(file.getName()) && !H2TreeRepository.isDatabaseFile(file.getName())) {
+            new JsonTreeRepository(file, false).saveAll(snapshot);
+        } else {
+            saveSnapshot(snapshot, file);
+        }
+    }
+
+    /**
+     * Replaces the tree stored in {@code file} with a snapshot. Files are written to a temp
+     * file and renamed, databases replaced in one transaction, so readers and crashes only
+     * ever see the old or the new tree. Safe to call from any thread.
+     * @param snapshot The tree to write.
+     * @param file The target.
+     * @throws IOException if an I/O error occurs; the target is then left unchanged.
+     */
+    public static void saveSnapshot(FamilyTreeSnapshot snapshot, File file) throws IOException {
+        try (FamilyTreeRepository repository = FamilyTreeRepository.forFile(file)) {
+            repository.saveAll(snapshot);
         }
     }
 
@@ -33,11 +58,24 @@ public class JsonManager {
      * @throws IOException if an I/O error occurs.
      */
     public static FamilyTreeData loadTree(File file) throws IOException {
-        try (FileReader reader = new FileReader(file)) {
-            // The custom TypeAdapter will handle populating the singleton instance.
-            // We can now call fromJson directly and it will work as expected.
-            FamilyTreeData loadedData = gson.fromJson(reader, FamilyTreeData.class);
-            return loadedData;
+        FamilyTreeData data = FamilyTreeData.getInstance();
+        data.load(readTree(file, null));
+        return data;
+    }
+
+    /**
+     * Reads a tree file without touching the singleton, so it can run on a background thread.
+     * The format is detected from the content; older JSON shapes are migrated while reading.
+     * Large binary files are read lazily: bio, occupation and picture path stay in the mapped
+     * file until first accessed.
+     * @param file The File object representing the load location.
+     * @param progress Receives the fraction of the file read so far; may be null.
+     * @return The people and layout positions read from the file.
+     * @throws IOException if an I/O error occurs.
+     */
+    public static TreeContent readTree(File file, DoubleConsumer progress) throws IOException {
+        try (FamilyTreeRepository repository = FamilyTreeRepository.forReading(file)) {
+            return repository.loadAll(progress);
         }
     }
 }
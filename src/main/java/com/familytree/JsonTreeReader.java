@@ -0,0 +1,648 @@
+package com.familytree;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Streaming reader for JSON tree files. Persons and layout positions are read token by
+ * token straight into their final objects, without building a DOM.
+ *
+ * The shape of the file is recognised from its first tokens, and older shapes are
+ * migrated in the same pass:
+ * <ul>
+ *   <li>the current shape written by {@link JsonTreeWriter} ('formatVersion', 'people' array);</li>
+ *   <li>'people' as a map, repeated in 'personList' (and 'allPeople' when the model itself was
+ *       serialized); once 'people' has been read the repeats are skipped unparsed, and
+ *       duplicate ids within one list are skipped without being materialized;</li>
+ *   <li>the DTO shape with 'persons', 'dateOfBirth'/'dateOfDeath', M/F genders, 'photoBase64'
+ *       and a 'relationships' array;</li>
+ *   <li>a bare array of persons, optionally with 'parentIds', as written by {@link FamilyTreeIO}.</li>
+ * </ul>
+ * Embedded photos are decoded into the {@link PhotoStore} while streaming. Parent ids and relationship entries are resolved once every person is read.
+ * Large files are parsed in parallel chunks of whole person objects.
+ */
+public class JsonTreeReader {
+    private static final JsonFactory factory = new JsonFactory();
+
+    // Report progress every this many persons
+    private static final int PROGRESS_INTERVAL = 1000;
+
+    // Files from this size on are parsed in parallel chunks
+    private static final long PARALLEL_PARSE_BYTES = Long.getLong("familytree.parallelParseBytes", 8L << 20);
+    private static final int MIN_CHUNK_BYTES = 256 << 10;
+    private static final int MAX_CHUNK_BYTES = 16 << 20;
+
+    // Stands in for the part of the root object before a chunked array
+    private static final byte[] RESUME_PREFIX = "{\"\":0".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Links that legacy files store outside the persons, resolved after reading.
+     */
+    private static class Migration {
+        final File file;
+        final Map<String, List<String>> parentIds = new HashMap<>();
+        final List<String[]> relationships = new ArrayList<>();
+
+        Migration(File file) {
+            this.file = file;
+        }
+    }
+
+    /**
+     * State of one read: what has been found so far, and for large files the mapping the
+     * 'people' arrays are parsed from in chunks.
+     */
+    private static class Load {
+        final File file;
+        final long fileSize;
+        final DoubleConsumer progress;
+        final Map<String, Person> people = new LinkedHashMap<>();
+        final Map<String, Position> layoutPositions = new HashMap<>();
+        final Migration migration;
+        String shape;
+        ByteBuffer mapped;
+        // Whether a 'people' section was read; 'personList' and 'allPeople' only repeat it
+        boolean peopleRead;
+
+        Load(File file, DoubleConsumer progress) {
+            this.file = file;
+            this.fileSize = Math.max(1, file.length());
+            this.progress = progress;
+            this.migration = new Migration(file);
+        }
+    }
+
+    // The people of one chunk, parsed on a worker thread
+    private record Chunk(List<Person> people, Migration migration, int bytes) {
+    }
+
+    /**
+     * Reads a tree file.
+     *
+     * @param file     The file to read.
+     * @param progress Receives the fraction of the file read so far (0..1); may be null.
+     * @return The people and layout positions found in the file.
+     * @throws IOException if the file cannot be read, is not valid JSON, or was written by a newer version.
+     */
+    public static TreeContent read(File file, DoubleConsumer progress) throws IOException {
+        Load load = new Load(file, progress);
+        if (file.length() >= PARALLEL_PARSE_BYTES && file.length() <= Integer.MAX_VALUE
+                && ForkJoinPool.getCommonPoolParallelism() > 1) {
+            readChunked(load);
+        } else {
+            try (JsonParser parser = factory.createParser(file)) {
+                JsonToken first = parser.nextToken();
+                if (first == JsonToken.START_ARRAY) {
+                    load.shape = "person list";
+                    readPeople(parser, first, load);
+                } else {
+                    expect(first, JsonToken.START_OBJECT, parser);
+                    readSections(parser, load, 0);
+                }
+            }
+        }
+
+        migrateLinks(load.people, load.migration);
+        if (!("version " + JsonTreeWriter.FORMAT_VERSION).equals(load.shape)) {
+            System.out.println("Migrated " + load.people.size() + " people from the "
+                    + (load.shape != null ? load.shape : "unversioned") + " format of " + file.getName());
+        }
+        if (progress != null) {
+            progress.accept(1.0);
+        }
+        return new TreeContent(new ArrayList<>(load.people.values()), load.layoutPositions);
+    }
+
+    /**
+     * Reads the fields of the root object. In chunked mode it stops at a 'people' array and
+     * returns the array's offset in the file ({@code base} is the file offset of the parser's
+     * input); otherwise it reads to the end and returns -1.
+     */
+    private static long readSections(JsonParser parser, Load load, long base) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String section = parser.currentName();
+            JsonToken token = parser.nextToken();
+            switch (section) {
+                case "formatVersion" -> {
+                    int version = parser.getValueAsInt();
+                    if (version > JsonTreeWriter.FORMAT_VERSION) {
+                        throw new IOException(load.file.getName() + " was written in format version " + version
+                                + "; this version reads up to " + JsonTreeWriter.FORMAT_VERSION);
+                    }
+                    load.shape = "version " + version;
+                }
+                case "people", "personList", "allPeople", "persons" -> {
+                    if (load.peopleRead && ("personList".equals(section) || "allPeople".equals(section))) {
+                        // Legacy copies of 'people': skipped before any of them is parsed,
+                        // which also keeps them away from the parallel chunk parsers
+                        parser.skipChildren();
+                        continue;
+                    }
+                    load.peopleRead |= "people".equals(section);
+                    if (load.shape == null) {
+                        load.shape = "persons".equals(section) ? "DTO" : "people map";
+                    }
+                    if (token == JsonToken.START_ARRAY && load.mapped != null) {
+                        return base + parser.currentTokenLocation().getByteOffset();
+                    }
+                    readPeople(parser, token, load);
+                }
+                case "layoutPositions" -> readPositions(parser, token, load.layoutPositions);
+                case "relationships" -> readRelationships(parser, token, load.migration);
+                default -> parser.skipChildren();
+            }
+        }
+        return -1;
+    }
+
+    private static void readPeople(JsonParser parser, JsonToken token, Load load) throws IOException {
+        if (token == JsonToken.START_OBJECT) {
+            // Map form: { "<id>": { person }, ... }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                parser.nextToken();
+                addPerson(parser, load);
+            }
+        } else if (token == JsonToken.START_ARRAY) {
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                addPerson(parser, load);
+            }
+        } else {
+            parser.skipChildren();
+        }
+    }
+
+    /**
+     * Parallel read of a large file. The file is mapped; the fields around the 'people'
+     * arrays are read as usual, while the arrays themselves are cut into chunks of whole
+     * person objects by a quick scan of the raw bytes and each chunk is parsed by its own
+     * parser on the common fork-join pool. The chunks are merged in file order. Every value
+     * is copied out of the mapping, which is released at the end so the file can be saved over.
+     */
+    private static void readChunked(Load load) throws IOException {
+        MappedByteBuffer buffer = MappedFiles.map(load.file);
+        load.mapped = buffer;
+        JsonParser parser = factory.createParser(new ByteBufferInputStream(buffer, 0, buffer.limit()));
+        try {
+            JsonToken first = parser.nextToken();
+            if (first == JsonToken.START_ARRAY) {
+                load.shape = "person list";
+                readArrayInChunks(load, (int) parser.currentTokenLocation().getByteOffset());
+                return;
+            }
+            expect(first, JsonToken.START_OBJECT, parser);
+            long base = 0;
+            long arrayStart;
+            while ((arrayStart = readSections(parser, load, base)) >= 0) {
+                int resume = readArrayInChunks(load, (int) arrayStart);
+                // Carry on after the array with a fresh parser, behind a dummy field that keeps the object open
+                parser.close();
+                parser = factory.createParser(new SequenceInputStream(new ByteArrayInputStream(RESUME_PREFIX),
+                        new ByteBufferInputStream(buffer, resume, buffer.limit())));
+                base = resume - RESUME_PREFIX.length;
+                expect(parser.nextToken(), JsonToken.START_OBJECT, parser);
+            }
+        } finally {
+            parser.close();
+            // No chunk parser is running any more (see readArrayInChunks)
+            load.mapped = null;
+            MappedFiles.unmap(buffer);
+        }
+    }
+
+    /**
+     * Splits the array starting at {@code arrayStart} into chunks, parses them in parallel
+     * and merges the results. Returns the offset just past the array. Returns or throws only
+     * once every chunk it started has finished, so the mapping can be released afterwards.
+     */
+    private static int readArrayInChunks(Load load, int arrayStart) throws IOException {
+        List<ForkJoinTask<Chunk>> chunks = new ArrayList<>();
+        try {
+            return readArrayInChunks(load, arrayStart, chunks);
+        } finally {
+            for (ForkJoinTask<Chunk> chunk : chunks) {
+                chunk.quietlyJoin();
+            }
+        }
+    }
+
+    private static int readArrayInChunks(Load load, int arrayStart, List<ForkJoinTask<Chunk>> chunks) throws IOException {
+        ByteBuffer buffer = load.mapped;
+        int chunkBytes = (int) Math.max(MIN_CHUNK_BYTES,
+                Math.min(MAX_CHUNK_BYTES, load.fileSize / (ForkJoinPool.getCommonPoolParallelism() * 8L)));
+        int position = arrayStart + 1;
+        int chunkStart = -1;
+        int chunkEnd = -1;
+        while (true) {
+            position = skipSeparators(buffer, position);
+            if (position >= buffer.limit()) {
+                throw new IOException(load.file.getName() + " ends inside the person list");
+            }
+            byte b = buffer.get(position);
+            if (b == ']') {
+                break;
+            }
+            if (b != '{') {
+                throw new IOException("Expected a person object at offset " + position + " of " + load.file.getName());
+            }
+            int end = skipObject(buffer, position, load.file);
+            if (chunkStart < 0) {
+                chunkStart = position;
+            }
+            chunkEnd = end;
+            position = end;
+            if (chunkEnd - chunkStart >= chunkBytes) {
+                chunks.add(submitChunk(load, chunkStart, chunkEnd));
+                chunkStart = -1;
+            }
+        }
+        if (chunkStart >= 0) {
+            chunks.add(submitChunk(load, chunkStart, chunkEnd));
+        }
+
+        long merged = arrayStart;
+        for (ForkJoinTask<Chunk> task : chunks) {
+            Chunk chunk;
+            try {
+                chunk = task.join();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            for (Person person : chunk.people()) {
+                load.people.putIfAbsent(person.getId(), person);
+            }
+            load.migration.parentIds.putAll(chunk.migration().parentIds);
+            merged += chunk.bytes();
+            if (load.progress != null) {
+                load.progress.accept(Math.min(1.0, (double) merged / load.fileSize));
+            }
+        }
+        return position + 1;
+    }
+
+    private static ForkJoinTask<Chunk> submitChunk(Load load, int start, int end) {
+        return ForkJoinPool.commonPool().submit(() -> {
+            try {
+                return parseChunk(load, start, end);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    // Worker: parses person objects [start, end) as if they were a JSON array of their own
+    private static Chunk parseChunk(Load load, int start, int end) throws IOException {
+        Migration migration = new Migration(load.file);
+        List<Person> people = new ArrayList<>();
+        Set<String> ids = new HashSet<>();
+        InputStream in = new SequenceInputStream(Collections.enumeration(List.of(
+                new ByteArrayInputStream(new byte[]{'['}),
+                new ByteBufferInputStream(load.mapped, start, end),
+                new ByteArrayInputStream(new byte[]{']'}))));
+        try (JsonParser parser = factory.createParser(in)) {
+            expect(parser.nextToken(), JsonToken.START_ARRAY, parser);
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                Person person = readPerson(parser, ids, migration);
+                if (person != null) {
+                    ids.add(person.getId());
+                    people.add(person);
+                }
+            }
+        }
+        return new Chunk(people, migration, end - start);
+    }
+
+    private static int skipSeparators(ByteBuffer buffer, int position) {
+        while (position < buffer.limit()) {
+            byte b = buffer.get(position);
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t' && b != ',') {
+                return position;
+            }
+            position++;
+        }
+        return position;
+    }
+
+    /**
+     * Returns the offset just past the object starting at {@code start}, tracking nesting and
+     * skipping string contents (so braces inside names or bios do not count).
+     */
+    private static int skipObject(ByteBuffer buffer, int start, File file) throws IOException {
+        int depth = 0;
+        boolean inString = false;
+        for (int i = start; i < buffer.limit(); i++) {
+            byte b = buffer.get(i);
+            if (inString) {
+                if (b == '\\') {
+                    i++;
+                } else if (b == '"') {
+                    inString = false;
+                }
+            } else if (b == '"') {
+                inString = true;
+            } else if (b == '{' || b == '[') {
+                depth++;
+            } else if ((b == '}' || b == ']') && --depth == 0) {
+                return i + 1;
+            }
+        }
+        throw new IOException(file.getName() + " ends inside a person object");
+    }
+
+    private static void readPositions(JsonParser parser, JsonToken token, Map<String, Position> layoutPositions) throws IOException {
+        if (token != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String personId = parser.currentName();
+            parser.nextToken();
+            Position position = readPosition(parser);
+            if (position != null) {
+                layoutPositions.put(personId, position);
+            }
+        }
+    }
+
+    // Legacy [{ "fromId": ..., "toId": ..., "type": ... }, ...]
+    private static void readRelationships(JsonParser parser, JsonToken token, Migration migration) throws IOException {
+        if (token != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            String fromId = null;
+            String toId = null;
+            String type = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                switch (field) {
+                    case "fromId" -> fromId = parser.getValueAsString();
+                    case "toId" -> toId = parser.getValueAsString();
+                    case "type" -> type = parser.getValueAsString();
+                    default -> parser.skipChildren();
+                }
+            }
+            if (fromId != null && toId != null && type != null) {
+                migration.relationships.add(new String[]{fromId, toId, type});
+            }
+        }
+    }
+
+    private static void addPerson(JsonParser parser, Load load) throws IOException {
+        Person person = readPerson(parser, load.people.keySet(), load.migration);
+        if (person != null) {
+            load.people.put(person.getId(), person);
+            if (load.progress != null && load.people.size() % PROGRESS_INTERVAL == 0) {
+                load.progress.accept(Math.min(1.0, (double) parser.currentLocation().getByteOffset() / load.fileSize));
+            }
+        }
+    }
+
+    /**
+     * Reads one person object; the parser must be positioned on its START_OBJECT.
+     * Returns null (having skipped the rest of the object) if the id is already known.
+     */
+    static Person readPerson(JsonParser parser, Set<String> knownIds) throws IOException {
+        return readPerson(parser, knownIds, null);
+    }
+
+    private static Person readPerson(JsonParser parser, Set<String> knownIds, Migration migration) throws IOException {
+        String id = null;
+        String name = null;
+        String birthDate = "";
+        String deathDate = "";
+        String gender = "";
+        String bio = "";
+        String occupation = "";
+        String profilePicturePath = null;
+        String fatherId = null;
+        String motherId = null;
+        Set<String> spouseIds = new HashSet<>();
+        Set<String> childIds = new HashSet<>();
+        List<String> parentIds = null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken token = parser.nextToken();
+            switch (field) {
+                case "id" -> {
+                    id = parser.getValueAsString();
+                    if (knownIds.contains(id)) {
+                        skipRestOfObject(parser);
+                        return null;
+                    }
+                }
+                case "name" -> name = parser.getValueAsString();
+                case "birthDate", "dateOfBirth" -> birthDate = parser.getValueAsString();
+                case "deathDate", "dateOfDeath" -> deathDate = parser.getValueAsString();
+                case "gender" -> gender = parser.getValueAsString();
+                case "bio" -> bio = parser.getValueAsString();
+                case "occupation" -> occupation = parser.getValueAsString();
+                case "profilePicturePath" -> profilePicturePath = parser.getValueAsString();
+                case "fatherId" -> fatherId = parser.getValueAsString();
+                case "motherId" -> motherId = parser.getValueAsString();
+                case "spouseIds" -> readStrings(parser, token, spouseIds);
+                case "childIds" -> readStrings(parser, token, childIds);
+                case "parentIds" -> {
+                    Set<String> parents = new LinkedHashSet<>();
+                    readStrings(parser, token, parents);
+                    parentIds = new ArrayList<>(parents);
+                }
+                case "photoBase64" -> {
+                    if (migration != null && token == JsonToken.VALUE_STRING) {
+                        profilePicturePath = extractPhoto(parser);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                default -> parser.skipChildren();
+            }
+        }
+        if (id == null) {
+            return null;
+        }
+        if (migration != null) {
+            gender = migrateGender(gender);
+            if (parentIds != null && !parentIds.isEmpty()) {
+                migration.parentIds.put(id, parentIds);
+            }
+        }
+        return new Person(id, name, birthDate, deathDate, gender, bio, occupation, fatherId, motherId,
+                profilePicturePath, spouseIds, childIds);
+    }
+
+    // Old files used single letters
+    private static String migrateGender(String gender) {
+        if (gender == null) {
+            return "";
+        }
+        return switch (gender) {
+            case "M", "m" -> "Male";
+            case "F", "f" -> "Female";
+            default -> gender;
+        };
+    }
+
+    /**
+     * Decodes an embedded base64 photo straight from the parser into the photo store, so
+     * the image is never held as a String.
+     */
+    private static String extractPhoto(JsonParser parser) throws IOException {
+        if (parser.getTextLength() == 0) {
+            return null;
+        }
+        return PhotoStore.getInstance().store(parser::readBinaryValue, "");
+    }
+
+    /**
+     * Turns parent id lists and relationship entries into father/mother and spouse ids.
+     * A parent's role follows their gender; otherwise the free slot is used, father first.
+     * The back links (child ids, mirrored spouses) are added by {@link FamilyTreeData#load}.
+     */
+    private static void migrateLinks(Map<String, Person> people, Migration migration) {
+        for (Map.Entry<String, List<String>> entry : migration.parentIds.entrySet()) {
+            Person child = people.get(entry.getKey());
+            for (String parentId : entry.getValue()) {
+                addParent(child, people.get(parentId));
+            }
+        }
+        for (String[] relationship : migration.relationships) {
+            Person from = people.get(relationship[0]);
+            Person to = people.get(relationship[1]);
+            if (from == null || to == null || from == to) {
+                continue;
+            }
+            String type = relationship[2].toLowerCase(Locale.ROOT);
+            if (type.startsWith("spouse")) {
+                from.addSpouseId(to.getId());
+                to.addSpouseId(from.getId());
+            } else if (type.startsWith("parent")) {
+                addParent(to, from);
+            } else if (type.startsWith("child")) {
+                addParent(from, to);
+            }
+        }
+    }
+
+    private static void addParent(Person child, Person parent) {
+        if (child == null || parent == null || child == parent
+                || parent.getId().equals(child.getFatherId()) || parent.getId().equals(child.getMotherId())) {
+            return;
+        }
+        String gender = parent.getGender();
+        if ("Male".equals(gender)) {
+            if (child.getFatherId() == null) {
+                child.setFatherId(parent.getId());
+            }
+        } else if ("Female".equals(gender)) {
+            if (child.getMotherId() == null) {
+                child.setMotherId(parent.getId());
+            }
+        } else if (child.getFatherId() == null) {
+            child.setFatherId(parent.getId());
+        } else if (child.getMotherId() == null) {
+            child.setMotherId(parent.getId());
+        }
+    }
+
+    // Skips the remaining fields of the current object, leaving the parser on its END_OBJECT
+    private static void skipRestOfObject(JsonParser parser) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            parser.nextToken();
+            parser.skipChildren();
+        }
+    }
+
+    private static void readStrings(JsonParser parser, JsonToken token, Set<String> target) throws IOException {
+        if (token != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            String value = parser.getValueAsString();
+            if (value != null) {
+                target.add(value);
+            }
+        }
+    }
+
+    /**
+     * Reads one position object; the parser must be positioned on its START_OBJECT.
+     */
+    static Position readPosition(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return null;
+        }
+        double x = 0;
+        double y = 0;
+        String id = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "x" -> x = parser.getValueAsDouble();
+                case "y" -> y = parser.getValueAsDouble();
+                case "id" -> id = parser.getValueAsString();
+                default -> parser.skipChildren();
+            }
+        }
+        return new Position(x, y, id);
+    }
+
+    // Reads [from, to) of a buffer without disturbing its position
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer, int from, int to) {
+            this.buffer = buffer.duplicate();
+            this.buffer.position(from).limit(to);
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, n);
+            return n;
+        }
+    }
+
+    private static void expect(JsonToken actual, JsonToken expected, JsonParser parser) throws IOException {
+        if (actual != expected) {
+            throw new IOException("Expected " + expected + " but found " + actual + " at " + parser.currentLocation());
+        }
+    }
+}
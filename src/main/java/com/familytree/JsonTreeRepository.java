@@ -0,0 +1,35 @@
+package com.familytree;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Tree stored as one JSON file (see {@link JsonTreeWriter} for the layout).
+ */
+public class JsonTreeRepository extends FileTreeRepository {
+    private final boolean pretty;
+
+    /**
+     * @param pretty Indent saved files; false writes the smaller, faster compact form.
+     */
+    public JsonTreeRepository(File file, boolean pretty) {
+        super(file);
+        this.pretty = pretty;
+    }
+
+    @Override
+    public TreeContent loadAll(DoubleConsumer progress) throws IOException {
+        return JsonTreeReader.read(file, progress);
+    }
+
+    @Override
+    protected void write(FamilyTreeSnapshot snapshot, File target) throws IOException {
+        JsonTreeWriter.write(snapshot, target, pretty);
+    }
+
+    @Override
+    protected String extension() {
+        return ".json";
+    }
+}
@@ -0,0 +1,118 @@
+package com.familytree;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming writer for JSON tree files. Each person is written exactly once:
+ *
+ * <pre>
+ * { "formatVersion": 2,
+ *   "people": [ { "id": ..., "name": ..., ... }, ... ],
+ *   "layoutPositions": { "&lt;id&gt;": { "x": ..., "y": ... }, ... } }
+ * </pre>
+ *
+ * {@link JsonTreeReader} reads this shape as well as the older one that stored
+ * 'people' as a map and repeated it in 'personList'.
+ */
+public class JsonTreeWriter {
+    public static final int FORMAT_VERSION = 2;
+
+    private static final JsonFactory factory = new JsonFactory();
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Writes a snapshot to a file.
+     *
+     * @param snapshot The tree to write.
+     * @param file     The target file; it is created or truncated.
+     * @param pretty   Indent the output; pass false for the smaller, faster compact form.
+     * @throws IOException if an I/O error occurs.
+     */
+    public static void write(FamilyTreeSnapshot snapshot, File file, boolean pretty) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE)) {
+            write(snapshot, out, pretty);
+        }
+    }
+
+    /**
+     * Writes a snapshot to a stream. The stream is flushed but not closed.
+     */
+    public static void write(FamilyTreeSnapshot snapshot, OutputStream out, boolean pretty) throws IOException {
+        try (JsonGenerator generator = factory.createGenerator(out, JsonEncoding.UTF8)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            if (pretty) {
+                generator.useDefaultPrettyPrinter();
+            }
+            generator.writeStartObject();
+            generator.writeNumberField("formatVersion", FORMAT_VERSION);
+
+            generator.writeArrayFieldStart("people");
+            for (PersonRecord person : snapshot.getPeople()) {
+                writePerson(generator, person);
+            }
+            generator.writeEndArray();
+
+            generator.writeObjectFieldStart("layoutPositions");
+            for (Map.Entry<String, Position> entry : snapshot.getLayoutPositions().entrySet()) {
+                generator.writeObjectFieldStart(entry.getKey());
+                generator.writeNumberField("x", entry.getValue().getX());
+                generator.writeNumberField("y", entry.getValue().getY());
+                generator.writeEndObject();
+            }
+            generator.writeEndObject();
+
+            generator.writeEndObject();
+        }
+    }
+
+    static void writePerson(JsonGenerator generator, PersonRecord person) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("id", person.id());
+        if (person.name() != null) {
+            generator.writeStringField("name", person.name());
+        }
+        writeField(generator, "birthDate", person.birthDate());
+        writeField(generator, "deathDate", person.deathDate());
+        writeField(generator, "gender", person.gender());
+        writeField(generator, "bio", person.bio());
+        writeField(generator, "occupation", person.occupation());
+        writeField(generator, "profilePicturePath", person.profilePicturePath());
+        writeField(generator, "fatherId", person.fatherId());
+        writeField(generator, "motherId", person.motherId());
+        writeIds(generator, "spouseIds", person.spouseIds());
+        writeIds(generator, "childIds", person.childIds());
+        generator.writeEndObject();
+    }
+
+    // Null and empty values are left out, as the reader defaults them
+    private static void writeField(JsonGenerator generator, String name, String value) throws IOException {
+        if (value != null && !value.isEmpty()) {
+            generator.writeStringField(name, value);
+        }
+    }
+
+    private static void writeIds(JsonGenerator generator, String name, List<String> ids) throws IOException {
+        if (ids.isEmpty()) {
+            return;
+        }
+        generator.writeArrayFieldStart(name);
+        for (String id : ids) {
+            generator.writeString(id);
+        }
+        generator.writeEndArray();
+    }
+}
@@ -0,0 +1,266 @@
+package com.familytree;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The layout positions of a {@link FamilyTreeData}. Coordinates are kept in plain x and y
+ * arrays, indexed by a dense slot per person, so moving someone (as a drag does on every
+ * pulse) writes two doubles instead of allocating a {@link Position}. Removal moves the last
+ * slot into the freed one, as {@link PersonStore} does. {@link Position}s are only created
+ * for callers that ask for one.
+ *
+ * The arrays are {@link SharedChunks}, so {@link #share()} can give a snapshot the current
+ * positions without copying them.
+ */
+public class LayoutStore {
+    private final Map<String, Integer> slotById = new HashMap<>();
+    private final SharedChunks<String[]> ids = new SharedChunks<>(new String[SharedChunks.CHUNK_SIZE], String[]::clone);
+    private final SharedChunks<double[]> xs = new SharedChunks<>(new double[SharedChunks.CHUNK_SIZE], double[]::clone);
+    private final SharedChunks<double[]> ys = new SharedChunks<>(new double[SharedChunks.CHUNK_SIZE], double[]::clone);
+    private int size;
+    private final Map<String, Position> mapView = new MapView();
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(String id) {
+        return id != null && slotById.containsKey(id);
+    }
+
+    /**
+     * The x coordinate of a person, or NaN if they have no position.
+     */
+    public double x(String id) {
+        Integer slot = id != null ? slotById.get(id) : null;
+        return slot != null ? xs.forRead(slot)[SharedChunks.offset(slot)] : Double.NaN;
+    }
+
+    /**
+     * The y coordinate of a person, or NaN if they have no position.
+     */
+    public double y(String id) {
+        Integer slot = id != null ? slotById.get(id) : null;
+        return slot != null ? ys.forRead(slot)[SharedChunks.offset(slot)] : Double.NaN;
+    }
+
+    /**
+     * A copy of a person's position, or null if they have none.
+     */
+    public Position get(String id) {
+        Integer slot = id != null ? slotById.get(id) : null;
+        return slot != null ? position(slot) : null;
+    }
+
+    /**
+     * Sets a person's position, adding them if they had none.
+     */
+    public void set(String id, double x, double y) {
+        Integer slot = slotById.get(id);
+        if (slot == null) {
+            slot = size++;
+            ids.forWrite(slot)[SharedChunks.offset(slot)] = id;
+            slotById.put(id, slot);
+        }
+        xs.forWrite(slot)[SharedChunks.offset(slot)] = x;
+        ys.forWrite(slot)[SharedChunks.offset(slot)] = y;
+    }
+
+    /**
+     * Removes a person's position by moving the last slot into theirs.
+     *
+     * @return Whether they had a position.
+     */
+    public boolean remove(String id) {
+        Integer slot = slotById.remove(id);
+        if (slot == null) {
+            return false;
+        }
+        int last = --size;
+        if (slot != last) {
+            String moved = idAt(last);
+            ids.forWrite(slot)[SharedChunks.offset(slot)] = moved;
+            xs.forWrite(slot)[SharedChunks.offset(slot)] = xs.forRead(last)[SharedChunks.offset(last)];
+            ys.forWrite(slot)[SharedChunks.offset(slot)] = ys.forRead(last)[SharedChunks.offset(last)];
+            slotById.put(moved, slot);
+        }
+        ids.forWrite(last)[SharedChunks.offset(last)] = null;
+        return true;
+    }
+
+    /**
+     * Replaces all positions.
+     */
+    public void setAll(Map<String, Position> positions) {
+        if (positions == mapView) {
+            return;
+        }
+        clear();
+        for (Map.Entry<String, Position> entry : positions.entrySet()) {
+            set(entry.getKey(), entry.getValue().getX(), entry.getValue().getY());
+        }
+    }
+
+    public void clear() {
+        ids.clear();
+        xs.clear();
+        ys.clear();
+        slotById.clear();
+        size = 0;
+    }
+
+    /**
+     * Read-only map view keyed by id, backed by this store. Each lookup creates a new
+     * {@link Position}.
+     */
+    public Map<String, Position> asMap() {
+        return mapView;
+    }
+
+    /**
+     * An immutable copy of all positions that shares this store's arrays; later changes
+     * to the store copy the chunks they touch instead. Costs one reference per
+     * {@link SharedChunks#CHUNK_SIZE} positions.
+     */
+    public Map<String, Position> share() {
+        return new SharedView(ids.share(), xs.share(), ys.share(), size);
+    }
+
+    private String idAt(int slot) {
+        return ids.forRead(slot)[SharedChunks.offset(slot)];
+    }
+
+    private Position position(int slot) {
+        int offset = SharedChunks.offset(slot);
+        return new Position(xs.forRead(slot)[offset], ys.forRead(slot)[offset], ids.forRead(slot)[offset]);
+    }
+
+    private class MapView extends AbstractMap<String, Position> {
+        private final Set<Entry<String, Position>> entries = new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, Position>> iterator() {
+                return new Iterator<>() {
+                    private int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < size;
+                    }
+
+                    @Override
+                    public Entry<String, Position> next() {
+                        if (next >= size) {
+                            throw new NoSuchElementException();
+                        }
+                        int slot = next++;
+                        return new SimpleImmutableEntry<>(idAt(slot), position(slot));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+
+        @Override
+        public Position get(Object key) {
+            return key instanceof String ? LayoutStore.this.get((String) key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && contains((String) key);
+        }
+
+        @Override
+        public Set<Entry<String, Position>> entrySet() {
+            return entries;
+        }
+    }
+
+    // Read by other threads: touches only the shared chunks, which are no longer written
+    private static final class SharedView extends AbstractMap<String, Position> {
+        private final Object[] ids;
+        private final Object[] xs;
+        private final Object[] ys;
+        private final int size;
+        // Slot by id, built by the first lookup
+        private Map<String, Integer> slotById;
+
+        SharedView(Object[] ids, Object[] xs, Object[] ys, int size) {
+            this.ids = ids;
+            this.xs = xs;
+            this.ys = ys;
+            this.size = size;
+        }
+
+        private final Set<Entry<String, Position>> entries = new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, Position>> iterator() {
+                return new Iterator<>() {
+                    private int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < size;
+                    }
+
+                    @Override
+                    public Entry<String, Position> next() {
+                        if (next >= size) {
+                            throw new NoSuchElementException();
+                        }
+                        Position position = position(next++);
+                        return new SimpleImmutableEntry<>(position.getId(), position);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+
+        private Position position(int slot) {
+            int chunk = slot >>> SharedChunks.SHIFT;
+            int offset = SharedChunks.offset(slot);
+            String id = ((String[]) ids[chunk])[offset];
+            return new Position(((double[]) xs[chunk])[offset], ((double[]) ys[chunk])[offset], id);
+        }
+
+        private synchronized Integer slotOf(Object key) {
+            if (slotById == null) {
+                slotById = new HashMap<>(size * 4 / 3 + 1);
+                for (int slot = 0; slot < size; slot++) {
+                    slotById.put(((String[]) ids[slot >>> SharedChunks.SHIFT])[SharedChunks.offset(slot)], slot);
+                }
+            }
+            return slotById.get(key);
+        }
+
+        @Override
+        public Position get(Object key) {
+            Integer slot = slotOf(key);
+            return slot != null ? position(slot) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return slotOf(key) != null;
+        }
+
+        @Override
+        public Set<Entry<String, Position>> entrySet() {
+            return entries;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.familytree;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Serves the heavy fields of persons (bio, occupation, picture path) from a mapped
+ * binary tree file. Fields are decoded when first asked for and kept in a bounded
+ * LRU cache, so resident memory follows what the user looks at rather than the file size.
+ *
+ * Snapshots keep the source and index of a lazy person instead of its fields, and writers
+ * read them through {@link #field(int, int)}, which bypasses the cache: a save visits every
+ * person once and would otherwise flush what the user is browsing.
+ *
+ * Persons keep the index they had in the file they were loaded from. When a save replaces
+ * that file (see {@link #replace}), the mapping is released before the move, which Windows
+ * requires, and the new file is mapped in its place; the source then looks each index up at
+ * the person's place in the new file. Only the fields of persons missing from the new file,
+ * or of every person if it is not a binary file, are copied into memory.
+ */
+final class LazyDetails {
+    static final int DEFAULT_CACHE_SIZE = Integer.getInteger("familytree.detailCacheSize", 2048);
+
+    record Details(String bio, String occupation, String profilePicturePath) {
+    }
+
+    /**
+     * Moves a written temp file over the mapped one.
+     */
+    interface Move {
+        void run() throws IOException;
+    }
+
+    // Guards every source, so that all sources of a file can be switched over at once
+    private static final Object lock = new Object();
+    // Sources still reading from a file; guarded by lock
+    private static final Set<LazyDetails> sources = Collections.newSetFromMap(new WeakHashMap<>());
+
+    private final File file;
+    private final int personCount;
+    private final Map<Integer, Details> cache;
+    // Guarded by lock. The file being read, null once every field is in kept
+    private BinaryTreeReader reader;
+    // Place of each original index in the file now mapped, -1 if it is not there; null while unchanged
+    private int[] slots;
+    // Fields of persons the mapped file no longer holds, by original index
+    private final Map<Integer, Details> kept = new HashMap<>();
+
+    LazyDetails(File file, BinaryTreeReader reader, int cacheSize) {
+        this.file = file.getAbsoluteFile();
+        this.reader = reader;
+        this.personCount = reader.personCount();
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Details> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        synchronized (lock) {
+            sources.add(this);
+        }
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    // Locked: snapshots and autosave read persons off the JavaFX thread
+    Details get(int index) {
+        synchronized (lock) {
+            Details details = kept.get(index);
+            if (details == null) {
+                details = cache.get(index);
+            }
+            if (details == null) {
+                details = decode(index);
+                cache.put(index, details);
+            }
+            return details;
+        }
+    }
+
+    /**
+     * Reads one field (a {@link BinaryTreeFormat} FIELD_ constant) without caching it.
+     */
+    String field(int index, int field) {
+        synchronized (lock) {
+            Details details = kept.get(index);
+            if (details != null) {
+                return switch (field) {
+                    case BinaryTreeFormat.FIELD_BIO -> details.bio();
+                    case BinaryTreeFormat.FIELD_OCCUPATION -> details.occupation();
+                    default -> details.profilePicturePath();
+                };
+            }
+            int[] refs = new int[BinaryTreeFormat.FIELD_COUNT];
+            reader.readRefs(slot(index), refs);
+            String value = reader.string(refs[field]);
+            return field == BinaryTreeFormat.FIELD_PICTURE ? value : orEmpty(value);
+        }
+    }
+
+    int cachedCount() {
+        synchronized (lock) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * Replaces {@code file} while sources may be reading from it. Their mappings are released,
+     * {@code move} puts the new file in place, and the sources read from the new file from then
+     * on. No source is read in between.
+     *
+     * @param written The persons in the order the new file stores them, if it is a binary tree
+     *                file; null if it is not.
+     * @throws IOException from the move; the sources then go back to the old file.
+     */
+    static void replace(File file, List<PersonRecord> written, Move move) throws IOException {
+        File target = file.getAbsoluteFile();
+        synchronized (lock) {
+            List<LazyDetails> affected = new ArrayList<>();
+            for (LazyDetails source : sources) {
+                if (source.file.equals(target) && source.reader != null) {
+                    affected.add(source);
+                }
+            }
+            List<int[]> nextSlots = new ArrayList<>();
+            for (LazyDetails source : affected) {
+                nextSlots.add(source.prepare(written));
+            }
+            for (LazyDetails source : affected) {
+                source.reader.close();
+                source.reader = null;
+            }
+            try {
+                move.run();
+            } catch (IOException e) {
+                for (LazyDetails source : affected) {
+                    try {
+                        source.reader = BinaryTreeReader.open(source.file);
+                    } catch (IOException reopen) {
+                        e.addSuppressed(reopen);
+                    }
+                }
+                throw e;
+            }
+            for (int i = 0; i < affected.size(); i++) {
+                LazyDetails source = affected.get(i);
+                if (nextSlots.get(i) != null) {
+                    source.reader = BinaryTreeReader.open(source.file);
+                    source.slots = nextSlots.get(i);
+                } else {
+                    sources.remove(source);
+                }
+            }
+        }
+    }
+
+    /**
+     * Works out where each person will be in the new file, and keeps the fields of those who
+     * will not be in it. Returns null, having kept everything, if the new file is not binary.
+     */
+    private int[] prepare(List<PersonRecord> written) {
+        int[] next = null;
+        if (written != null) {
+            next = new int[personCount];
+            Arrays.fill(next, -1);
+            for (int k = 0; k < written.size(); k++) {
+                PersonRecord record = written.get(k);
+                if (record.lazyDetails() == this) {
+                    next[record.lazyIndex()] = k;
+                }
+            }
+        }
+        for (int index = 0; index < personCount; index++) {
+            if ((next == null || next[index] < 0) && !kept.containsKey(index)) {
+                Details details = cache.get(index);
+                kept.put(index, details != null ? details : decode(index));
+            }
+        }
+        if (next == null) {
+            cache.clear();
+        }
+        return next;
+    }
+
+    private Details decode(int index) {
+        int[] refs = new int[BinaryTreeFormat.FIELD_COUNT];
+        reader.readRefs(slot(index), refs);
+        return new Details(orEmpty(reader.string(refs[BinaryTreeFormat.FIELD_BIO])),
+                orEmpty(reader.string(refs[BinaryTreeFormat.FIELD_OCCUPATION])),
+                reader.string(refs[BinaryTreeFormat.FIELD_PICTURE]));
+    }
+
+    private int slot(int index) {
+        return slots != null ? slots[index] : index;
+    }
+
+    private static String orEmpty(String value) {
+        return value != null ? value : "";
+    }
+}
@@ -0,0 +1,71 @@
+package com.familytree;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only memory mappings of tree files.
+ *
+ * A mapping normally lives until the garbage collector frees its buffer, and on Windows a
+ * mapped file cannot be replaced or deleted. Saving onto a file that was opened through a
+ * mapping would then fail, so readers release their mappings with {@link #unmap} as soon as
+ * they are done with them.
+ */
+final class MappedFiles {
+    // sun.misc.Unsafe.invokeCleaner, or null where the JDK does not offer it
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            System.err.println("Mapped files cannot be released early: " + e);
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private MappedFiles() {
+    }
+
+    /**
+     * Maps a whole file, which must be smaller than 2 GB. The mapping stays valid after the
+     * channel is closed.
+     */
+    static MappedByteBuffer map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file.getName() + " is larger than 2 GB");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Releases a mapping now instead of at the next garbage collection. Neither the buffer nor
+     * any view of it may be used afterwards: reading an unmapped buffer crashes the JVM.
+     */
+    static void unmap(MappedByteBuffer buffer) {
+        if (INVOKE_CLEANER == null || buffer == null) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            System.err.println("Could not release a mapped file: " + e);
+        }
+    }
+}
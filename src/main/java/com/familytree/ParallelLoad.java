@@ -0,0 +1,41 @@
+package com.familytree;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Splits index ranges of the load path (decoding, id resolution, linking) across the
+ * common fork-join pool. Small inputs run on the calling thread, where the overhead of
+ * forking would outweigh the work.
+ */
+final class ParallelLoad {
+    // Below this many items everything runs on the calling thread
+    static final int THRESHOLD = Integer.getInteger("familytree.parallelLoadThreshold", 20_000);
+
+    interface RangeTask {
+        void run(int from, int to);
+    }
+
+    private ParallelLoad() {
+    }
+
+    static boolean isParallel(int count) {
+        return count >= THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1;
+    }
+
+    /**
+     * Runs {@code task} over [0, count) in contiguous ranges, in parallel for large counts.
+     * Each range is handled by one thread, so state allocated per call of the task is
+     * private to that range. Returns once every range is done.
+     */
+    static void forRanges(int count, RangeTask task) {
+        if (!isParallel(count)) {
+            task.run(0, count);
+            return;
+        }
+        // A few ranges per worker, so an unlucky slow range does not hold up the rest
+        int ranges = Math.min(ForkJoinPool.getCommonPoolParallelism() * 4, Math.max(1, count / 1024));
+        IntStream.range(0, ranges).parallel()
+                .forEach(r -> task.run((int) ((long) count * r / ranges), (int) ((long) count * (r + 1) / ranges)));
+    }
+}
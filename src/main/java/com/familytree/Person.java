@@ -20,6 +20,10 @@ public class Person {
     private final Set<String> spouseIds;
     private final Set<String> childIds;
 
+    // Set when bio, occupation and picture path still live in a mapped binary file
+    private transient LazyDetails lazyDetails;
+    private transient int lazyIndex;
+
     // A simple constructor for creating new people
     public Person(String id, String name) {
         this.id = id;
@@ -71,13 +75,16 @@ public class Person {
         return gender;
     }
     public String getBio() {
-        return bio;
+        LazyDetails lazy = lazyDetails;
+        return lazy != null ? lazy.get(lazyIndex).bio() : bio;
     }
     public String getOccupation() {
-        return occupation;
+        LazyDetails lazy = lazyDetails;
+        return lazy != null ? lazy.get(lazyIndex).occupation() : occupation;
     }
     public String getProfilePicturePath() {
-        return profilePicturePath;
+        LazyDetails lazy = lazyDetails;
+        return lazy != null ? lazy.get(lazyIndex).profilePicturePath() : profilePicturePath;
     }
     public String getFatherId() {
         return fatherId;
@@ -106,12 +113,15 @@ public class Person {
         this.gender = gender;
     }
     public void setBio(String bio) {
+        detachLazyDetails();
         this.bio = bio;
     }
     public void setOccupation(String occupation) {
+        detachLazyDetails();
         this.occupation = occupation;
     }
     public void setProfilePicturePath(String profilePicturePath) {
+        detachLazyDetails();
         this.profilePicturePath = profilePicturePath;
     }
     public void setFatherId(String fatherId) {
@@ -121,6 +131,37 @@ public class Person {
         this.motherId = motherId;
     }
 
+    // Lazy loading: the heavy fields are read from the source until one of them is set
+    void attachLazyDetails(LazyDetails source, int index) {
+        this.lazyDetails = source;
+        this.lazyIndex = index;
+        this.bio = null;
+        this.occupation = null;
+        this.profilePicturePath = null;
+    }
+
+    LazyDetails getLazyDetails() {
+        return lazyDetails;
+    }
+
+    int getLazyIndex() {
+        return lazyIndex;
+    }
+
+    /**
+     * Copies the heavy fields out of the mapped file, e.g. before one of them is changed.
+     */
+    void detachLazyDetails() {
+        LazyDetails lazy = lazyDetails;
+        if (lazy != null) {
+            LazyDetails.Details details = lazy.get(lazyIndex);
+            this.bio = details.bio();
+            this.occupation = details.occupation();
+            this.profilePicturePath = details.profilePicturePath();
+            this.lazyDetails = null;
+        }
+    }
+
     // Relationship methods
     public void addSpouseId(String spouseId) {
         this.spouseIds.add(spouseId);
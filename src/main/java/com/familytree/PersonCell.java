@@ -1,22 +1,18 @@
 package com.familytree;
 
-import javafx.embed.swing.SwingFXUtils;
-import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.StackPane;
 import javafx.scene.shape.Circle;
 import javafx.scene.text.Text;
 
-import javax.imageio.ImageIO;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.util.Base64;
+import java.util.Objects;
 
 public class PersonCell extends StackPane {
-    private final Person person;
+    private static final int IMAGE_SIZE = 80;
+
+    private Person person;
     private ImageView imageView;
+    private String pictureReference;
 
     public PersonCell(Person person) {
         this.person = person;
@@ -28,16 +24,10 @@ public class PersonCell extends StackPane {
         clip.setCenterX(50);
         clip.setCenterY(40);
 
-        // Load the image from the file path
-        Image profileImage = loadImageFromFile(person.getProfilePicturePath());
-        if (profileImage == null) {
-            // Use a default image if no profile picture is set or file is not found
-            profileImage = new Image(getClass().getResourceAsStream("/imagess/default-profile.png"));
-        }
-
-        this.imageView = new ImageView(profileImage);
-        this.imageView.setFitWidth(80);
-        this.imageView.setFitHeight(80);
+        this.imageView = new ImageView();
+        showPicture();
+        this.imageView.setFitWidth(IMAGE_SIZE);
+        this.imageView.setFitHeight(IMAGE_SIZE);
         this.imageView.setClip(clip);
 
         Text nameText = new Text(person.getName());
@@ -49,22 +39,28 @@ public class PersonCell extends StackPane {
         getChildren().addAll(imageView, nameText);
     }
 
-    // Helper method to load image from file
-    private Image loadImageFromFile(String filePath) {
-        if (filePath != null && !filePath.isEmpty()) {
-            try {
-                return new Image(new FileInputStream(filePath));
-            } catch (FileNotFoundException e) {
-                System.err.println("Profile picture not found: " + filePath);
+    // Shows the thumbnail, or the shared placeholder until it has been decoded in the background
+    private void showPicture() {
+        String reference = person.getProfilePicturePath();
+        pictureReference = reference;
+        imageView.setImage(ThumbnailService.getInstance().get(reference, IMAGE_SIZE, image -> {
+            // The picture may have been changed again while this one was loading
+            if (Objects.equals(pictureReference, reference)) {
+                imageView.setImage(image);
             }
-        }
-        return null;
+        }));
     }
 
     public Person getPerson() {
         return person;
     }
 
+    // Shows another person in this cell, so cells scrolled out of view can be reused
+    public void setPerson(Person person) {
+        this.person = person;
+        updateCell();
+    }
+
     // You can add a method to update the cell's view if the person data changes
     public void updateCell() {
         // Update the name text
@@ -74,10 +70,6 @@ public class PersonCell extends StackPane {
         }
 
         // Update the image
-        Image newImage = loadImageFromFile(person.getProfilePicturePath());
-        if (newImage == null) {
-            newImage = new Image(getClass().getResourceAsStream("/imagess/default-profile.png"));
-        }
-        imageView.setImage(newImage);
+        showPicture();
     }
 }
\ No newline at end of file
@@ -17,19 +17,16 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.util.Optional;
-import java.util.Objects;
-import java.util.UUID;
 
 public class PersonDialog extends Dialog<Person> {
 
     private final Person person;
     private final FamilyTreeData data = FamilyTreeData.getInstance();
     private String selectedFilePath;
+    // Distinguishes "Remove Photo" from leaving the photo alone; both leave selectedFilePath null
+    private boolean photoChanged;
 
     public PersonDialog(Person person) {
         this.person = person;
@@ -87,13 +84,13 @@ public class PersonDialog extends Dialog<Person> {
         Label fatherLabel = new Label("Father:");
         ComboBox<Person> fatherComboBox = new ComboBox<>();
         fatherComboBox.setItems(data.getPersonList());
-        fatherComboBox.getSelectionModel().select(data.getPerson(person.getFatherId()));
+        fatherComboBox.getSelectionModel().select(data.getFather(person));
         fatherComboBox.setMaxWidth(Double.MAX_VALUE);
 
         Label motherLabel = new Label("Mother:");
         ComboBox<Person> motherComboBox = new ComboBox<>();
         motherComboBox.setItems(data.getPersonList());
-        motherComboBox.getSelectionModel().select(data.getPerson(person.getMotherId()));
+        motherComboBox.getSelectionModel().select(data.getMother(person));
         motherComboBox.setMaxWidth(Double.MAX_VALUE);
 
         // Children
@@ -129,12 +126,14 @@ public class PersonDialog extends Dialog<Person> {
             File file = fileChooser.showOpenDialog(getDialogPane().getScene().getWindow());
             if (file != null) {
                 selectedFilePath = file.getAbsolutePath();
+                photoChanged = true;
                 photoPathField.setText(selectedFilePath);
             }
         });
 
         removePhotoButton.setOnAction(e -> {
             selectedFilePath = null;
+            photoChanged = true;
             photoPathField.setText(null);
         });
 
@@ -174,59 +173,46 @@ public class PersonDialog extends Dialog<Person> {
         // Convert the result of the dialog to a Person object when Save is clicked
         setResultConverter(dialogButton -> {
             if (dialogButton == saveButtonType) {
-                // Update the person object with new data
-                person.setName(nameField.getText());
-                person.setBirthDate(birthDateField.getText());
-                person.setDeathDate(deathDateField.getText());
-                person.setGender(genderComboBox.getValue());
-                person.setBio(bioArea.getText());
-                person.setOccupation(occupationField.getText());
-
-                // Handle the profile picture
-                if (selectedFilePath != null) {
-                    try {
-                        Path sourcePath = Paths.get(selectedFilePath);
-                        Path destPath = Paths.get("data", "photos");
-                        if (!Files.exists(destPath)) {
-                            Files.createDirectories(destPath);
+                // Handle the profile picture (file I/O stays outside the model's write lock)
+                String picturePath = person.getProfilePicturePath();
+                if (photoChanged) {
+                    picturePath = null; // "Remove Photo"
+                    if (selectedFilePath != null) {
+                        try {
+                            // Stored once per distinct image, referenced by a path relative to the store
+                            picturePath = PhotoStore.getInstance().importFile(Paths.get(selectedFilePath));
+                        } catch (IOException e) {
+                            System.err.println("Failed to copy image file: " + e.getMessage());
+                            // Keep the old path if copy fails
+                            picturePath = person.getProfilePicturePath();
                         }
-                        String newFileName = UUID.randomUUID().toString() + "." + getFileExtension(selectedFilePath);
-                        Path newFilePath = destPath.resolve(newFileName);
-                        Files.copy(sourcePath, newFilePath, StandardCopyOption.REPLACE_EXISTING);
-                        person.setProfilePicturePath(newFilePath.toAbsolutePath().toString());
-                    } catch (IOException e) {
-                        System.err.println("Failed to copy image file: " + e.getMessage());
-                        // Keep the old path if copy fails
                     }
-                } else {
-                    // This handles the "Remove Photo" case
-                    person.setProfilePicturePath(null);
                 }
-
-                // Update father relationship
-                Person newFather = fatherComboBox.getValue();
-                if (newFather != null && !Objects.equals(person.getFatherId(), newFather.getId())) {
-                    if (person.getFatherId() != null) {
-                        data.getPerson(person.getFatherId()).removeChildId(person.getId());
-                    }
-                    person.setFatherId(newFather.getId());
-                    newFather.addChildId(person.getId());
-                } else if (newFather == null && person.getFatherId() != null) {
-                    data.getPerson(person.getFatherId()).removeChildId(person.getId());
-                    person.setFatherId(null);
-                }
-
-                // Update mother relationship
-                Person newMother = motherComboBox.getValue();
-                if (newMother != null && !Objects.equals(person.getMotherId(), newMother.getId())) {
-                    if (person.getMotherId() != null) {
-                        data.getPerson(person.getMotherId()).removeChildId(person.getId());
-                    }
-                    person.setMotherId(newMother.getId());
-                    newMother.addChildId(person.getId());
-                } else if (newMother == null && person.getMotherId() != null) {
-                    data.getPerson(person.getMotherId()).removeChildId(person.getId());
-                    person.setMotherId(null);
+                String newPicturePath = picturePath;
+
+                Runnable applyFields = () -> {
+                    person.setName(nameField.getText());
+                    person.setBirthDate(birthDateField.getText());
+                    person.setDeathDate(deathDateField.getText());
+                    person.setGender(genderComboBox.getValue());
+                    person.setBio(bioArea.getText());
+                    person.setOccupation(occupationField.getText());
+                    person.setProfilePicturePath(newPicturePath);
+                };
+                if (data.getPerson(person.getId()) == person) {
+                    // Apply all edits as one mutation so background readers never see half of them
+                    data.write(() -> {
+                        applyFields.run();
+                        // Update parent relationships; the data model keeps the child lists in sync
+                        data.setFather(person, fatherComboBox.getValue());
+                        data.setMother(person, motherComboBox.getValue());
+                        data.updatePerson(person);
+                    });
+                } else {
+                    // Not in the tree yet: the caller adds them, with their position and links, in one write
+                    applyFields.run();
+                    person.setFatherId(fatherComboBox.getValue() != null ? fatherComboBox.getValue().getId() : null);
+                    person.setMotherId(motherComboBox.getValue() != null ? motherComboBox.getValue().getId() : null);
                 }
 
                 return person;
@@ -235,16 +221,10 @@ public class PersonDialog extends Dialog<Person> {
         });
     }
 
-    private String getFileExtension(String filePath) {
-        String fileName = new File(filePath).getName();
-        int dotIndex = fileName.lastIndexOf('.');
-        return (dotIndex == -1) ? "" : fileName.substring(dotIndex + 1);
-    }
-
     private Image loadImageFromFile(String filePath) {
         if (filePath != null && !filePath.isEmpty()) {
             try {
-                return new Image(new FileInputStream(filePath));
+                return new Image(new FileInputStream(PhotoStore.getInstance().resolve(filePath)));
             } catch (FileNotFoundException e) {
                 System.err.println("Profile picture not found: " + filePath);
             }
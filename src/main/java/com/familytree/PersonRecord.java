@@ -0,0 +1,75 @@
+package com.familytree;
+
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Immutable copy of a {@link Person}, used by {@link FamilyTreeSnapshot}.
+ *
+ * Of a person whose bio, occupation and picture path are still in a mapped file, only the
+ * source and index are copied; the accessors read those fields from the file when a writer
+ * asks for them, so taking a snapshot does not pull them into memory.
+ */
+public record PersonRecord(
+        String id,
+        String name,
+        String birthDate,
+        String deathDate,
+        String gender,
+        String bio,
+        String occupation,
+        String profilePicturePath,
+        String fatherId,
+        String motherId,
+        List<String> spouseIds,
+        List<String> childIds,
+        LazyDetails lazyDetails,
+        int lazyIndex
+) {
+    public PersonRecord(String id, String name, String birthDate, String deathDate, String gender, String bio,
+                        String occupation, String profilePicturePath, String fatherId, String motherId,
+                        List<String> spouseIds, List<String> childIds) {
+        this(id, name, birthDate, deathDate, gender, bio, occupation, profilePicturePath, fatherId, motherId,
+                spouseIds, childIds, null, 0);
+    }
+
+    public static PersonRecord of(Person person) {
+        LazyDetails lazy = person.getLazyDetails();
+        if (lazy != null) {
+            return new PersonRecord(person.getId(), person.getName(), person.getBirthDate(), person.getDeathDate(),
+                    person.getGender(), null, null, null, person.getFatherId(), person.getMotherId(),
+                    List.copyOf(person.getSpouseIds()), List.copyOf(person.getChildIds()), lazy, person.getLazyIndex());
+        }
+        return new PersonRecord(person.getId(), person.getName(), person.getBirthDate(), person.getDeathDate(),
+                person.getGender(), person.getBio(), person.getOccupation(), person.getProfilePicturePath(),
+                person.getFatherId(), person.getMotherId(),
+                List.copyOf(person.getSpouseIds()), List.copyOf(person.getChildIds()));
+    }
+
+    @Override
+    public String bio() {
+        return lazyDetails != null ? lazyDetails.field(lazyIndex, BinaryTreeFormat.FIELD_BIO) : bio;
+    }
+
+    @Override
+    public String occupation() {
+        return lazyDetails != null ? lazyDetails.field(lazyIndex, BinaryTreeFormat.FIELD_OCCUPATION) : occupation;
+    }
+
+    @Override
+    public String profilePicturePath() {
+        return lazyDetails != null ? lazyDetails.field(lazyIndex, BinaryTreeFormat.FIELD_PICTURE) : profilePicturePath;
+    }
+
+    /**
+     * Creates a new, independent Person with the same data. Lazily read fields stay lazy.
+     */
+    public Person toPerson() {
+        Person person = new Person(id, name, birthDate, deathDate, gender, bio, occupation, fatherId, motherId,
+                profilePicturePath, new HashSet<>(spouseIds), new HashSet<>(childIds));
+        if (lazyDetails != null) {
+            person.attachLazyDetails(lazyDetails, lazyIndex);
+        }
+        return person;
+    }
+}
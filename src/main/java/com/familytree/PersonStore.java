@@ -0,0 +1,257 @@
+package com.familytree;
+
+import javafx.collections.ObservableListBase;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * The single collection of people in a {@link FamilyTreeData}, keyed by person id.
+ * Adding, replacing and removing a person are constant time: removal moves the last
+ * element into the freed slot instead of shifting the list. The store is itself a
+ * read-only {@link javafx.collections.ObservableList}, so controls such as ComboBoxes
+ * can show it directly and receive fine-grained add/set/remove changes.
+ *
+ * Next to each person the store keeps a {@link PersonRecord} of them, in the same slot, in
+ * {@link SharedChunks}. The model refreshes the records of the people a write touched when
+ * the write completes, so {@link #shareRecords()} can hand a snapshot every record without
+ * copying the unchanged ones.
+ */
+public class PersonStore extends ObservableListBase<Person> {
+    private final List<Person> items = new ArrayList<>();
+    private final Map<String, Integer> positionById = new HashMap<>();
+    private final Map<String, Person> mapView = new MapView();
+    // Record of the person in the same slot; null until the write adding them completes
+    private final SharedChunks<PersonRecord[]> records =
+            new SharedChunks<>(new PersonRecord[SharedChunks.CHUNK_SIZE], PersonRecord[]::clone);
+
+    @Override
+    public Person get(int index) {
+        return items.get(index);
+    }
+
+    @Override
+    public int size() {
+        return items.size();
+    }
+
+    public Person get(String id) {
+        Integer position = id != null ? positionById.get(id) : null;
+        return position != null ? items.get(position) : null;
+    }
+
+    public boolean containsId(String id) {
+        return id != null && positionById.containsKey(id);
+    }
+
+    /**
+     * Adds the person, or replaces the person already stored under the same id.
+     */
+    public void put(Person person) {
+        Integer position = positionById.get(person.getId());
+        beginChange();
+        if (position != null) {
+            Person old = items.set(position, person);
+            nextSet(position, old);
+        } else {
+            positionById.put(person.getId(), items.size());
+            items.add(person);
+            setRecordAt(items.size() - 1, null);
+            nextAdd(items.size() - 1, items.size());
+        }
+        endChange();
+    }
+
+    /**
+     * Removes the person with the given id by swapping the last person into their slot.
+     *
+     * @return the removed person, or null if the id was not stored.
+     */
+    public Person removeById(String id) {
+        Integer position = positionById.remove(id);
+        if (position == null) {
+            return null;
+        }
+        int last = items.size() - 1;
+        Person removed = items.get(position);
+        beginChange();
+        if (position != last) {
+            Person moved = items.get(last);
+            items.set(position, moved);
+            positionById.put(moved.getId(), position);
+            setRecordAt(position, recordAt(last));
+            nextSet(position, removed);
+            items.remove(last);
+            nextRemove(last, moved);
+        } else {
+            items.remove(last);
+            nextRemove(last, removed);
+        }
+        setRecordAt(last, null);
+        endChange();
+        return removed;
+    }
+
+    /**
+     * Replaces the whole content in one change.
+     */
+    @Override
+    public boolean setAll(Collection<? extends Person> people) {
+        List<Person> old = new ArrayList<>(items);
+        items.clear();
+        positionById.clear();
+        records.clear();
+        for (Person person : people) {
+            Integer position = positionById.get(person.getId());
+            if (position != null) {
+                items.set(position, person);
+            } else {
+                positionById.put(person.getId(), items.size());
+                items.add(person);
+            }
+        }
+        beginChange();
+        if (!old.isEmpty()) {
+            nextRemove(0, old);
+        }
+        if (!items.isEmpty()) {
+            nextAdd(0, items.size());
+        }
+        endChange();
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        setAll(Collections.emptyList());
+    }
+
+    /**
+     * Stores the current record of a person in the store.
+     */
+    public void setRecord(PersonRecord record) {
+        Integer position = positionById.get(record.id());
+        if (position != null) {
+            setRecordAt(position, record);
+        }
+    }
+
+    /**
+     * Makes a new record of everyone, e.g. after the whole tree was replaced or relinked.
+     */
+    public void rebuildRecords() {
+        records.clear();
+        int count = items.size();
+        // Fresh chunks, one range of slots each, which the ranges below then fill in place
+        for (int slot = 0; slot < count; slot += SharedChunks.CHUNK_SIZE) {
+            records.forWrite(slot);
+        }
+        ParallelLoad.forRanges(count, (from, to) -> {
+            for (int slot = from; slot < to; slot++) {
+                records.forRead(slot)[SharedChunks.offset(slot)] = PersonRecord.of(items.get(slot));
+            }
+        });
+    }
+
+    /**
+     * An immutable list of every person's record, in store order, that shares this
+     * store's record chunks. Costs one reference per {@link SharedChunks#CHUNK_SIZE} people.
+     */
+    public List<PersonRecord> shareRecords() {
+        return new SharedRecords(records.share(), items.size());
+    }
+
+    private PersonRecord recordAt(int slot) {
+        return records.forRead(slot)[SharedChunks.offset(slot)];
+    }
+
+    private void setRecordAt(int slot, PersonRecord record) {
+        records.forWrite(slot)[SharedChunks.offset(slot)] = record;
+    }
+
+    /**
+     * Read-only map view keyed by id, backed by this store.
+     */
+    public Map<String, Person> asMap() {
+        return mapView;
+    }
+
+    private class MapView extends AbstractMap<String, Person> {
+        private final Set<Entry<String, Person>> entries = new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, Person>> iterator() {
+                Iterator<Person> people = items.iterator();
+                return new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return people.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, Person> next() {
+                        Person person = people.next();
+                        return new SimpleImmutableEntry<>(person.getId(), person);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return items.size();
+            }
+        };
+
+        @Override
+        public Person get(Object key) {
+            return key instanceof String ? PersonStore.this.get((String) key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && containsId((String) key);
+        }
+
+        @Override
+        public Collection<Person> values() {
+            return PersonStore.this;
+        }
+
+        @Override
+        public Set<Entry<String, Person>> entrySet() {
+            return entries;
+        }
+    }
+
+    // Read by other threads: touches only the shared chunks, which are no longer written
+    private static final class SharedRecords extends AbstractList<PersonRecord> implements RandomAccess {
+        private final Object[] chunks;
+        private final int size;
+
+        SharedRecords(Object[] chunks, int size) {
+            this.chunks = chunks;
+            this.size = size;
+        }
+
+        @Override
+        public PersonRecord get(int index) {
+            Objects.checkIndex(index, size);
+            return ((PersonRecord[]) chunks[index >>> SharedChunks.SHIFT])[SharedChunks.offset(index)];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package com.familytree;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Content-addressed store for profile pictures.
+ *
+ * Each photo is stored once, as {@code <root>/<ab>/<sha-256>.<ext>}, where {@code ab} are
+ * the first two hex digits of the hash. Adding a picture that is already stored writes
+ * nothing new, however many people use it. People reference photos by their path relative
+ * to the root (e.g. {@code 3f/3fa1...c2.jpg}), so a tree and its photo folder can be moved
+ * together. Absolute paths from older trees still resolve as they are.
+ *
+ * Photos are hashed while they are copied, so importing reads the source once. Blobs no
+ * tree refers to any more are removed by {@link #collectGarbage(Collection, Instant)}.
+ * Since the store is shared by every tree, it keeps a registry of the blobs each tree file
+ * uses under {@code <root>/trees}, kept up to date with {@link #registerTree} and
+ * {@link #addTreeReferences}; collection keeps every blob a registered tree uses. Files
+ * other than blobs, such as pictures copied in by older versions, are never deleted.
+ *
+ * Collection may run while photos are being added. Storing a blob, or finding it already
+ * stored, and deleting one exclude each other, and storing marks the blob as just used; the
+ * sweep leaves blobs used since its references were gathered alone.
+ */
+public class PhotoStore {
+    private static final String TEMP_PREFIX = ".incoming-";
+    // Allows for file systems that keep modification times coarsely, e.g. FAT's two seconds
+    private static final long TIME_SLACK_MILLIS = 2000;
+    private static final String TREES_DIRECTORY = "trees";
+    private static final Pattern BLOB_DIRECTORY = Pattern.compile("[0-9a-f]{2}");
+    private static final Pattern BLOB = Pattern.compile("([0-9a-f]{64})(\\.[a-z0-9]{1,5})?");
+    private static final String REGISTRY_SUFFIX = ".refs";
+
+    /**
+     * Writes the content of a photo to the stream it is given.
+     */
+    public interface Content {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Outcome of a garbage collection pass.
+     */
+    public record GcResult(int removed, long bytesFreed, int kept, int trees) {
+    }
+
+    private static class Holder {
+        private static final PhotoStore INSTANCE = new PhotoStore(Paths.get(System.getProperty("familytree.photoDir", "data/photos")));
+    }
+
+    private final Path root;
+    // Read by store(), which may run on several threads; written per blob by the sweep
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // Guards the registry files
+    private final Object registryLock = new Object();
+
+    public PhotoStore(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+    }
+
+    /**
+     * The store under {@code data/photos} (or the {@code familytree.photoDir} property).
+     */
+    public static PhotoStore getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Adds a picture file to the store.
+     *
+     * @return The reference to store in {@link Person#setProfilePicturePath}.
+     */
+    public String importFile(Path source) throws IOException {
+        if (source.toAbsolutePath().normalize().startsWith(root)) {
+            return toReference(source.toString()); // Already one of ours
+        }
+        return store(out -> Files.copy(source, out), extensionOf(source.getFileName().toString()));
+    }
+
+    /**
+     * Adds a picture whose bytes are produced by {@code content}, e.g. decoded from a file
+     * being read. Safe to call from several threads.
+     *
+     * @param extension File extension without the dot, or empty if unknown.
+     * @return The reference to store in {@link Person#setProfilePicturePath}.
+     */
+    public String store(Content content, String extension) throws IOException {
+        Files.createDirectories(root);
+        Path temp = Files.createTempFile(root, TEMP_PREFIX, ".tmp");
+        try {
+            MessageDigest digest = sha256();
+            try (OutputStream out = new DigestOutputStream(Files.newOutputStream(temp), digest)) {
+                content.writeTo(out);
+            }
+            String hash = HexFormat.of().formatHex(digest.digest());
+            String reference = hash.substring(0, 2) + "/" + hash + (extension.isEmpty() ? "" : "." + extension);
+            Path target = root.resolve(reference);
+            lock.readLock().lock();
+            try {
+                if (Files.exists(target)) {
+                    // Counts as new for a sweep that gathered its references before this call
+                    Files.setLastModifiedTime(target, FileTime.from(Instant.now()));
+                } else {
+                    Files.createDirectories(target.getParent());
+                    // Identical content under the same name, so a concurrent writer of the same photo is harmless
+                    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            return reference;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Resolves a stored reference to a file. Absolute paths (older trees) are returned as
+     * they are; null or empty references give null.
+     */
+    public File resolve(String reference) {
+        if (reference == null || reference.isEmpty()) {
+            return null;
+        }
+        File file = new File(reference);
+        return file.isAbsolute() ? file : root.resolve(reference).toFile();
+    }
+
+    /**
+     * Turns a path inside the store into its relative reference; other paths are returned
+     * unchanged.
+     */
+    public String toReference(String path) {
+        if (path == null || path.isEmpty()) {
+            return path;
+        }
+        Path absolute = Paths.get(path).toAbsolutePath().normalize();
+        if (absolute.startsWith(root)) {
+            return root.relativize(absolute).toString().replace(File.separatorChar, '/');
+        }
+        return path;
+    }
+
+    /**
+     * Records that {@code treeFile} uses exactly the blobs among {@code references}, e.g.
+     * after it was opened or written in full.
+     */
+    public void registerTree(File treeFile, Collection<String> references) throws IOException {
+        synchronized (registryLock) {
+            writeRegistryEntry(treeFile, blobReferences(references));
+        }
+    }
+
+    /**
+     * Records that {@code treeFile} uses the blobs among {@code references} as well as those
+     * it was registered with, e.g. after pictures were added to it.
+     */
+    public void addTreeReferences(File treeFile, Collection<String> references) throws IOException {
+        Set<String> added = blobReferences(references);
+        if (added.isEmpty()) {
+            return;
+        }
+        synchronized (registryLock) {
+            Path entry = registryEntry(treeFile);
+            Set<String> all = Files.exists(entry) ? readRegistryEntry(entry) : new TreeSet<>();
+            if (all.addAll(added)) {
+                writeRegistryEntry(treeFile, all);
+            }
+        }
+    }
+
+    /**
+     * Deletes every blob that none of {@code references} and no registered tree uses.
+     * Absolute references into the store count as well. Registered trees whose file is gone
+     * keep their blobs, as the file may only have been moved.
+     *
+     * @param references Pictures in use that the registry may not know yet, such as those of
+     *                   the open tree.
+     * @param gatheredAt When {@code references} were gathered, before reading the first of
+     *                   them. Blobs stored or reused since then are kept, as a tree may
+     *                   already refer to them.
+     */
+    public GcResult collectGarbage(Collection<String> references, Instant gatheredAt) throws IOException {
+        Set<String> live = blobReferences(references);
+        int trees = 0;
+        Path registry = root.resolve(TREES_DIRECTORY);
+        if (Files.isDirectory(registry)) {
+            synchronized (registryLock) {
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(registry, "*" + REGISTRY_SUFFIX)) {
+                    for (Path entry : entries) {
+                        live.addAll(readRegistryEntry(entry));
+                        trees++;
+                    }
+                }
+            }
+        }
+        int[] counts = new int[2];
+        long[] freed = new long[1];
+        if (Files.isDirectory(root)) {
+            sweep(live, gatheredAt.toEpochMilli() - TIME_SLACK_MILLIS, counts, freed);
+        }
+        System.out.println("Photo store: removed " + counts[0] + " unreferenced photo(s), " + freed[0] + " bytes; kept " + counts[1]);
+        return new GcResult(counts[0], freed[0], counts[1], trees);
+    }
+
+    // Only looks at <ab>/<sha-256>.<ext>; anything else in the store is left alone
+    private void sweep(Set<String> live, long cutoff, int[] counts, long[] freed) throws IOException {
+        try (DirectoryStream<Path> directories = Files.newDirectoryStream(root,
+                path -> Files.isDirectory(path) && BLOB_DIRECTORY.matcher(path.getFileName().toString()).matches())) {
+            for (Path directory : directories) {
+                String prefix = directory.getFileName().toString();
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                    for (Path entry : entries) {
+                        String name = entry.getFileName().toString();
+                        Matcher blob = BLOB.matcher(name);
+                        if (!blob.matches() || !blob.group(1).startsWith(prefix) || !Files.isRegularFile(entry)) {
+                            continue;
+                        }
+                        if (live.contains(prefix + "/" + name)) {
+                            counts[1]++;
+                            continue;
+                        }
+                        lock.writeLock().lock();
+                        try {
+                            if (Files.getLastModifiedTime(entry).toMillis() >= cutoff) {
+                                counts[1]++; // Stored or reused after the references were gathered
+                            } else {
+                                long size = Files.size(entry);
+                                Files.delete(entry);
+                                counts[0]++;
+                                freed[0] += size;
+                            }
+                        } finally {
+                            lock.writeLock().unlock();
+                        }
+                    }
+                }
+                lock.writeLock().lock();
+                try (DirectoryStream<Path> rest = Files.newDirectoryStream(directory)) {
+                    if (!rest.iterator().hasNext()) {
+                        Files.delete(directory);
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        }
+    }
+
+    // The references that name a blob, relative to the root
+    private Set<String> blobReferences(Collection<String> references) {
+        Set<String> blobs = new TreeSet<>();
+        for (String reference : references) {
+            String relative = toReference(reference);
+            if (relative != null && !relative.isEmpty() && !new File(relative).isAbsolute()) {
+                blobs.add(relative);
+            }
+        }
+        return blobs;
+    }
+
+    // One file per tree, named after its path: the path on the first line, then a reference per line
+    private Path registryEntry(File treeFile) {
+        String path = treeFile.getAbsoluteFile().toPath().normalize().toString();
+        String name = HexFormat.of().formatHex(sha256().digest(path.getBytes(StandardCharsets.UTF_8)));
+        return root.resolve(TREES_DIRECTORY).resolve(name + REGISTRY_SUFFIX);
+    }
+
+    private void writeRegistryEntry(File treeFile, Set<String> references) throws IOException {
+        Path entry = registryEntry(treeFile);
+        Files.createDirectories(entry.getParent());
+        List<String> lines = new ArrayList<>(references.size() + 1);
+        lines.add(treeFile.getAbsoluteFile().toPath().normalize().toString());
+        lines.addAll(references);
+        Path temp = Files.createTempFile(entry.getParent(), TEMP_PREFIX, ".tmp");
+        try {
+            Files.write(temp, lines, StandardCharsets.UTF_8);
+            Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static Set<String> readRegistryEntry(Path entry) throws IOException {
+        List<String> lines = Files.readAllLines(entry, StandardCharsets.UTF_8);
+        return new TreeSet<>(lines.subList(Math.min(1, lines.size()), lines.size()));
+    }
+
+    private static String extensionOf(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        String extension = dot < 0 ? "" : fileName.substring(dot + 1).toLowerCase(Locale.ROOT);
+        return extension.matches("[a-z0-9]{1,5}") ? extension : "";
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.familytree;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Commits every {@link TreeChange} of the model to an incremental repository (the
+ * database backend) on a background thread, one transaction per change. Plays the role
+ * that {@link TreeJournal} plays for file backends, and like it holds back position-only
+ * changes until moves pause, so a drag is committed as one transaction.
+ * <p>
+ * When a change cannot be committed the whole tree is saved instead, once. If that fails
+ * too the database is behind the model: {@link #sync()} reports it, and the next
+ * successful full save catches the database up.
+ */
+public class RepositorySync {
+    // Moves are committed once no more have come for this long
+    private static final long MOVE_IDLE_MILLIS = 500;
+
+    private final FamilyTreeData data;
+    private final FamilyTreeRepository repository;
+    private final ScheduledThreadPoolExecutor executor;
+    private final Consumer<TreeChange> listener = this::enqueue;
+
+    // Only touched on the sync thread
+    // The first failure since the database last held the whole tree; null while it does
+    private IOException failure;
+    // Moves not committed yet: the last position of each person, and the version of the last move
+    private final Map<String, Position> pendingMoves = new LinkedHashMap<>();
+    private long pendingMovesVersion;
+    private long lastMoveNanos;
+    private boolean moveFlushScheduled;
+
+    private RepositorySync(FamilyTreeData data, FamilyTreeRepository repository) {
+        this.data = data;
+        this.repository = repository;
+        this.executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "tree-repository-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // close() commits pending moves itself
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Starts committing changes of {@code data} to {@code repository}, which must already
+     * hold the current tree. The repository is closed by {@link #close()}.
+     */
+    public static RepositorySync start(FamilyTreeData data, FamilyTreeRepository repository) {
+        RepositorySync sync = new RepositorySync(data, repository);
+        data.addChangeListener(sync.listener);
+        return sync;
+    }
+
+    // Called by the model with its write lock held: queue and return
+    private void enqueue(TreeChange change) {
+        executor.execute(() -> {
+            if (change.reloaded()) {
+                // The full save covers earlier moves too
+                pendingMoves.clear();
+                saveAllAfter(null);
+            } else if (change.updatedPeople().isEmpty() && change.removedIds().isEmpty()) {
+                queueMoves(change);
+            } else {
+                flushMoves();
+                apply(change);
+            }
+        });
+    }
+
+    private void queueMoves(TreeChange change) {
+        pendingMoves.putAll(change.movedPositions());
+        pendingMovesVersion = change.version();
+        lastMoveNanos = System.nanoTime();
+        if (!moveFlushScheduled) {
+            moveFlushScheduled = true;
+            executor.schedule(this::flushMovesWhenIdle, MOVE_IDLE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flushMovesWhenIdle() {
+        long idleMillis = (System.nanoTime() - lastMoveNanos) / 1_000_000;
+        if (!pendingMoves.isEmpty() && idleMillis < MOVE_IDLE_MILLIS && !executor.isShutdown()) {
+            executor.schedule(this::flushMovesWhenIdle, MOVE_IDLE_MILLIS - idleMillis, TimeUnit.MILLISECONDS);
+            return;
+        }
+        moveFlushScheduled = false;
+        flushMoves();
+    }
+
+    // Commits the held-back moves as one change, ahead of whatever comes next
+    private void flushMoves() {
+        if (!pendingMoves.isEmpty()) {
+            apply(new TreeChange(pendingMovesVersion, List.of(), Set.of(), new LinkedHashMap<>(pendingMoves), false));
+            pendingMoves.clear();
+        }
+    }
+
+    private void apply(TreeChange change) {
+        try {
+            repository.apply(change);
+        } catch (IOException e) {
+            System.err.println("Could not store change " + change.version() + ", saving the whole tree: " + e.getMessage());
+            saveAllAfter(e);
+        }
+    }
+
+    // The current tree covers every change queued before it. Keeps the failure that made the
+    // full save necessary until one succeeds
+    private void saveAllAfter(IOException cause) {
+        if (failure == null) {
+            failure = cause;
+        }
+        try {
+            repository.saveAll(data.snapshot());
+            failure = null;
+        } catch (IOException e) {
+            System.err.println("Could not save the whole tree: " + e.getMessage());
+            if (failure == null) {
+                failure = e;
+            }
+        }
+    }
+
+    /**
+     * Replaces the repository's content with the current tree, in order with the queued changes.
+     */
+    public CompletableFuture<Void> saveAll() {
+        return CompletableFuture.runAsync(() -> {
+            pendingMoves.clear();
+            try {
+                repository.saveAll(data.snapshot());
+                failure = null;
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Waits until every queued change, held-back moves included, has been committed. If the
+     * database fell behind the model, the whole tree is saved once more; if that fails the
+     * first failure is thrown.
+     */
+    public void sync() throws IOException {
+        try {
+            executor.submit(() -> {
+                flushMoves();
+                if (failure != null) {
+                    saveAllAfter(null);
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+                return null;
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while storing changes", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not store changes: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Stops listening, commits what is queued and closes the repository.
+     */
+    public void close() {
+        data.removeChangeListener(listener);
+        executor.execute(() -> {
+            flushMoves();
+            try {
+                repository.close();
+            } catch (IOException e) {
+                System.err.println("Could not close the repository: " + e.getMessage());
+            }
+        });
+        executor.shutdown();
+        try {
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
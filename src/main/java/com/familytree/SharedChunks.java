@@ -0,0 +1,81 @@
+package com.familytree;
+
+import java.util.Arrays;
+import java.util.function.UnaryOperator;
+
+/**
+ * Growable array of slots kept in fixed-size chunks, which read-only copies can share.
+ * {@link #share()} hands out the current chunks at a cost of one reference per chunk;
+ * a shared chunk is copied the next time it is written, so the writer pays for what it
+ * changes afterwards and the copy never sees it.
+ *
+ * @param <A> The chunk type, an array such as {@code Object[]} or {@code double[]}.
+ */
+final class SharedChunks<A> {
+    static final int SHIFT = 10;
+    static final int CHUNK_SIZE = 1 << SHIFT;
+    private static final int MASK = CHUNK_SIZE - 1;
+
+    private final A empty;
+    private final UnaryOperator<A> copy;
+    private Object[] chunks = new Object[4];
+    // Whether a copy holds the chunk, which must then not be written in place
+    private boolean[] shared = new boolean[4];
+    private int chunkCount;
+
+    /**
+     * @param empty A chunk of {@link #CHUNK_SIZE} slots, copied to create new chunks.
+     * @param copy  Copies a chunk, e.g. {@code double[]::clone}.
+     */
+    SharedChunks(A empty, UnaryOperator<A> copy) {
+        this.empty = empty;
+        this.copy = copy;
+    }
+
+    static int offset(int slot) {
+        return slot & MASK;
+    }
+
+    @SuppressWarnings("unchecked")
+    A forRead(int slot) {
+        return (A) chunks[slot >>> SHIFT];
+    }
+
+    /**
+     * The chunk holding {@code slot}, private to this array. Grows the array as needed.
+     */
+    @SuppressWarnings("unchecked")
+    A forWrite(int slot) {
+        int chunk = slot >>> SHIFT;
+        while (chunk >= chunkCount) {
+            if (chunkCount == chunks.length) {
+                chunks = Arrays.copyOf(chunks, chunkCount * 2);
+                shared = Arrays.copyOf(shared, chunkCount * 2);
+            }
+            chunks[chunkCount++] = copy.apply(empty);
+        }
+        if (shared[chunk]) {
+            chunks[chunk] = copy.apply((A) chunks[chunk]);
+            shared[chunk] = false;
+        }
+        return (A) chunks[chunk];
+    }
+
+    /**
+     * The current chunks, for a read-only copy. They are not written again; read slot
+     * {@code i} as {@code chunks[i >>> SHIFT][offset(i)]}.
+     */
+    Object[] share() {
+        Arrays.fill(shared, 0, chunkCount, true);
+        return Arrays.copyOf(chunks, chunkCount);
+    }
+
+    /**
+     * Drops every chunk. Copies keep theirs.
+     */
+    void clear() {
+        chunks = new Object[4];
+        shared = new boolean[4];
+        chunkCount = 0;
+    }
+}
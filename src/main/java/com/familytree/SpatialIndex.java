@@ -0,0 +1,144 @@
+package com.familytree;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Uniform grid over the layout positions of people, answering "who is inside this
+ * rectangle" without looking at everyone. Each id lives in the square cell its position
+ * falls in; a query visits the cells overlapping the rectangle and checks the points in them.
+ */
+final class SpatialIndex {
+    private final double cellSize;
+    private final Map<Long, Set<String>> cells = new HashMap<>();
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    private static final class Entry {
+        long cell;
+        double x;
+        double y;
+    }
+
+    SpatialIndex(double cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    /**
+     * Adds an id at a position, or moves it there.
+     */
+    void put(String id, double x, double y) {
+        long cell = cellOf(x, y);
+        Entry entry = entries.get(id);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(id, entry);
+        } else if (entry.cell != cell) {
+            removeFromCell(id, entry.cell);
+        } else {
+            entry.x = x;
+            entry.y = y;
+            return;
+        }
+        entry.cell = cell;
+        entry.x = x;
+        entry.y = y;
+        cells.computeIfAbsent(cell, key -> new LinkedHashSet<>()).add(id);
+    }
+
+    void remove(String id) {
+        Entry entry = entries.remove(id);
+        if (entry != null) {
+            removeFromCell(id, entry.cell);
+        }
+    }
+
+    void clear() {
+        cells.clear();
+        entries.clear();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    boolean contains(String id) {
+        return entries.containsKey(id);
+    }
+
+    /**
+     * The indexed x position of an id, or NaN if it is not indexed.
+     */
+    double x(String id) {
+        Entry entry = entries.get(id);
+        return entry != null ? entry.x : Double.NaN;
+    }
+
+    /**
+     * The indexed y position of an id, or NaN if it is not indexed.
+     */
+    double y(String id) {
+        Entry entry = entries.get(id);
+        return entry != null ? entry.y : Double.NaN;
+    }
+
+    /**
+     * Whether the id is indexed at a position inside the rectangle (edges included).
+     */
+    boolean isInside(String id, double minX, double minY, double maxX, double maxY) {
+        Entry entry = entries.get(id);
+        return entry != null && entry.x >= minX && entry.x <= maxX && entry.y >= minY && entry.y <= maxY;
+    }
+
+    /**
+     * Passes every id positioned inside the rectangle (edges included) to {@code found}.
+     */
+    void query(double minX, double minY, double maxX, double maxY, Consumer<String> found) {
+        long minCellX = (long) Math.floor(minX / cellSize);
+        long maxCellX = (long) Math.floor(maxX / cellSize);
+        long minCellY = (long) Math.floor(minY / cellSize);
+        long maxCellY = (long) Math.floor(maxY / cellSize);
+        double spanned = (double) (maxCellX - minCellX + 1) * (maxCellY - minCellY + 1);
+        if (spanned > cells.size()) {
+            // Zoomed far out: fewer occupied cells than cells under the rectangle
+            for (Set<String> ids : cells.values()) {
+                collect(ids, minX, minY, maxX, maxY, found);
+            }
+            return;
+        }
+        for (long cx = minCellX; cx <= maxCellX; cx++) {
+            for (long cy = minCellY; cy <= maxCellY; cy++) {
+                Set<String> ids = cells.get(key(cx, cy));
+                if (ids != null) {
+                    collect(ids, minX, minY, maxX, maxY, found);
+                }
+            }
+        }
+    }
+
+    private void collect(Set<String> ids, double minX, double minY, double maxX, double maxY, Consumer<String> found) {
+        for (String id : ids) {
+            Entry entry = entries.get(id);
+            if (entry.x >= minX && entry.x <= maxX && entry.y >= minY && entry.y <= maxY) {
+                found.accept(id);
+            }
+        }
+    }
+
+    private void removeFromCell(String id, long cell) {
+        Set<String> ids = cells.get(cell);
+        if (ids != null && ids.remove(id) && ids.isEmpty()) {
+            cells.remove(cell);
+        }
+    }
+
+    private long cellOf(double x, double y) {
+        return key((long) Math.floor(x / cellSize), (long) Math.floor(y / cellSize));
+    }
+
+    private static long key(long cellX, long cellY) {
+        return (cellX << 32) | (cellY & 0xFFFFFFFFL);
+    }
+}
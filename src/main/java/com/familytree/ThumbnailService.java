@@ -0,0 +1,215 @@
+package com.familytree;
+
+import javafx.application.Platform;
+import javafx.embed.swing.SwingFXUtils;
+import javafx.scene.image.Image;
+
+import javax.imageio.ImageIO;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Profile picture thumbnails shared by all {@link PersonCell}s.
+ *
+ * Pictures are decoded at the size they are shown at, on background threads, so a cell
+ * shows the shared placeholder first and its photo once it is ready. Decoded thumbnails
+ * are kept in an LRU bounded by their pixel memory ({@code familytree.thumbnailCacheBytes},
+ * 64 MB by default). Each thumbnail is also written as a small PNG under
+ * {@code data/thumbnails}, keyed by the picture's path, size and modification time, so the
+ * next session skips decoding the full-size original. Several cells asking for the same
+ * picture share one decode.
+ */
+public class ThumbnailService {
+    private static final long MAX_CACHE_BYTES = Long.getLong("familytree.thumbnailCacheBytes", 64L << 20);
+    private static final int THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final String PLACEHOLDER = "/imagess/default-profile.png";
+
+    private static class Holder {
+        private static final ThumbnailService INSTANCE = new ThumbnailService(
+                Paths.get(System.getProperty("familytree.thumbnailDir", "data/thumbnails")));
+    }
+
+    private final Path diskCache;
+    private final ExecutorService executor;
+
+    // Guarded by this
+    private final LinkedHashMap<String, Image> memory = new LinkedHashMap<>(256, 0.75f, true);
+    private final Map<String, List<Consumer<Image>>> pending = new HashMap<>();
+    private final Map<Integer, Image> placeholders = new HashMap<>();
+    private long memoryBytes;
+
+    ThumbnailService(Path diskCache) {
+        this.diskCache = diskCache;
+        this.executor = Executors.newFixedThreadPool(THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "thumbnail-loader");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        });
+    }
+
+    public static ThumbnailService getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Returns the thumbnail of a picture if it is already in memory. Otherwise returns the
+     * placeholder and decodes the picture in the background; {@code onLoaded} then receives
+     * the thumbnail on the FX thread. Pictures that cannot be read stay on the placeholder.
+     *
+     * @param reference A {@link PhotoStore} reference or path; null for the placeholder.
+     * @param size      Width and height the picture is shown at.
+     */
+    public Image get(String reference, int size, Consumer<Image> onLoaded) {
+        File file = PhotoStore.getInstance().resolve(reference);
+        if (file == null) {
+            return placeholder(size);
+        }
+        String key = size + ":" + file.getAbsolutePath();
+        synchronized (this) {
+            Image cached = memory.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            List<Consumer<Image>> waiting = pending.get(key);
+            if (waiting != null) {
+                waiting.add(onLoaded);
+                return placeholder(size);
+            }
+            waiting = new ArrayList<>();
+            waiting.add(onLoaded);
+            pending.put(key, waiting);
+        }
+        executor.execute(() -> load(key, file, size));
+        return placeholder(size);
+    }
+
+    /**
+     * The default picture, decoded once per size.
+     */
+    public synchronized Image placeholder(int size) {
+        return placeholders.computeIfAbsent(size, s -> {
+            try (InputStream in = ThumbnailService.class.getResourceAsStream(PLACEHOLDER)) {
+                return new Image(in, s, s, true, true);
+            } catch (IOException e) {
+                throw new IllegalStateException("Missing " + PLACEHOLDER, e);
+            }
+        });
+    }
+
+    // Background thread
+    private void load(String key, File file, int size) {
+        Image image = null;
+        try {
+            image = decode(file, size);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not load picture " + file + ": " + e.getMessage());
+        }
+        List<Consumer<Image>> waiting;
+        synchronized (this) {
+            waiting = pending.remove(key);
+            if (image != null) {
+                remember(key, image);
+            }
+        }
+        if (image != null && waiting != null) {
+            Image loaded = image;
+            Platform.runLater(() -> waiting.forEach(callback -> callback.accept(loaded)));
+        }
+    }
+
+    private Image decode(File file, int size) throws IOException {
+        if (!file.isFile()) {
+            throw new IOException("not found");
+        }
+        Path thumbnail = diskCache.resolve(size + "/" + diskKey(file) + ".png");
+        if (Files.isRegularFile(thumbnail)) {
+            try (InputStream in = Files.newInputStream(thumbnail)) {
+                Image image = new Image(in);
+                if (!image.isError()) {
+                    return image;
+                }
+            }
+        }
+        Image image;
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            image = new Image(in, size, size, true, true);
+        }
+        if (image.isError()) {
+            throw new IOException(image.getException() != null ? image.getException().getMessage() : "not an image");
+        }
+        writeThumbnail(image, thumbnail);
+        return image;
+    }
+
+    // Best effort: a missing disk thumbnail only costs a decode next time
+    private static void writeThumbnail(Image image, Path thumbnail) {
+        try {
+            Files.createDirectories(thumbnail.getParent());
+            Path temp = Files.createTempFile(thumbnail.getParent(), "thumb", ".tmp");
+            try {
+                ImageIO.write(SwingFXUtils.fromFXImage(image, null), "png", temp.toFile());
+                Files.move(temp, thumbnail, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not cache thumbnail " + thumbnail + ": " + e.getMessage());
+        }
+    }
+
+    // Changes whenever the picture file does
+    private static String diskKey(File file) {
+        String identity = file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(identity.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    // Called with the lock held
+    private void remember(String key, Image image) {
+        Image previous = memory.put(key, image);
+        if (previous != null) {
+            memoryBytes -= bytes(previous);
+        }
+        memoryBytes += bytes(image);
+        Iterator<Image> eldest = memory.values().iterator();
+        while (memoryBytes > MAX_CACHE_BYTES && eldest.hasNext()) {
+            memoryBytes -= bytes(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    private static long bytes(Image image) {
+        return (long) image.getWidth() * (long) image.getHeight() * 4;
+    }
+
+    public synchronized int getCachedCount() {
+        return memory.size();
+    }
+
+    public synchronized long getCachedBytes() {
+        return memoryBytes;
+    }
+}
@@ -0,0 +1,21 @@
+package com.familytree;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What one top-level mutation of {@link FamilyTreeData} changed. Person records hold the
+ * full state of each touched person after the mutation, relationships included, so
+ * applying changes in order reproduces the tree.
+ *
+ * @param version         The model version after the mutation.
+ * @param updatedPeople   People that were added or modified.
+ * @param removedIds      People that were removed, together with their layout positions.
+ * @param movedPositions  New layout positions, keyed by person id.
+ * @param reloaded        The whole tree was replaced or relinked; the other fields are empty
+ *                        and listeners should start over from a snapshot.
+ */
+public record TreeChange(long version, List<PersonRecord> updatedPeople, Set<String> removedIds,
+                         Map<String, Position> movedPositions, boolean reloaded) {
+}
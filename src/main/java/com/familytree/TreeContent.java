@@ -0,0 +1,11 @@
+package com.familytree;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * People and layout positions read from a tree file, ready to be handed to
+ * {@link FamilyTreeData#load(TreeContent)}. Loaders build this off the JavaFX thread.
+ */
+public record TreeContent(List<Person> people, Map<String, Position> layoutPositions) {
+}
@@ -0,0 +1,48 @@
+package com.familytree;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Converts tree files between JSON and the binary format. The direction follows the
+ * source file's extension:
+ *
+ * <pre>
+ * java com.familytree.TreeFileConverter family_tree.json family_tree.ftb
+ * java com.familytree.TreeFileConverter family_tree.ftb family_tree.json
+ * </pre>
+ */
+public class TreeFileConverter {
+
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: TreeFileConverter <source.json|source.ftb> <target>");
+            System.exit(2);
+        }
+        File source = new File(args[0]);
+        File target = new File(args[1]);
+        try {
+            long start = System.nanoTime();
+            if (BinaryTreeFormat.isBinaryTreeFile(source.getName())) {
+                binaryToJson(source, target);
+            } else {
+                jsonToBinary(source, target);
+            }
+            System.out.printf("Converted %s to %s in %d ms (%d -> %d bytes)%n", source, target,
+                    (System.nanoTime() - start) / 1_000_000, source.length(), target.length());
+        } catch (IOException e) {
+            System.err.println("Conversion failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    public static void jsonToBinary(File jsonFile, File binaryFile) throws IOException {
+        TreeContent content = JsonTreeReader.read(jsonFile, null);
+        BinaryTreeWriter.write(FamilyTreeSnapshot.of(content), binaryFile);
+    }
+
+    public static void binaryToJson(File binaryFile, File jsonFile) throws IOException {
+        TreeContent content = BinaryTreeReader.read(binaryFile, null);
+        JsonTreeWriter.write(FamilyTreeSnapshot.of(content), jsonFile, true);
+    }
+}
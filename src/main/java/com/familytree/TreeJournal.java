@@ -0,0 +1,480 @@
+package com.familytree;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Append-only change journal kept next to a tree file ({@code family_tree.json.journal}).
+ *
+ * Every {@link TreeChange} is appended as one JSON object per line, holding the full
+ * records of the touched people, the removed ids and the moved positions. Replaying the
+ * entries in order on top of the tree file reproduces the latest state; replaying an entry
+ * twice is harmless, so a crash during a checkpoint loses nothing. A checkpoint rewrites
+ * the tree file through the {@link AutosaveService} and then drops the entries the saved
+ * version covers, keeping those written while it ran. It runs once edits pause for a
+ * while, after many entries, and when the journal is closed; only one runs at a time.
+ * A change that cannot be written starts one at once, and {@link #sync()} fails until a
+ * save covers that change.
+ *
+ * Changes that only move people, such as the frames of a drag, are held back and merged,
+ * keeping the last position of each person, until another kind of change comes or the
+ * moves pause. A drag then writes one entry instead of one per frame.
+ *
+ * Journal writes happen on a single background thread; the model listener only queues.
+ */
+public class TreeJournal {
+    public static final String SUFFIX = ".journal";
+
+    // Fold the journal into the tree file after this many entries
+    private static final int CHECKPOINT_ENTRIES = Integer.getInteger("familytree.journalCheckpointEntries", 1000);
+    // ... or once edits have paused for this long
+    private static final long CHECKPOINT_DELAY_MILLIS = Long.getLong("familytree.autosaveDelayMillis", 30_000);
+    // Moves are written once no more have come for this long
+    private static final long MOVE_IDLE_MILLIS = 500;
+
+    private static final JsonFactory factory = new JsonFactory();
+
+    private final FamilyTreeData data;
+    private final AutosaveService autosave;
+    private final File treeFile;
+    private final File journalFile;
+    private final ScheduledThreadPoolExecutor executor;
+    private final Consumer<TreeChange> listener = this::enqueue;
+
+    // Only touched on the journal thread
+    private FileChannel channel;
+    private final ByteArrayOutputStream entryBuffer = new ByteArrayOutputStream(4096);
+    // Model version and end offset of each entry in the file, oldest first
+    private final ArrayDeque<long[]> entries = new ArrayDeque<>();
+    private long lastChangeVersion;
+    // Version of the latest reload, which no entry describes; -1 once a save covers it
+    private long reloadVersion = -1;
+    // Version of the latest change that could not be written; -1 once a save covers it
+    private long unwrittenVersion = -1;
+    private CompletableFuture<AutosaveService.SaveResult> checkpointInFlight;
+    // An immediate checkpoint is running; the next is asked for when it completes
+    private boolean immediateInFlight;
+    // Moves not written yet: the last position of each person, and the version of the last move
+    private final Map<String, Position> pendingMoves = new LinkedHashMap<>();
+    private long pendingMovesVersion;
+    private long lastMoveNanos;
+    private boolean moveFlushScheduled;
+
+    private TreeJournal(FamilyTreeData data, AutosaveService autosave, File treeFile) throws IOException {
+        this.data = data;
+        this.autosave = autosave;
+        this.treeFile = treeFile;
+        this.journalFile = journalFileFor(treeFile);
+        this.channel = openChannel(journalFile.toPath());
+        this.executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "tree-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // close() writes pending moves itself
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    private static FileChannel openChannel(Path journal) throws IOException {
+        return FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    public static File journalFileFor(File treeFile) {
+        return new File(treeFile.getPath() + SUFFIX);
+    }
+
+    /**
+     * Starts journaling changes of {@code data} against {@code treeFile}, which must hold the
+     * tree as it was when the current journal (if any) was started. Entries left over from a
+     * previous session are folded into the tree file right away.
+     */
+    public static TreeJournal start(FamilyTreeData data, AutosaveService autosave, File treeFile) throws IOException {
+        TreeJournal journal = new TreeJournal(data, autosave, treeFile);
+        journal.lastChangeVersion = data.getVersion();
+        if (journal.channel.size() > 0) {
+            // Entries of an earlier session, already part of the model
+            journal.entries.add(new long[]{journal.lastChangeVersion, journal.channel.size()});
+            journal.checkpoint();
+        }
+        data.addChangeListener(journal.listener);
+        return journal;
+    }
+
+    /**
+     * Discards the journal of a tree file, e.g. before the file is rewritten from scratch.
+     */
+    public static void discard(File treeFile) throws IOException {
+        Files.deleteIfExists(journalFileFor(treeFile).toPath());
+    }
+
+    public File getTreeFile() {
+        return treeFile;
+    }
+
+    // Called by the model with its write lock held: queue and return
+    private void enqueue(TreeChange change) {
+        executor.execute(() -> {
+            lastChangeVersion = change.version();
+            if (change.reloaded()) {
+                // A replaced tree cannot be described entry by entry; the save covers earlier moves too
+                pendingMoves.clear();
+                reloadVersion = change.version();
+                requestCheckpoint(0);
+            } else if (change.updatedPeople().isEmpty() && change.removedIds().isEmpty()) {
+                queueMoves(change);
+            } else {
+                flushMoves();
+                append(change.version(), change.updatedPeople(), change.removedIds(), change.movedPositions());
+            }
+        });
+    }
+
+    private void queueMoves(TreeChange change) {
+        pendingMoves.putAll(change.movedPositions());
+        pendingMovesVersion = change.version();
+        lastMoveNanos = System.nanoTime();
+        if (!moveFlushScheduled) {
+            moveFlushScheduled = true;
+            executor.schedule(this::flushMovesWhenIdle, MOVE_IDLE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flushMovesWhenIdle() {
+        long idleMillis = (System.nanoTime() - lastMoveNanos) / 1_000_000;
+        if (!pendingMoves.isEmpty() && idleMillis < MOVE_IDLE_MILLIS && !executor.isShutdown()) {
+            executor.schedule(this::flushMovesWhenIdle, MOVE_IDLE_MILLIS - idleMillis, TimeUnit.MILLISECONDS);
+            return;
+        }
+        moveFlushScheduled = false;
+        flushMoves();
+    }
+
+    // Writes the held-back moves as one entry, ahead of whatever comes next
+    private void flushMoves() {
+        if (!pendingMoves.isEmpty()) {
+            append(pendingMovesVersion, List.of(), Set.of(), pendingMoves);
+            pendingMoves.clear();
+        }
+    }
+
+    private void append(long version, List<PersonRecord> people, Collection<String> removed, Map<String, Position> moved) {
+        try {
+            entryBuffer.reset();
+            try (JsonGenerator generator = factory.createGenerator(entryBuffer, JsonEncoding.UTF8)) {
+                generator.writeStartObject();
+                generator.writeNumberField("version", version);
+                if (!people.isEmpty()) {
+                    generator.writeArrayFieldStart("people");
+                    for (PersonRecord person : people) {
+                        JsonTreeWriter.writePerson(generator, person);
+                    }
+                    generator.writeEndArray();
+                }
+                if (!removed.isEmpty()) {
+                    generator.writeArrayFieldStart("removed");
+                    for (String id : removed) {
+                        generator.writeString(id);
+                    }
+                    generator.writeEndArray();
+                }
+                if (!moved.isEmpty()) {
+                    generator.writeObjectFieldStart("layoutPositions");
+                    for (Map.Entry<String, Position> entry : moved.entrySet()) {
+                        generator.writeObjectFieldStart(entry.getKey());
+                        generator.writeNumberField("x", entry.getValue().getX());
+                        generator.writeNumberField("y", entry.getValue().getY());
+                        generator.writeEndObject();
+                    }
+                    generator.writeEndObject();
+                }
+                generator.writeEndObject();
+            }
+            entryBuffer.write('\n');
+            // One write per entry, so a crash can only tear the last line
+            ByteBuffer bytes = ByteBuffer.wrap(entryBuffer.toByteArray());
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            entries.add(new long[]{version, channel.size()});
+            requestCheckpoint(entries.size() >= CHECKPOINT_ENTRIES ? 0 : CHECKPOINT_DELAY_MILLIS);
+        } catch (IOException e) {
+            // The change is missing from the journal until a save of the whole tree covers it
+            unwrittenVersion = version;
+            System.err.println("Journal write failed, saving the whole tree instead: " + e.getMessage());
+            try {
+                // A torn line would hide every entry after it from replay
+                channel.truncate(entries.isEmpty() ? 0 : entries.peekLast()[1]);
+            } catch (IOException truncate) {
+                System.err.println("Could not cut off the failed journal entry: " + truncate.getMessage());
+            }
+            requestCheckpoint(0);
+        }
+    }
+
+    /**
+     * Queues a checkpoint: the tree file is rewritten from a snapshot and the journal emptied.
+     */
+    public void checkpoint() {
+        executor.execute(() -> requestCheckpoint(0));
+    }
+
+    // Journal thread: asks for a save of the tree file, which drops the entries it covers
+    private void requestCheckpoint(long delayMillis) {
+        if (immediateInFlight) {
+            return;
+        }
+        CompletableFuture<AutosaveService.SaveResult> save = delayMillis == 0
+                ? autosave.save(treeFile) : autosave.saveLater(treeFile, delayMillis);
+        immediateInFlight = delayMillis == 0;
+        if (save != checkpointInFlight) {
+            checkpointInFlight = save;
+            save.whenComplete((result, error) -> {
+                // A save that finishes after close() changes nothing here; the next open replays the journal
+                if (!executor.isShutdown()) {
+                    executor.execute(() -> checkpointDone(save, result));
+                }
+            });
+        }
+    }
+
+    // Journal thread; result is null if the save failed or was cancelled
+    private void checkpointDone(CompletableFuture<AutosaveService.SaveResult> save, AutosaveService.SaveResult result) {
+        boolean latest = save == checkpointInFlight;
+        if (latest) {
+            immediateInFlight = false;
+        }
+        if (result != null) {
+            dropCovered(result.version());
+        }
+        if (!latest) {
+            return; // A later checkpoint is on its way
+        }
+        // Ask for the changes made while it ran; a reload or an unwritten change it missed cannot wait
+        if (result == null || result.version() < lastChangeVersion) {
+            boolean urgent = result != null && (reloadVersion > result.version() || unwrittenVersion > result.version());
+            requestCheckpoint(urgent ? 0 : CHECKPOINT_DELAY_MILLIS);
+        }
+    }
+
+    /**
+     * Drops the entries a save of {@code savedVersion} covers. Later entries are moved to a
+     * new journal file, which replaces the old one.
+     */
+    private void dropCovered(long savedVersion) {
+        if (reloadVersion <= savedVersion) {
+            reloadVersion = -1;
+        }
+        if (unwrittenVersion <= savedVersion) {
+            unwrittenVersion = -1;
+        }
+        long cut = 0;
+        while (!entries.isEmpty() && entries.peekFirst()[0] <= savedVersion) {
+            cut = entries.pollFirst()[1];
+        }
+        if (cut == 0) {
+            return;
+        }
+        try {
+            if (entries.isEmpty()) {
+                channel.truncate(0);
+            } else {
+                rotate(cut);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not drop saved journal entries: " + e.getMessage());
+        }
+    }
+
+    // Moves the entries from offset cut on to a new journal file
+    private void rotate(long cut) throws IOException {
+        Path journal = journalFile.toPath();
+        Path temp = journal.resolveSibling(journalFile.getName() + ".tmp");
+        try (FileChannel in = FileChannel.open(journal, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            for (long at = cut; at < size; ) {
+                at += in.transferTo(at, size - at, out);
+            }
+            out.force(false);
+        }
+        // Closed first: Windows cannot replace an open file
+        channel.close();
+        try {
+            Files.move(temp, journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            channel = openChannel(journal);
+        }
+        for (long[] entry : entries) {
+            entry[1] -= cut;
+        }
+    }
+
+    /**
+     * Forces all queued entries to disk and waits until they are there. This is what a
+     * "Save" costs while journaling: the size of the changes, not of the tree.
+     *
+     * @throws IOException if a change could not be written to the journal and no save has
+     *                     covered it yet; it is then only in memory. A save of the whole
+     *                     tree is already on its way.
+     */
+    public void sync() throws IOException {
+        try {
+            executor.submit(() -> {
+                flushMoves();
+                if (unwrittenVersion >= 0) {
+                    throw new IOException("some changes could not be written to " + journalFile.getName()
+                            + "; the whole tree is being saved instead");
+                }
+                channel.force(false);
+                return null;
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while syncing the journal", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not sync the journal: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Stops journaling and waits for queued entries to be written. With {@code fold}, a
+     * non-empty journal is first folded into the tree file, so a clean shutdown leaves a
+     * complete tree file and no journal behind. Without it the journal stays on disk and is
+     * replayed the next time the file is opened.
+     */
+    public void close(boolean fold) {
+        data.removeChangeListener(listener);
+        executor.execute(() -> {
+            try {
+                flushMoves();
+                if (fold && channel.size() > 0) {
+                    dropCovered(autosave.save(treeFile).join().version());
+                } else {
+                    // The model is about to change under us: drop the idle checkpoint, finish one in progress
+                    autosave.cancelDelayed(treeFile);
+                    if (checkpointInFlight != null && !checkpointInFlight.isCancelled()) {
+                        checkpointInFlight.exceptionally(error -> null).join();
+                    }
+                }
+                channel.force(false);
+                channel.close();
+                if (journalFile.length() == 0) {
+                    Files.deleteIfExists(journalFile.toPath());
+                }
+            } catch (IOException | CompletionException e) {
+                System.err.println("Could not close the journal: " + e.getMessage());
+            }
+        });
+        executor.shutdown();
+        try {
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Applies the journal of {@code treeFile}, if there is one, to content read from that file.
+     * Stops at the first incomplete entry, which is what a crash mid-write leaves behind.
+     *
+     * @return The recovered content; {@code content} itself when there is no journal.
+     */
+    public static TreeContent replay(File treeFile, TreeContent content) throws IOException {
+        File journal = journalFileFor(treeFile);
+        if (!journal.isFile() || journal.length() == 0) {
+            return content;
+        }
+        Map<String, Person> people = new LinkedHashMap<>();
+        for (Person person : content.people()) {
+            people.put(person.getId(), person);
+        }
+        Map<String, Position> layoutPositions = new HashMap<>(content.layoutPositions());
+
+        int entries = 0;
+        try (JsonParser parser = factory.createParser(journal)) {
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                Map<String, Person> updated = new LinkedHashMap<>();
+                Set<String> removed = new HashSet<>();
+                Map<String, Position> moved = new HashMap<>();
+                readEntry(parser, updated, removed, moved);
+                // Only apply complete entries
+                for (String id : removed) {
+                    people.remove(id);
+                    layoutPositions.remove(id);
+                }
+                people.putAll(updated);
+                layoutPositions.putAll(moved);
+                entries++;
+            }
+        } catch (JsonProcessingException e) {
+            System.err.println("Journal " + journal + " ends in an incomplete entry; recovered " + entries + " entries");
+        }
+        System.out.println("Replayed " + entries + " journal entries from " + journal);
+        return new TreeContent(new ArrayList<>(people.values()), layoutPositions);
+    }
+
+    private static void readEntry(JsonParser parser, Map<String, Person> updated, Set<String> removed,
+                                  Map<String, Position> moved) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken token = parser.nextToken();
+            if ("people".equals(field) && token == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    Person person = JsonTreeReader.readPerson(parser, Set.of());
+                    if (person != null) {
+                        updated.put(person.getId(), person);
+                    }
+                }
+            } else if ("removed".equals(field) && token == JsonToken.START_ARRAY) {
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    removed.add(parser.getValueAsString());
+                }
+            } else if ("layoutPositions".equals(field) && token == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String personId = parser.currentName();
+                    parser.nextToken();
+                    Position position = JsonTreeReader.readPosition(parser);
+                    if (position != null) {
+                        moved.put(personId, position);
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (parser.currentToken() != JsonToken.END_OBJECT) {
+            throw new JsonParseException(parser, "Incomplete journal entry");
+        }
+    }
+}
@@ -1,21 +1,31 @@
 package com.familytree;
 
-import javafx.beans.binding.Bindings;
-import javafx.beans.binding.DoubleBinding;
+import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
+import javafx.beans.property.ReadOnlyProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.geometry.BoundingBox;
+import javafx.geometry.Bounds;
 import javafx.geometry.Point2D;
-import javafx.scene.Group;
 import javafx.scene.control.Alert;
 import javafx.scene.control.ContextMenu;
 import javafx.scene.control.MenuItem;
+import javafx.scene.control.SeparatorMenuItem;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Pane;
 import javafx.scene.layout.Region;
-import javafx.scene.paint.Color;
-import javafx.scene.shape.Line;
+import javafx.scene.transform.Scale;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
@@ -27,22 +37,112 @@ import javafx.scene.control.Dialog;
 import javafx.scene.control.Label;
 import javafx.scene.layout.VBox;
 import javafx.scene.shape.Polyline;
+import javafx.stage.Stage;
 
 public class TreeVisualizer {
+    // Cells exist only for people within the visible area plus this margin (in screen pixels)
+    private static final double VIEW_MARGIN = 300;
+    // Upper bound on the people with a cell, however far the view is zoomed out
+    private static final int MAX_CELLS = Integer.getInteger("familytree.maxVisibleCells", 1500);
+    // Released cells and spouse groups kept for reuse
+    private static final int POOL_SIZE = 256;
+    // Size of a person cell and of a spouse group, in tree coordinates
+    private static final double CELL_WIDTH = 100;
+    private static final double CELL_HEIGHT = 120;
+    private static final double GROUP_WIDTH = 2 * CELL_WIDTH + 10;
 
     private final Pane visualizationPane;
+    // Holds the cells and lines. It follows the camera as a whole, so nodes sit at their
+    // layout positions in tree coordinates
+    private final Pane content = new Pane();
+    private final Scale zoom = new Scale(1, 1, 0, 0);
+    private final Camera camera;
     private final FamilyTreeData data = FamilyTreeData.getInstance();
     private final Map<String, javafx.scene.Node> nodeMap = new HashMap<>(); // Using Node to hold PersonCells or HBoxes
 
+    // Layout positions of everyone, cell or not
+    private final SpatialIndex index = new SpatialIndex(512);
+    // Positions that get a cell, in tree coordinates; null before the first draw
+    private Bounds drawnArea;
+    // People inside drawnArea left without a cell because of MAX_CELLS
+    private final Set<String> overflow = new HashSet<>();
+    // Top left corners of the nodes in the pane, by the first person of each, for finding
+    // the node under a dragged one; and the largest node size seen, which bounds the search
+    private final SpatialIndex nodeIndex = new SpatialIndex(512);
+    private double widestNode = GROUP_WIDTH;
+    private double tallestNode = CELL_HEIGHT;
+    private final Deque<PersonCell> freeCells = new ArrayDeque<>();
+    private final Deque<HBox> freeGroups = new ArrayDeque<>();
+
+    // Connection lines, kept out of the binding system, by relationship (the value is the
+    // line's slot in the layer), and the relationships drawn at each person
+    private final EdgeLayer edges = new EdgeLayer(this::locate);
+    private final Map<Edge, Integer> edgeLines = new HashMap<>();
+    private final Map<String, Set<Edge>> edgesByPerson = new HashMap<>();
+
+    // Pane children changed by the reconcile in progress, applied in one go at its end
+    private final Set<javafx.scene.Node> removedNodes = new HashSet<>();
+    private final List<javafx.scene.Node> addedNodes = new ArrayList<>();
+
+    // Changes not drawn yet; guarded by pendingIds. People who only moved are kept apart,
+    // with their latest position, as a drag moves some on every pulse
+    private final Set<String> pendingIds = new HashSet<>();
+    private final Map<String, Position> pendingMoves = new LinkedHashMap<>();
+    private boolean pendingReload;
+    private boolean pendingViewport;
+    private boolean redrawScheduled;
+
     private PersonCell selectedCell;
     private PersonCell overlappingCell;
+    private ContextMenu contextMenu;
+    private Person contextPerson;
+    // Selected in the canvas view, which has no cells
+    private Person canvasSelection;
+    // False while the canvas view draws the tree; this view then keeps no nodes
+    private volatile boolean active = true;
+
+    // Tells the edge layer that the people of a node moved or were resized; their lines follow after layout
+    private final InvalidationListener nodeMoved = observable -> {
+        javafx.scene.Node node = (javafx.scene.Node) ((ReadOnlyProperty<?>) observable).getBean();
+        indexNode(node);
+        if (node instanceof HBox) {
+            for (javafx.scene.Node child : ((HBox) node).getChildren()) {
+                nodeMoved(((PersonCell) child).getPerson().getId(), node);
+            }
+        } else {
+            nodeMoved(((PersonCell) node).getPerson().getId(), node);
+        }
+    };
 
     // We now keep a reference to the dragged node (which can be a PersonCell or an HBox)
     private javafx.scene.Node draggedNode;
+    // Drag events only note where the dragged node goes; it is moved once per pulse
+    private CoalescedDrag drag;
+
+    /**
+     * A drawn relationship. Parent lines are owned by the child and spouse lines by the
+     * spouse with the smaller id, so each line is rebuilt from its owner alone.
+     */
+    private record Edge(String owner, String other, boolean spouse) {
+    }
 
     public TreeVisualizer(Pane visualizationPane) {
+        this(visualizationPane, new Camera());
+    }
+
+    public TreeVisualizer(Pane visualizationPane, Camera camera) {
         this.visualizationPane = visualizationPane;
+        this.camera = camera;
         this.visualizationPane.getStyleClass().add("visualization-pane");
+        content.setPickOnBounds(false); // Clicks between cells reach the background
+        content.getTransforms().add(zoom);
+        content.translateXProperty().bind(camera.translateXProperty());
+        content.translateYProperty().bind(camera.translateYProperty());
+        zoom.xProperty().bind(camera.scaleProperty());
+        zoom.yProperty().bind(camera.scaleProperty());
+        content.getChildren().add(edges.getNode());
+        visualizationPane.getChildren().add(content);
+        data.addChangeListener(this::onTreeChange);
 
         // Add drag handlers for the background
         final double[] dragOffset = new double[2];
@@ -57,17 +157,8 @@ public class TreeVisualizer {
 
         this.visualizationPane.setOnMouseDragged(event -> {
             if (event.getTarget() == visualizationPane) { // Check if the drag started on the pane
-                double deltaX = event.getSceneX() - dragOffset[0];
-                double deltaY = event.getSceneY() - dragOffset[1];
-
-                // Fix for issue 2: Only move the PersonCells and HBoxes.
-                // The Line objects will follow automatically due to the bindings.
-                for (javafx.scene.Node node : visualizationPane.getChildren()) {
-                    if (node instanceof PersonCell || node instanceof HBox) {
-                        node.setLayoutX(node.getLayoutX() + deltaX);
-                        node.setLayoutY(node.getLayoutY() + deltaY);
-                    }
-                }
+                // Pans the whole content, lines included
+                camera.panBy(event.getSceneX() - dragOffset[0], event.getSceneY() - dragOffset[1]);
                 dragOffset[0] = event.getSceneX();
                 dragOffset[1] = event.getSceneY();
                 event.consume();
@@ -76,230 +167,664 @@ public class TreeVisualizer {
 
         // Add zoom handlers
         visualizationPane.setOnScroll(event -> {
-            double zoomFactor = 1.05;
-            double deltaY = event.getDeltaY();
-
-            if (deltaY < 0) {
-                zoomFactor = 2.0 - zoomFactor;
-            }
-
-            visualizationPane.setScaleX(visualizationPane.getScaleX() * zoomFactor);
-            visualizationPane.setScaleY(visualizationPane.getScaleY() * zoomFactor);
+            // Zoom around the mouse: the tree point under it stays under it
+            camera.zoomBy(event.getX(), event.getY(), event.getDeltaY());
             event.consume();
         });
+
+        // Anything that changes what is visible may need other cells
+        InvalidationListener viewportListener = observable -> onViewportChanged();
+        content.translateXProperty().addListener(viewportListener);
+        content.translateYProperty().addListener(viewportListener);
+        zoom.xProperty().addListener(viewportListener);
+        visualizationPane.widthProperty().addListener(viewportListener);
+        visualizationPane.heightProperty().addListener(viewportListener);
     }
 
+    /**
+     * Redraws the whole tree: the position index is rebuilt, and every person that should
+     * have a cell is compared with it; only nodes and lines that differ are replaced. Edits
+     * do not need to call this; they reach the view through {@link #onTreeChange(TreeChange)}.
+     */
     public void refresh() {
         System.out.println("TreeVisualizer refresh() called. Person count: " + data.getAllPeople().size());
         clearSelection();
         draggedNode = null; // Clear the dragged node on refresh
 
-        visualizationPane.getChildren().clear();
+        index.clear();
+        List<Person> unplaced = new ArrayList<>();
+        for (Person person : data.getAllPeople()) {
+            Position position = data.getLayoutPosition(person.getId());
+            if (position != null) {
+                index.put(person.getId(), position.getX(), position.getY());
+            } else {
+                unplaced.add(person);
+            }
+        }
+        placeUnplaced(unplaced);
+        updateDrawnArea(true);
+    }
+
+    /**
+     * Turns this view on or off. While off it holds no nodes and ignores changes, so a tree
+     * drawn by the canvas view costs it nothing; turning it on redraws the tree.
+     */
+    public void setActive(boolean active) {
+        if (this.active == active) {
+            return;
+        }
+        synchronized (pendingIds) {
+            this.active = active;
+            pendingIds.clear();
+            pendingMoves.clear();
+            pendingReload = false;
+            pendingViewport = false;
+        }
+        if (active) {
+            refresh();
+            return;
+        }
+        clearSelection();
+        draggedNode = null;
+        overlappingCell = null;
+        content.getChildren().setAll(edges.getNode());
         nodeMap.clear();
+        nodeIndex.clear();
+        edges.clear();
+        edgeLines.clear();
+        edgesByPerson.clear();
+        freeCells.clear();
+        freeGroups.clear();
+        index.clear();
+        overflow.clear();
+        drawnArea = null;
+    }
 
-        Set<String> processedPeople = new HashSet<>();
+    public boolean isActive() {
+        return active;
+    }
 
-        // 1. Create and position all visual nodes
-        for (Person person : data.getAllPeople()) {
-            if (processedPeople.contains(person.getId())) {
-                continue;
+    // Called by the model with its write lock held: note what changed and draw it on the FX thread.
+    // Several writes in a row (a drag, a dialog making two links) are drawn together.
+    private void onTreeChange(TreeChange change) {
+        if (!active) {
+            return;
+        }
+        synchronized (pendingIds) {
+            if (change.reloaded()) {
+                pendingReload = true;
+            } else {
+                for (PersonRecord person : change.updatedPeople()) {
+                    pendingIds.add(person.id());
+                }
+                pendingIds.addAll(change.removedIds());
+                pendingMoves.putAll(change.movedPositions());
             }
+        }
+        scheduleRedraw();
+    }
 
-            if (person.getSpouseIds() != null && !person.getSpouseIds().isEmpty()) {
-                String spouseId = person.getSpouseIds().iterator().next();
-                Person spouse = data.getPerson(spouseId);
-                if (spouse != null && !processedPeople.contains(spouse.getId())) {
-                    PersonCell person1Cell = new PersonCell(person);
-                    PersonCell person2Cell = new PersonCell(spouse);
+    // Pans, zooms and resizes of the window are drawn once per pulse as well
+    private void onViewportChanged() {
+        if (!active) {
+            return;
+        }
+        synchronized (pendingIds) {
+            pendingViewport = true;
+        }
+        scheduleRedraw();
+    }
 
-                    // Add interactions to the individual cells within the group
-                    addInteractionsToPersonCell(person1Cell);
-                    addInteractionsToPersonCell(person2Cell);
+    private void scheduleRedraw() {
+        synchronized (pendingIds) {
+            if (redrawScheduled) {
+                return;
+            }
+            redrawScheduled = true;
+        }
+        Platform.runLater(this::drawPendingChanges);
+    }
 
-                    HBox spouseGroup = new HBox(10);
-                    spouseGroup.getChildren().addAll(person1Cell, person2Cell);
-                    spouseGroup.getStyleClass().add("spouse-group");
+    private void drawPendingChanges() {
+        Set<String> ids;
+        Map<String, Position> moves;
+        boolean reload;
+        boolean viewport;
+        synchronized (pendingIds) {
+            ids = new LinkedHashSet<>(pendingIds);
+            moves = new LinkedHashMap<>(pendingMoves);
+            reload = pendingReload;
+            viewport = pendingViewport;
+            pendingIds.clear();
+            pendingMoves.clear();
+            pendingReload = false;
+            pendingViewport = false;
+            redrawScheduled = false;
+        }
+        if (!active) {
+            return;
+        }
+        if (reload) {
+            refresh();
+            return;
+        }
+        if (!ids.isEmpty()) {
+            reconcile(ids);
+        }
+        // Whoever was reconciled is already in place
+        moves.keySet().removeAll(ids);
+        if (!moves.isEmpty()) {
+            moveNodes(moves);
+        }
+        if (viewport || drawnArea == null) {
+            updateDrawnArea(drawnArea == null);
+        }
+    }
 
-                    addSpouseGroupInteractions(spouseGroup, person, spouse);
+    /**
+     * The part of the tree on screen, in tree coordinates.
+     */
+    private Bounds visibleArea() {
+        double width = visualizationPane.getWidth() > 0 ? visualizationPane.getWidth() : 800;
+        double height = visualizationPane.getHeight() > 0 ? visualizationPane.getHeight() : 600;
+        return content.parentToLocal(new BoundingBox(0, 0, width, height));
+    }
 
-                    nodeMap.put(person.getId(), spouseGroup);
-                    nodeMap.put(spouse.getId(), spouseGroup);
-                    processedPeople.add(person.getId());
-                    processedPeople.add(spouse.getId());
+    /**
+     * Moves the area that has cells to what is visible. While the view stays inside the
+     * current area, and has not been zoomed in far enough to make it wasteful, nothing
+     * happens, so small pans create no cells.
+     */
+    private void updateDrawnArea(boolean force) {
+        Bounds visible = visibleArea();
+        // A cell is positioned by its top left corner, so one just left of or above the view still shows
+        Bounds needed = new BoundingBox(visible.getMinX() - GROUP_WIDTH, visible.getMinY() - CELL_HEIGHT,
+                visible.getWidth() + GROUP_WIDTH, visible.getHeight() + CELL_HEIGHT);
+        if (!force && drawnArea != null && drawnArea.contains(needed)
+                && drawnArea.getWidth() * drawnArea.getHeight() <= 9 * needed.getWidth() * needed.getHeight()) {
+            return;
+        }
+        double margin = VIEW_MARGIN / zoom.getX();
+        drawnArea = new BoundingBox(needed.getMinX() - margin, needed.getMinY() - margin,
+                needed.getWidth() + 2 * margin, needed.getHeight() + 2 * margin);
+
+        List<String> inside = new ArrayList<>();
+        index.query(drawnArea.getMinX(), drawnArea.getMinY(), drawnArea.getMaxX(), drawnArea.getMaxY(), inside::add);
+        overflow.clear();
+        if (inside.size() > MAX_CELLS) {
+            // Too many to show as cells: keep the ones nearest the middle of the view
+            double centerX = visible.getMinX() + visible.getWidth() / 2;
+            double centerY = visible.getMinY() + visible.getHeight() / 2;
+            double[] distances = new double[inside.size()];
+            Integer[] order = new Integer[inside.size()];
+            for (int i = 0; i < order.length; i++) {
+                double dx = index.x(inside.get(i)) - centerX;
+                double dy = index.y(inside.get(i)) - centerY;
+                distances[i] = dx * dx + dy * dy;
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparingDouble(i -> distances[i]));
+            List<String> nearest = new ArrayList<>(MAX_CELLS);
+            for (int i = 0; i < order.length; i++) {
+                (i < MAX_CELLS ? nearest : overflow).add(inside.get(order[i]));
+            }
+            inside = nearest;
+        }
 
-                    visualizationPane.getChildren().add(spouseGroup);
+        Set<String> ids = new LinkedHashSet<>(nodeMap.keySet());
+        ids.addAll(inside);
+        reconcile(ids);
+    }
 
-                    Position layoutPosition = data.getLayoutPosition(person.getId());
-                    // Fix for issue 3: Ensure a position is always set, even on the first refresh.
-                    if (layoutPosition != null) {
-                        spouseGroup.setLayoutX(layoutPosition.getX());
-                        spouseGroup.setLayoutY(layoutPosition.getY());
-                    } else {
-                        double paneWidth = visualizationPane.getWidth() > 0 ? visualizationPane.getWidth() : 800;
-                        double defaultX = 50 + processedPeople.size() * 10 % (paneWidth - 100);
-                        spouseGroup.setLayoutX(defaultX);
-                        spouseGroup.setLayoutY(50);
-                        // Save the default position so it's not "teleported" later
-                        data.setLayoutPosition(person.getId(), new Position(defaultX, 50));
-                        data.setLayoutPosition(spouse.getId(), new Position(defaultX + spouseGroup.getWidth() / 2, 50));
-                    }
-                }
-            } else {
-                PersonCell personCell = new PersonCell(person);
-                addInteractionsToPersonCell(personCell);
-                nodeMap.put(person.getId(), personCell);
-                processedPeople.add(person.getId());
-                visualizationPane.getChildren().add(personCell);
-
-                Position layoutPosition = data.getLayoutPosition(person.getId());
-                // Fix for issue 3: Ensure a position is always set, even on the first refresh.
-                if (layoutPosition != null) {
-                    personCell.setLayoutX(layoutPosition.getX());
-                    personCell.setLayoutY(layoutPosition.getY());
-                } else {
-                    double paneWidth = visualizationPane.getWidth() > 0 ? visualizationPane.getWidth() : 800;
-                    double paneHeight = visualizationPane.getHeight() > 0 ? visualizationPane.getHeight() : 600;
+    // Whether a person's position is in the area that has cells
+    private boolean inDrawnArea(String id) {
+        return drawnArea != null && !overflow.contains(id) && index.isInside(id,
+                drawnArea.getMinX(), drawnArea.getMinY(), drawnArea.getMaxX(), drawnArea.getMaxY());
+    }
+
+    // A couple gets its group while either of them is in the area
+    private boolean shouldShow(Person person) {
+        String partnerId = partnerOf(person);
+        return inDrawnArea(person.getId()) || (partnerId != null && inDrawnArea(partnerId));
+    }
 
-                    double defaultX = 50 + processedPeople.size() * 10 % (paneWidth - 100);
-                    double defaultY = 50 + processedPeople.size() * 10 % (paneHeight - 120);
+    // Gives people without a stored position one in view, and stores it so it is not "teleported" later
+    private void placeUnplaced(List<Person> unplaced) {
+        if (unplaced.isEmpty()) {
+            return;
+        }
+        data.write(() -> {
+            for (Person person : unplaced) {
+                Position position = defaultPosition(index.size());
+                data.setLayoutPosition(person.getId(), position);
+                index.put(person.getId(), position.getX(), position.getY());
+            }
+        });
+    }
 
-                    defaultX = Math.max(0, Math.min(defaultX, paneWidth - 100));
-                    defaultY = Math.max(0, Math.min(defaultY, paneHeight - 120));
+    // Spreads new people over the visible part of the tree
+    private Position defaultPosition(int count) {
+        Bounds visible = visibleArea();
+        double width = Math.max(visible.getWidth(), 200);
+        double height = Math.max(visible.getHeight(), 240);
 
-                    personCell.setLayoutX(defaultX);
-                    personCell.setLayoutY(defaultY);
-                    // Save the default position so it's not "teleported" later
-                    data.setLayoutPosition(person.getId(), new Position(defaultX, defaultY));
-                }
+        double defaultX = 50 + count * 10 % (width - 100);
+        double defaultY = 50 + count * 10 % (height - 120);
+
+        defaultX = Math.max(0, Math.min(defaultX, width - 100));
+        defaultY = Math.max(0, Math.min(defaultY, height - 120));
+        return new Position(visible.getMinX() + defaultX, visible.getMinY() + defaultY);
+    }
+
+    /**
+     * Brings the nodes of the given people in line with the model. A person's node is kept
+     * while it still shows the same person object and the same couple, and is still in the
+     * drawn area; it is then only updated and moved. Otherwise it is released for reuse,
+     * together with the lines attached to it.
+     */
+    private void reconcile(Set<String> changedIds) {
+        // Keep the index in step with the model
+        List<Person> unplaced = new ArrayList<>();
+        for (String id : changedIds) {
+            Person person = data.getPerson(id);
+            Position position = person != null ? data.getLayoutPosition(id) : null;
+            if (person == null) {
+                index.remove(id);
+            } else if (position == null) {
+                unplaced.add(person);
+            } else {
+                index.put(id, position.getX(), position.getY());
+            }
+        }
+        placeUnplaced(unplaced);
+
+        // A change can split or form a couple, so both partners of old and new couples are looked at
+        Set<String> ids = new LinkedHashSet<>(changedIds);
+        for (String id : changedIds) {
+            ids.addAll(peopleIn(nodeMap.get(id)));
+            Person person = data.getPerson(id);
+            if (person != null && firstSpouseId(person) != null) {
+                ids.add(firstSpouseId(person));
             }
         }
 
-        // 2. Draw all the connection lines
-        for (Person person : data.getAllPeople()) {
-            javafx.scene.Node sourceNode = nodeMap.get(person.getId());
-            if (sourceNode == null) continue;
-
-            if (person.getFatherId() != null) {
-                javafx.scene.Node fatherNode = nodeMap.get(person.getFatherId());
-                if (fatherNode != null) {
-                    Group line = createConnectionLine(fatherNode, sourceNode);
-//                    line.setStroke(Color.BLUE);
-                    visualizationPane.getChildren().add(0, line);
+        // Lines are rebuilt for every person looked at, for the other end of any line
+        // attached to a node that is released, and for lines drawn to a person without a
+        // cell, whose position may have changed
+        Set<String> lineOwners = new HashSet<>(ids);
+        for (String id : ids) {
+            Set<Edge> attached = edgesByPerson.get(id);
+            if (attached != null) {
+                for (Edge edge : attached) {
+                    lineOwners.add(edge.owner());
                 }
             }
-            if (person.getMotherId() != null) {
-                javafx.scene.Node motherNode = nodeMap.get(person.getMotherId());
-                if (motherNode != null) {
-                    Group line = createConnectionLine(motherNode, sourceNode);
-//                    line.setStroke(Color.BLUE);
-                    visualizationPane.getChildren().add(0, line);
-                }
+        }
+        for (String id : ids) {
+            javafx.scene.Node node = nodeMap.get(id);
+            if (node != null && (!isCurrent(node) || !isInDrawnArea(node))) {
+                releaseNode(node, lineOwners);
             }
+        }
 
-            for (String spouseId : person.getSpouseIds()) {
-                if (spouseId.compareTo(person.getId()) > 0) {
-                    javafx.scene.Node spouseNode = nodeMap.get(spouseId);
-                    if (spouseNode != null) {
-                        Group line = createConnectionLine(sourceNode, spouseNode);
-//                        line.setStroke(Color.ORANGE);
-//                        line.getStrokeDashArray().addAll(5d, 5d);
-                        visualizationPane.getChildren().add(0, line);
-                    }
+        Set<javafx.scene.Node> updated = new HashSet<>();
+        for (String id : ids) {
+            Person person = data.getPerson(id);
+            if (person == null) {
+                continue;
+            }
+            javafx.scene.Node node = nodeMap.get(id);
+            if (node == null) {
+                if (!shouldShow(person)) {
+                    continue;
+                }
+                node = createNode(person);
+                updated.add(node);
+                for (String member : peopleIn(node)) {
+                    Person added = data.getPerson(member);
+                    lineOwners.add(member);
+                    lineOwners.addAll(added.getChildIds());
+                    lineOwners.addAll(added.getSpouseIds());
                 }
+            } else if (updated.add(node)) {
+                updateNode(node);
+            } else {
+                continue;
             }
+            placeNode(node);
+        }
+
+        for (String owner : lineOwners) {
+            rebuildLines(owner);
         }
 
-//        drawRelationships();
+        // One change to the pane's children each: removing or inserting them one by one
+        // would shift the whole list every time
+        content.getChildren().removeAll(removedNodes);
+        content.getChildren().addAll(addedNodes);
+        removedNodes.clear();
+        addedNodes.clear();
     }
 
+    /**
+     * Draws people who only moved. Their nodes are put at the new position, which tells the
+     * edge layer to reshape their lines; nothing is updated and no line is rebuilt. People
+     * whose node enters or leaves the drawn area go through {@link #reconcile} instead.
+     */
+    private void moveNodes(Map<String, Position> moves) {
+        Set<String> reconciled = new LinkedHashSet<>();
+        for (Map.Entry<String, Position> entry : moves.entrySet()) {
+            String id = entry.getKey();
+            Person person = data.getPerson(id);
+            if (person == null) {
+                reconciled.add(id);
+                continue;
+            }
+            index.put(id, entry.getValue().getX(), entry.getValue().getY());
+            javafx.scene.Node node = nodeMap.get(id);
+            if (node != null && isInDrawnArea(node)) {
+                placeNode(node);
+            } else if (node != null || shouldShow(person)) {
+                reconciled.add(id);
+            } else {
+                // Lines to a person without a cell end at their position
+                edges.moved(id);
+            }
+        }
+        if (!reconciled.isEmpty()) {
+            reconcile(reconciled);
+        }
+    }
+
+    private String partnerOf(Person person) {
+        return partnerOf(data, person);
+    }
 
     /**
-     * Creates a connection line between two nodes with a 90-degree angle.
-     * The line is composed of three dynamically bound Line objects, ensuring it
-     * moves with the connected nodes.
-     *
-     * @param startNode The starting node for the connection.
-     * @param endNode The ending node for the connection.
-     * @return A Group object containing the three Line segments that form the angled connection.
+     * The spouse a person is drawn next to: their first spouse, if that spouse's first
+     * spouse is them. Depends only on the two people, so both views group couples alike.
      */
-    private Group createConnectionLine(javafx.scene.Node startNode, javafx.scene.Node endNode) {
-        // Create a group to hold the three line segments
-        Group lineGroup = new Group();
-
-        // Bindings for the center of the start node
-        DoubleBinding startX, startY;
-        if (startNode instanceof HBox) {
-            HBox spouseGroup = (HBox) startNode;
-            startX = spouseGroup.layoutXProperty().add(spouseGroup.widthProperty().divide(2));
-            startY = spouseGroup.layoutYProperty().add(spouseGroup.heightProperty().divide(2));
-        } else {
-            Region startRegion = (Region) startNode;
-            startX = startRegion.layoutXProperty().add(startRegion.widthProperty().divide(2));
-            startY = startRegion.layoutYProperty().add(startRegion.heightProperty().divide(2));
+    static String partnerOf(FamilyTreeData data, Person person) {
+        String spouseId = firstSpouseId(person);
+        if (spouseId == null) {
+            return null;
         }
+        Person spouse = data.getPerson(spouseId);
+        return spouse != null && person.getId().equals(firstSpouseId(spouse)) ? spouseId : null;
+    }
 
-        // Bindings for the center of the end node
-        DoubleBinding endX, endY;
-        if (endNode instanceof HBox) {
-            HBox spouseGroup = (HBox) endNode;
-            endX = spouseGroup.layoutXProperty().add(spouseGroup.widthProperty().divide(2));
-            endY = spouseGroup.layoutYProperty().add(spouseGroup.heightProperty().divide(2));
+    private static String firstSpouseId(Person person) {
+        Set<String> spouseIds = person.getSpouseIds();
+        return spouseIds == null || spouseIds.isEmpty() ? null : spouseIds.iterator().next();
+    }
+
+    private static List<String> peopleIn(javafx.scene.Node node) {
+        if (node instanceof PersonCell) {
+            return List.of(((PersonCell) node).getPerson().getId());
+        }
+        if (node instanceof HBox) {
+            HBox spouseGroup = (HBox) node;
+            return List.of(((PersonCell) spouseGroup.getChildren().get(0)).getPerson().getId(),
+                    ((PersonCell) spouseGroup.getChildren().get(1)).getPerson().getId());
+        }
+        return List.of();
+    }
+
+    // Whether a node still shows the model's people, grouped as the model groups them
+    private boolean isCurrent(javafx.scene.Node node) {
+        if (node instanceof PersonCell) {
+            Person person = ((PersonCell) node).getPerson();
+            return data.getPerson(person.getId()) == person && partnerOf(person) == null;
+        }
+        HBox spouseGroup = (HBox) node;
+        Person person1 = ((PersonCell) spouseGroup.getChildren().get(0)).getPerson();
+        Person person2 = ((PersonCell) spouseGroup.getChildren().get(1)).getPerson();
+        return data.getPerson(person1.getId()) == person1 && data.getPerson(person2.getId()) == person2
+                && person2.getId().equals(partnerOf(person1));
+    }
+
+    private boolean isInDrawnArea(javafx.scene.Node node) {
+        for (String id : peopleIn(node)) {
+            if (inDrawnArea(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private javafx.scene.Node createNode(Person person) {
+        String partnerId = partnerOf(person);
+        if (partnerId != null) {
+            // The smaller id on the left, as the canvas view draws couples
+            Person spouse = data.getPerson(partnerId);
+            if (partnerId.compareTo(person.getId()) < 0) {
+                Person left = spouse;
+                spouse = person;
+                person = left;
+            }
+            HBox spouseGroup = freeGroups.poll();
+            if (spouseGroup == null) {
+                spouseGroup = new HBox(10);
+                spouseGroup.getStyleClass().add("spouse-group");
+                addSpouseGroupInteractions(spouseGroup);
+                watch(spouseGroup);
+            }
+            spouseGroup.getChildren().addAll(obtainCell(person), obtainCell(spouse));
+
+            nodeMap.put(person.getId(), spouseGroup);
+            nodeMap.put(spouse.getId(), spouseGroup);
+            show(spouseGroup);
+            return spouseGroup;
+        }
+        PersonCell personCell = obtainCell(person);
+        nodeMap.put(person.getId(), personCell);
+        show(personCell);
+        return personCell;
+    }
+
+    // A recycled cell if there is one. Its handlers read the person from the cell, so they carry over
+    private PersonCell obtainCell(Person person) {
+        PersonCell personCell = freeCells.poll();
+        if (personCell == null) {
+            personCell = new PersonCell(person);
+            addInteractionsToPersonCell(personCell);
+            watch(personCell);
         } else {
-            Region endRegion = (Region) endNode;
-            endX = endRegion.layoutXProperty().add(endRegion.widthProperty().divide(2));
-            endY = endRegion.layoutYProperty().add(endRegion.heightProperty().divide(2));
+            personCell.setPerson(person);
         }
+        // A cell going into a group leaves the pane by itself
+        removedNodes.remove(personCell);
+        return personCell;
+    }
 
-        // Calculate the midpoint of the Y coordinates. This will be the location of the horizontal segment.
-        DoubleBinding midY = Bindings.createDoubleBinding(
-                () -> startY.get() + (endY.get() - startY.get()) / 2,
-                startY, endY
-        );
+    // Nodes keep their listener while pooled; it only acts for people the node is shown for
+    private void watch(Region node) {
+        node.layoutXProperty().addListener(nodeMoved);
+        node.layoutYProperty().addListener(nodeMoved);
+        node.widthProperty().addListener(nodeMoved);
+        node.heightProperty().addListener(nodeMoved);
+    }
 
-        // --- Create the three line segments ---
+    // Keeps the node index in step with a node in the pane; pooled nodes are left out
+    private void indexNode(javafx.scene.Node node) {
+        Region region = (Region) node;
+        widestNode = Math.max(widestNode, region.getWidth());
+        tallestNode = Math.max(tallestNode, region.getHeight());
+        List<javafx.scene.Node> cells = node instanceof HBox ? ((HBox) node).getChildren() : List.of(node);
+        if (cells.isEmpty()) {
+            return;
+        }
+        String id = ((PersonCell) cells.get(0)).getPerson().getId();
+        if (nodeMap.get(id) == node) {
+            nodeIndex.put(id, node.getLayoutX(), node.getLayoutY());
+        }
+    }
 
-        // Line 1: Vertical segment from the start node
-        Line line1 = new Line();
-        line1.startXProperty().bind(startX);
-        line1.startYProperty().bind(startY);
-        line1.endXProperty().bind(startX); // Stays at the same X
-        line1.endYProperty().bind(midY); // Ends at the midpoint Y
+    private void nodeMoved(String id, javafx.scene.Node node) {
+        if (nodeMap.get(id) == node) {
+            edges.moved(id);
+        }
+    }
+
+    // A node released earlier in this reconcile is still in the pane; it then simply stays
+    private void show(javafx.scene.Node node) {
+        if (!removedNodes.remove(node)) {
+            addedNodes.add(node);
+        }
+    }
 
-        // Line 2: Horizontal segment at the midpoint
-        Line line2 = new Line();
-        line2.startXProperty().bind(startX); // Starts at the start node's X
-        line2.startYProperty().bind(midY); // Stays at the midpoint Y
-        line2.endXProperty().bind(endX); // Ends at the end node's X
-        line2.endYProperty().bind(midY); // Stays at the midpoint Y
+    private void updateNode(javafx.scene.Node node) {
+        if (node instanceof HBox) {
+            for (javafx.scene.Node child : ((HBox) node).getChildren()) {
+                ((PersonCell) child).updateCell();
+            }
+        } else {
+            ((PersonCell) node).updateCell();
+        }
+    }
 
-        // Line 3: Vertical segment to the end node
-        Line line3 = new Line();
-        line3.startXProperty().bind(endX); // Starts at the end node's X
-        line3.startYProperty().bind(midY); // Starts at the midpoint Y
-        line3.endXProperty().bind(endX); // Stays at the same X
-        line3.endYProperty().bind(endY); // Ends at the center of the end node
+    private void releaseNode(javafx.scene.Node node, Set<String> lineOwners) {
+        nodeIndex.remove(peopleIn(node).get(0));
+        for (String id : peopleIn(node)) {
+            nodeMap.remove(id, node);
+            Set<Edge> attached = edgesByPerson.get(id);
+            if (attached != null) {
+                for (Edge edge : new ArrayList<>(attached)) {
+                    removeLine(edge);
+                    lineOwners.add(edge.owner());
+                    lineOwners.add(edge.other());
+                }
+            }
+        }
+        if (selectedCell != null && (selectedCell == node || selectedCell.getParent() == node)) {
+            clearSelection();
+        }
+        if (overlappingCell != null && (overlappingCell == node || overlappingCell.getParent() == node)) {
+            overlappingCell = null;
+        }
+        if (draggedNode == node) {
+            draggedNode = null;
+        }
+        removedNodes.add(node);
+
+        if (node instanceof HBox) {
+            HBox spouseGroup = (HBox) node;
+            List<javafx.scene.Node> cells = new ArrayList<>(spouseGroup.getChildren());
+            spouseGroup.getChildren().clear();
+            cells.forEach(cell -> recycle((PersonCell) cell));
+            if (freeGroups.size() < POOL_SIZE) {
+                freeGroups.push(spouseGroup);
+            }
+        } else {
+            recycle((PersonCell) node);
+        }
+    }
+
+    private void recycle(PersonCell personCell) {
+        personCell.getStyleClass().removeAll("selected-cell", "overlapping-cell");
+        if (freeCells.size() < POOL_SIZE) {
+            freeCells.push(personCell);
+        }
+    }
+
+    // Moves a node to its stored position
+    private void placeNode(javafx.scene.Node node) {
+        String id = peopleIn(node).get(0);
+        if (index.contains(id)) {
+            node.setLayoutX(index.x(id));
+            node.setLayoutY(index.y(id));
+        }
+        // A reused node may already have stood at this position, so moving it is not always noticed
+        indexNode(node);
+    }
+
+    /**
+     * Redraws the lines a person owns: to their father and mother, and to spouses with a
+     * greater id. Every line has exactly one owner, so rebuilding owners never duplicates one.
+     * A line is drawn when at least one of its ends has a cell.
+     */
+    private void rebuildLines(String ownerId) {
+        Set<Edge> attached = edgesByPerson.get(ownerId);
+        if (attached != null) {
+            for (Edge edge : new ArrayList<>(attached)) {
+                if (edge.owner().equals(ownerId)) {
+                    removeLine(edge);
+                }
+            }
+        }
+        Person person = data.getPerson(ownerId);
+        if (person == null) {
+            return;
+        }
+        if (person.getFatherId() != null) {
+            addLine(new Edge(ownerId, person.getFatherId(), false), person.getFatherId(), ownerId);
+        }
+        if (person.getMotherId() != null) {
+            addLine(new Edge(ownerId, person.getMotherId(), false), person.getMotherId(), ownerId);
+        }
+        for (String spouseId : person.getSpouseIds()) {
+            if (spouseId.compareTo(ownerId) > 0) {
+                addLine(new Edge(ownerId, spouseId, true), ownerId, spouseId);
+            }
+        }
+    }
 
-        // Apply common styling
-        line1.setStrokeWidth(2);
-        line2.setStrokeWidth(2);
-        line3.setStrokeWidth(2);
-        line1.setStroke(Color.BLACK);
-        line2.setStroke(Color.BLACK);
-        line3.setStroke(Color.BLACK);
+    private void addLine(Edge edge, String startId, String endId) {
+        javafx.scene.Node startNode = nodeMap.get(startId);
+        javafx.scene.Node endNode = nodeMap.get(endId);
+        // Off screen at both ends, or a couple drawn side by side
+        if (startNode == endNode || edgeLines.containsKey(edge)) {
+            return;
+        }
+        if ((startNode == null && !index.contains(startId)) || (endNode == null && !index.contains(endId))) {
+            return;
+        }
+        edgeLines.put(edge, edges.add(startId, endId));
+        edgesByPerson.computeIfAbsent(edge.owner(), id -> new HashSet<>()).add(edge);
+        edgesByPerson.computeIfAbsent(edge.other(), id -> new HashSet<>()).add(edge);
+    }
 
-        // Add the lines to the group
-        lineGroup.getChildren().addAll(line1, line2, line3);
+    // Centre of a person's node; a person without one is given the point where their cell would be
+    private boolean locate(String id, double[] point) {
+        javafx.scene.Node node = nodeMap.get(id);
+        if (node != null) {
+            Region region = (Region) node;
+            point[0] = region.getLayoutX() + region.getWidth() / 2;
+            point[1] = region.getLayoutY() + region.getHeight() / 2;
+            return true;
+        }
+        if (!index.contains(id)) {
+            return false;
+        }
+        point[0] = index.x(id) + CELL_WIDTH / 2;
+        point[1] = index.y(id) + CELL_HEIGHT / 2;
+        return true;
+    }
 
-        return lineGroup;
+    private void removeLine(Edge edge) {
+        Integer line = edgeLines.remove(edge);
+        if (line != null) {
+            edges.remove(line);
+        }
+        for (String id : new String[]{edge.owner(), edge.other()}) {
+            Set<Edge> attached = edgesByPerson.get(id);
+            if (attached != null) {
+                attached.remove(edge);
+                if (attached.isEmpty()) {
+                    edgesByPerson.remove(id);
+                }
+            }
+        }
     }
 
 
 
     /**
      * This method adds drag-and-drop interactions to the HBox that represents a spouse group.
-     * The drag handler now ensures the entire group moves as a single unit.
+     * The drag handler now ensures the entire group moves as a single unit. Groups are
+     * reused for other couples, so the people are read from the cells on every event.
      */
-    private void addSpouseGroupInteractions(HBox spouseGroup, Person person1, Person person2) {
+    private void addSpouseGroupInteractions(HBox spouseGroup) {
         final double[] mouseOffset = new double[2];
 
         spouseGroup.setOnMousePressed(event -> {
@@ -313,8 +838,9 @@ public class TreeVisualizer {
                 person2Cell.getStyleClass().add("selected-cell");
 
                 draggedNode = spouseGroup; // Set the dragged node to the HBox
-                mouseOffset[0] = event.getSceneX() - spouseGroup.getLayoutX();
-                mouseOffset[1] = event.getSceneY() - spouseGroup.getLayoutY();
+                Point2D mouse = content.sceneToLocal(event.getSceneX(), event.getSceneY());
+                mouseOffset[0] = mouse.getX() - spouseGroup.getLayoutX();
+                mouseOffset[1] = mouse.getY() - spouseGroup.getLayoutY();
                 spouseGroup.toFront();
                 event.consume();
             }
@@ -322,24 +848,10 @@ public class TreeVisualizer {
 
         spouseGroup.setOnMouseDragged(event -> {
             if (event.isPrimaryButtonDown()) {
-                double newX = event.getSceneX() - mouseOffset[0];
-                double newY = event.getSceneY() - mouseOffset[1];
-
-                double paneWidth = visualizationPane.getWidth();
-                double paneHeight = visualizationPane.getHeight();
-
-                newX = Math.max(0, Math.min(newX, paneWidth - spouseGroup.getWidth()));
-                newY = Math.max(0, Math.min(newY, paneHeight - spouseGroup.getHeight()));
-
-                spouseGroup.setLayoutX(newX);
-                spouseGroup.setLayoutY(newY);
-
-                // Update the layout positions for both people in the group
-                data.setLayoutPosition(person1.getId(), new Position(newX, newY));
-                data.setLayoutPosition(person2.getId(), new Position(newX + spouseGroup.getWidth() / 2, newY));
-
-                checkForOverlaps(spouseGroup);
-
+                // In tree coordinates, so dragging follows the mouse at any zoom; the tree
+                // is panned rather than bounded by the window, so positions are not clamped
+                Point2D mouse = content.sceneToLocal(event.getSceneX(), event.getSceneY());
+                drag().dragTo(mouse.getX() - mouseOffset[0], mouse.getY() - mouseOffset[1]);
                 event.consume();
             }
         });
@@ -347,6 +859,7 @@ public class TreeVisualizer {
         spouseGroup.setOnMouseReleased(event -> {
             // The onMouseReleased for a spouse group should not trigger relationship dialogs,
             // as a group itself cannot form a relationship with another cell.
+            drag().finish();
             clearOverlapHighlighting();
             clearSelection();
             draggedNode = null;
@@ -354,6 +867,42 @@ public class TreeVisualizer {
         });
     }
 
+    // Created on the first drag: the timer needs the running toolkit
+    private CoalescedDrag drag() {
+        if (drag == null) {
+            drag = new CoalescedDrag(this::moveDraggedNode);
+        }
+        return drag;
+    }
+
+    // The drag of this pulse: moves the dragged node, stores where its people are now as one
+    // change, and looks for the node under it
+    private void moveDraggedNode(double newX, double newY) {
+        if (draggedNode instanceof HBox) {
+            moveSpouseGroup((HBox) draggedNode, newX, newY);
+        } else if (draggedNode instanceof PersonCell) {
+            PersonCell cell = (PersonCell) draggedNode;
+            cell.setLayoutX(newX);
+            cell.setLayoutY(newY);
+            data.setLayoutPosition(cell.getPerson().getId(), newX, newY);
+        } else {
+            return; // Released, or scrolled out of the drawn area, since the drag event
+        }
+        checkForOverlaps(draggedNode);
+    }
+
+    // Moves a group and stores the positions of both people in it, as one change
+    private void moveSpouseGroup(HBox spouseGroup, double newX, double newY) {
+        spouseGroup.setLayoutX(newX);
+        spouseGroup.setLayoutY(newY);
+        PersonCell p1 = (PersonCell) spouseGroup.getChildren().get(0);
+        PersonCell p2 = (PersonCell) spouseGroup.getChildren().get(1);
+        data.write(() -> {
+            data.setLayoutPosition(p1.getPerson().getId(), newX, newY);
+            data.setLayoutPosition(p2.getPerson().getId(), newX + spouseGroup.getWidth() / 2, newY);
+        });
+    }
+
     /**
      * This method adds drag-and-drop and context menu interactions to a single PersonCell.
      * The drag handler now correctly identifies if a cell is part of a spouse group and
@@ -377,15 +926,16 @@ public class TreeVisualizer {
                 selectedCell.getStyleClass().add("selected-cell");
 
                 // Check if the cell is part of a spouse group. If so, the dragged node is the group.
+                Point2D mouse = content.sceneToLocal(event.getSceneX(), event.getSceneY());
                 if (personCell.getParent() instanceof HBox) {
                     draggedNode = (HBox) personCell.getParent();
                     HBox spouseGroup = (HBox) draggedNode;
-                    mouseOffset[0] = event.getSceneX() - spouseGroup.getLayoutX();
-                    mouseOffset[1] = event.getSceneY() - spouseGroup.getLayoutY();
+                    mouseOffset[0] = mouse.getX() - spouseGroup.getLayoutX();
+                    mouseOffset[1] = mouse.getY() - spouseGroup.getLayoutY();
                 } else {
                     draggedNode = personCell;
-                    mouseOffset[0] = event.getSceneX() - personCell.getLayoutX();
-                    mouseOffset[1] = event.getSceneY() - personCell.getLayoutY();
+                    mouseOffset[0] = mouse.getX() - personCell.getLayoutX();
+                    mouseOffset[1] = mouse.getY() - personCell.getLayoutY();
                 }
                 draggedNode.toFront();
                 event.consume();
@@ -394,33 +944,8 @@ public class TreeVisualizer {
 
         personCell.setOnMouseDragged(event -> {
             if (event.isPrimaryButtonDown() && draggedNode != null) {
-                double newX = event.getSceneX() - mouseOffset[0];
-                double newY = event.getSceneY() - mouseOffset[1];
-
-                double paneWidth = visualizationPane.getWidth();
-                double paneHeight = visualizationPane.getHeight();
-
-                if (draggedNode instanceof PersonCell) {
-                    PersonCell cell = (PersonCell) draggedNode;
-                    newX = Math.max(0, Math.min(newX, paneWidth - cell.getWidth()));
-                    newY = Math.max(0, Math.min(newY, paneHeight - cell.getHeight()));
-                    cell.setLayoutX(newX);
-                    cell.setLayoutY(newY);
-                    data.setLayoutPosition(cell.getPerson().getId(), new Position(newX, newY));
-                } else if (draggedNode instanceof HBox) {
-                    HBox spouseGroup = (HBox) draggedNode;
-                    newX = Math.max(0, Math.min(newX, paneWidth - spouseGroup.getWidth()));
-                    newY = Math.max(0, Math.min(newY, paneHeight - spouseGroup.getHeight()));
-                    spouseGroup.setLayoutX(newX);
-                    spouseGroup.setLayoutY(newY);
-                    // Update positions for both people in the group
-                    PersonCell p1 = (PersonCell) spouseGroup.getChildren().get(0);
-                    PersonCell p2 = (PersonCell) spouseGroup.getChildren().get(1);
-                    data.setLayoutPosition(p1.getPerson().getId(), new Position(newX, newY));
-                    data.setLayoutPosition(p2.getPerson().getId(), new Position(newX + spouseGroup.getWidth() / 2, newY));
-                }
-
-                checkForOverlaps(draggedNode);
+                Point2D mouse = content.sceneToLocal(event.getSceneX(), event.getSceneY());
+                drag().dragTo(mouse.getX() - mouseOffset[0], mouse.getY() - mouseOffset[1]);
                 event.consume();
             }
         });
@@ -431,36 +956,22 @@ public class TreeVisualizer {
          * with an HBox, and then get the PersonCell from that HBox.
          */
         personCell.setOnMouseReleased(event -> {
+            drag().finish(); // The drop is checked where the mouse was let go
             if (draggedNode instanceof PersonCell) {
                 PersonCell draggedPersonCell = (PersonCell) draggedNode;
                 PersonCell dropTargetCell = null;
 
-                for (javafx.scene.Node node : visualizationPane.getChildren()) {
-                    if (node == draggedPersonCell || !(node instanceof PersonCell || node instanceof HBox)) {
-                        continue;
-                    }
-
-                    javafx.geometry.Bounds draggedBounds = draggedPersonCell.getBoundsInParent();
-                    javafx.geometry.Bounds nodeBounds = node.getBoundsInParent();
-
-                    if (draggedBounds.intersects(nodeBounds)) {
-                        if (node instanceof PersonCell) {
-                            dropTargetCell = (PersonCell) node;
-                            break;
-                        } else if (node instanceof HBox) {
-                            // If dropped on an HBox (spouse group), pick the first PersonCell inside it as the target.
-                            // The logic in showRelationshipDialog handles the spouse correctly.
-                            HBox spouseGroup = (HBox) node;
-                            if (!spouseGroup.getChildren().isEmpty() && spouseGroup.getChildren().get(0) instanceof PersonCell) {
-                                dropTargetCell = (PersonCell) spouseGroup.getChildren().get(0);
-                                break;
-                            }
-                        }
-                    }
+                javafx.scene.Node node = nodeUnder(draggedPersonCell);
+                if (node instanceof PersonCell) {
+                    dropTargetCell = (PersonCell) node;
+                } else if (node instanceof HBox) {
+                    // If dropped on an HBox (spouse group), pick the first PersonCell inside it as the target.
+                    // The logic in relate handles the spouse correctly.
+                    dropTargetCell = (PersonCell) ((HBox) node).getChildren().get(0);
                 }
 
                 if (dropTargetCell != null && draggedPersonCell != dropTargetCell) {
-                    showRelationshipDialog(draggedPersonCell, dropTargetCell);
+                    relate(draggedPersonCell.getPerson(), dropTargetCell.getPerson());
                 }
             }
 
@@ -470,26 +981,50 @@ public class TreeVisualizer {
             event.consume();
         });
 
-        // Context Menu
-        ContextMenu contextMenu = new ContextMenu();
+        personCell.setOnContextMenuRequested(event -> {
+            clearSelection();
+            selectedCell = personCell;
+            selectedCell.getStyleClass().add("selected-cell");
+
+            showContextMenu(personCell.getPerson(), personCell, event.getScreenX(), event.getScreenY());
+            event.consume();
+        });
+    }
+
+    /**
+     * Shows the person menu for {@code person}. Its Edit and Delete items act on the
+     * selected person, so callers select the person first.
+     */
+    void showContextMenu(Person person, javafx.scene.Node anchor, double screenX, double screenY) {
+        contextPerson = person;
+        getContextMenu().show(anchor, screenX, screenY);
+    }
+
+    // One menu for all cells, acting on the person it was last opened for
+    private ContextMenu getContextMenu() {
+        if (contextMenu != null) {
+            return contextMenu;
+        }
+        contextMenu = new ContextMenu();
 
         MenuItem addChildItem = new MenuItem("Add Child");
-        addChildItem.setOnAction(event -> addPerson(personCell.getPerson()));
+        addChildItem.setOnAction(event -> addPerson(contextPerson));
 
         MenuItem addSpouseItem = new MenuItem("Add Spouse");
         addSpouseItem.setOnAction(event -> {
+            Person person = contextPerson;
+            Position position = data.getLayoutPosition(person.getId());
             Person newSpouseCandidate = new Person(UUID.randomUUID().toString(), "New Spouse");
             PersonDialog spouseDialog = new PersonDialog(newSpouseCandidate);
             spouseDialog.setResizable(true);
             Optional<Person> spouseResult = spouseDialog.showAndWait();
-            spouseResult.ifPresent(spouse -> {
+            spouseResult.ifPresent(spouse -> data.write(() -> {
                 data.addPerson(spouse);
-                data.setLayoutPosition(spouse.getId(), new Position(personCell.getLayoutX() + 150, personCell.getLayoutY()));
-                personCell.getPerson().addSpouseId(spouse.getId());
-                spouse.addSpouseId(personCell.getPerson().getId());
-                data.linkAllRelationships();
-                refresh();
-            });
+                if (position != null) {
+                    data.setLayoutPosition(spouse.getId(), new Position(position.getX() + 150, position.getY()));
+                }
+                data.setSpouseRelationship(person, spouse);
+            }));
         });
 
         MenuItem editItem = new MenuItem("Edit Person");
@@ -498,16 +1033,22 @@ public class TreeVisualizer {
         MenuItem deleteItem = new MenuItem("Delete Person");
         deleteItem.setOnAction(event -> deleteSelectedPerson());
 
-        contextMenu.getItems().addAll(addChildItem, addSpouseItem, editItem, deleteItem);
+        MenuItem deleteDescendantsItem = new MenuItem("Delete With Descendants");
+        deleteDescendantsItem.setOnAction(event -> data.removeWithDescendants(contextPerson));
 
-        personCell.setOnContextMenuRequested(event -> {
-            clearSelection();
-            selectedCell = personCell;
-            selectedCell.getStyleClass().add("selected-cell");
+        MenuItem deleteAncestorsItem = new MenuItem("Delete With Ancestors");
+        deleteAncestorsItem.setOnAction(event -> data.removeWithAncestors(contextPerson));
 
-            contextMenu.show(personCell, event.getScreenX(), event.getScreenY());
-            event.consume();
+        MenuItem exportBranchItem = new MenuItem("Export Descendants to GEDCOM...");
+        exportBranchItem.setOnAction(event -> {
+            Person root = contextPerson;
+            FamilyTreeApp.exportGedcom((Stage) visualizationPane.getScene().getWindow(),
+                    GedcomExporter.descendantBranch(data, root), "descendants.ged");
         });
+
+        contextMenu.getItems().addAll(addChildItem, addSpouseItem, editItem, deleteItem,
+                deleteDescendantsItem, deleteAncestorsItem, new SeparatorMenuItem(), exportBranchItem);
+        return contextMenu;
     }
 
     public void addPerson(Person parentForNew) {
@@ -538,26 +1079,15 @@ public class TreeVisualizer {
         dialog.setResizable(true);
         Optional<Person> result = dialog.showAndWait();
 
-        result.ifPresent(p -> {
+        result.ifPresent(p -> data.write(() -> {
             data.addPerson(p);
-            if (parentForNew != null && nodeMap.containsKey(parentForNew.getId())) {
-                javafx.scene.Node parentNode = nodeMap.get(parentForNew.getId());
-                data.setLayoutPosition(p.getId(), new Position(parentNode.getLayoutX(), parentNode.getLayoutY() + 150));
+            if (parentForNew != null && index.contains(parentForNew.getId())) {
+                String parentId = parentForNew.getId();
+                data.setLayoutPosition(p.getId(), new Position(index.x(parentId), index.y(parentId) + 150));
             } else {
-                double paneWidth = visualizationPane.getWidth() > 0 ? visualizationPane.getWidth() : 800;
-                double paneHeight = visualizationPane.getHeight() > 0 ? visualizationPane.getHeight() : 600;
-
-                double defaultX = 50 + (data.getAllPeople().size() * 10 % (paneWidth - 100));
-                double defaultY = 50 + (data.getAllPeople().size() * 10 % (paneHeight - 120));
-
-                defaultX = Math.max(0, Math.min(defaultX, paneWidth - 100));
-                defaultY = Math.max(0, Math.min(defaultY, paneHeight - 120));
-
-                data.setLayoutPosition(p.getId(), new Position(defaultX, defaultY));
+                data.setLayoutPosition(p.getId(), defaultPosition(data.getAllPeople().size()));
             }
-            data.linkAllRelationships();
-            refresh();
-        });
+        }));
     }
 
     /**
@@ -566,10 +1096,10 @@ public class TreeVisualizer {
      * if that parent has a spouse. If so, it presents a confirmation dialog.
      */
     public void editSelectedPerson() {
-        if (selectedCell != null && selectedCell.getPerson() != null) {
-            Person originalPerson = selectedCell.getPerson();
+        if (getSelectedPerson() != null) {
+            Person originalPerson = getSelectedPerson();
 //            Person personToEdit = new Person(originalPerson); // Create a copy to edit in the dialog
-            Person personToEdit = selectedCell.getPerson();; // Create a copy to edit in the dialog
+            Person personToEdit = getSelectedPerson();; // Create a copy to edit in the dialog
 
             PersonDialog dialog = new PersonDialog(personToEdit);
             dialog.setResizable(true);
@@ -599,13 +1129,9 @@ public class TreeVisualizer {
                         showSetOtherParentDialog(updatedPerson, newParent, spouse);
                     } else {
                         data.updatePerson(updatedPerson);
-                        data.linkAllRelationships();
-                        refresh();
                     }
                 } else {
                     data.updatePerson(updatedPerson);
-                    data.linkAllRelationships();
-                    refresh();
                 }
             });
         } else {
@@ -635,32 +1161,40 @@ public class TreeVisualizer {
         dialog.getDialogPane().getButtonTypes().addAll(confirmButton, cancelButton);
 
         Optional<ButtonType> result = dialog.showAndWait();
-        if (result.isPresent() && result.get() == confirmButton) {
-            if ("Male".equals(spouse.getGender())) {
-                child.setFatherId(spouse.getId());
-            } else {
-                child.setMotherId(spouse.getId());
+        data.write(() -> {
+            if (result.isPresent() && result.get() == confirmButton) {
+                if ("Male".equals(spouse.getGender())) {
+                    data.setFather(child, spouse);
+                } else {
+                    data.setMother(child, spouse);
+                }
             }
-        }
-        data.updatePerson(child);
-        data.linkAllRelationships();
-        refresh();
+            data.updatePerson(child);
+        });
     }
 
     public void deleteSelectedPerson() {
-        if (selectedCell != null && selectedCell.getPerson() != null) {
-            data.removePerson(selectedCell.getPerson());
-            refresh();
+        if (getSelectedPerson() != null) {
+            data.removePerson(getSelectedPerson());
         } else {
             showAlert(Alert.AlertType.WARNING, "No Person Selected", "Please select a person to delete.");
         }
     }
 
     public Person getSelectedPerson() {
-        return selectedCell != null ? selectedCell.getPerson() : null;
+        return selectedCell != null ? selectedCell.getPerson() : canvasSelection;
+    }
+
+    /**
+     * Selects a person drawn by the canvas view, for the Edit and Delete actions.
+     */
+    void setSelectedPerson(Person person) {
+        clearSelection();
+        canvasSelection = person;
     }
 
     private void clearSelection() {
+        canvasSelection = null;
         if (selectedCell != null) {
             selectedCell.getStyleClass().remove("selected-cell");
             selectedCell = null;
@@ -705,67 +1239,64 @@ public class TreeVisualizer {
             return;
         }
 
-        for (javafx.scene.Node node : visualizationPane.getChildren()) {
-            if (node == draggedNode || !(node instanceof PersonCell || node instanceof HBox)) {
-                continue;
-            }
-
-            javafx.geometry.Bounds draggedBounds = draggedNode.getBoundsInParent();
-            javafx.geometry.Bounds nodeBounds = node.getBoundsInParent();
-
-            if (draggedBounds.intersects(nodeBounds)) {
-                if (node instanceof PersonCell) {
-                    // Overlapping with a single person cell
-                    PersonCell cell = (PersonCell) node;
-                    if (draggedNode != cell) {
-                        overlappingCell = cell;
-                        overlappingCell.getStyleClass().add("overlapping-cell");
-                        return;
-                    }
-                } else if (node instanceof HBox) {
-                    // Overlapping with a spouse group
-                    HBox spouseGroup = (HBox) node;
-                    for (javafx.scene.Node child : spouseGroup.getChildren()) {
-                        javafx.geometry.Bounds childBounds = child.getBoundsInParent();
-                        if (draggedBounds.intersects(childBounds)) {
-                            PersonCell cell = (PersonCell) child;
-                            if (draggedNode != cell) {
-                                overlappingCell = cell;
-                                overlappingCell.getStyleClass().add("overlapping-cell");
-                                return;
-                            }
-                        }
-                    }
+        javafx.geometry.Bounds draggedBounds = draggedNode.getBoundsInParent();
+        javafx.scene.Node node = nodeUnder(draggedNode);
+        if (node instanceof PersonCell) {
+            // Overlapping with a single person cell
+            overlappingCell = (PersonCell) node;
+            overlappingCell.getStyleClass().add("overlapping-cell");
+        } else if (node instanceof HBox) {
+            // Overlapping with a spouse group: the cell of the group under the dragged one
+            HBox spouseGroup = (HBox) node;
+            for (javafx.scene.Node child : spouseGroup.getChildren()) {
+                if (draggedBounds.intersects(spouseGroup.localToParent(child.getBoundsInParent()))) {
+                    overlappingCell = (PersonCell) child;
+                    overlappingCell.getStyleClass().add("overlapping-cell");
+                    return;
                 }
             }
         }
     }
 
     /**
-     * This method correctly determines the relationship type based on the drop target.
+     * The node a dragged node overlaps, if any. Only the nodes whose corner lies within the
+     * largest node size of the dragged node are looked at, through the node index.
      */
-    private void showRelationshipDialog(PersonCell person1Cell, PersonCell person2Cell) {
-        Person person1 = person1Cell.getPerson();
-        Person person2 = person2Cell.getPerson();
+    private javafx.scene.Node nodeUnder(javafx.scene.Node draggedNode) {
+        javafx.geometry.Bounds draggedBounds = draggedNode.getBoundsInParent();
+        javafx.scene.Node[] found = new javafx.scene.Node[1];
+        nodeIndex.query(draggedBounds.getMinX() - widestNode, draggedBounds.getMinY() - tallestNode,
+                draggedBounds.getMaxX(), draggedBounds.getMaxY(), id -> {
+                    javafx.scene.Node node = nodeMap.get(id);
+                    if (found[0] == null && node != null && node != draggedNode
+                            && node.getBoundsInParent().intersects(draggedBounds)) {
+                        found[0] = node;
+                    }
+                });
+        return found[0];
+    }
+
+    /**
+     * Asks how to relate a person dropped onto another one. This method correctly
+     * determines the relationship type based on the drop target.
+     */
+    void relate(Person person1, Person person2) {
         Person father = null;
         Person mother = null;
 
-        // Check if the dropped-on cell is part of a spouse group.
-        boolean isSpouseGroup = person2Cell.getParent() instanceof HBox;
+        // Check if the dropped-on person is drawn as part of a couple.
+        String partnerId = partnerOf(person2);
+        Person partner = partnerId != null ? data.getPerson(partnerId) : null;
 
-        if (isSpouseGroup) {
+        if (partner != null) {
             // Drop onto a couple. We will make person1 a child of this couple.
-            HBox spouseGroup = (HBox) person2Cell.getParent();
-            PersonCell p1InGroup = (PersonCell) spouseGroup.getChildren().get(0);
-            PersonCell p2InGroup = (PersonCell) spouseGroup.getChildren().get(1);
-
             // Determine father and mother from the group
-            if ("Male".equals(p1InGroup.getPerson().getGender())) {
-                father = p1InGroup.getPerson();
-                mother = p2InGroup.getPerson();
+            if ("Male".equals(person2.getGender())) {
+                father = person2;
+                mother = partner;
             } else {
-                father = p2InGroup.getPerson();
-                mother = p1InGroup.getPerson();
+                father = partner;
+                mother = person2;
             }
 
             showSetParentDialog(person1, father, mother);
@@ -780,29 +1311,22 @@ public class TreeVisualizer {
             ButtonType cancelButton = new ButtonType("Cancel");
             dialog.getDialogPane().getButtonTypes().addAll(childButton, spouseButton, cancelButton);
 
+            // The view follows the model's change notifications; a cancelled drop changes nothing
             Optional<ButtonType> result = dialog.showAndWait();
             if (result.isPresent()) {
                 if (result.get() == childButton) {
                     try {
                         data.setParentChildRelationship(person2, person1);
-                        refresh();
                     } catch (IllegalStateException e) {
                         showAlert(Alert.AlertType.WARNING, "Relationship Error", e.getMessage());
-                        refresh();
                     }
                 } else if (result.get() == spouseButton) {
                     try {
                         data.setSpouseRelationship(person1, person2);
-                        refresh();
                     } catch (IllegalStateException e) {
                         showAlert(Alert.AlertType.WARNING, "Relationship Error", e.getMessage());
-                        refresh();
                     }
-                } else {
-                    refresh(); // Refresh to clear any highlighting/selection
                 }
-            } else {
-                refresh();
             }
         }
     }
@@ -829,31 +1353,20 @@ public class TreeVisualizer {
             if (result.get() == childButton) {
                 try {
                     data.setParentChildRelationship(father, child);
-                    refresh();
                 } catch (IllegalStateException e) {
                     showAlert(Alert.AlertType.WARNING, "Relationship Error", e.getMessage());
-                    refresh();
                 }
             } else if (result.get() == spouseButton) {
                 try {
-                    // Set the father and mother
-                    child.addChildId(father.getId());
-                    child.addChildId(mother.getId());
-                    // Add the child to the parents' child lists
-                    father.setFatherId(child.getId());
-                    mother.setFatherId(child.getId());
-
-                    data.linkAllRelationships();
-                    refresh();
+                    // Make the dropped person a parent of both people in the couple
+                    data.write(() -> {
+                        data.setParentChildRelationship(child, father);
+                        data.setParentChildRelationship(child, mother);
+                    });
                 } catch (IllegalStateException e) {
                     showAlert(Alert.AlertType.WARNING, "Relationship Error", e.getMessage());
-                    refresh();
                 }
-            } else {
-                refresh(); // Refresh to clear any highlighting/selection
             }
-        } else {
-            refresh();
         }
 //        Dialog<ButtonType> dialog = new Dialog<>();
 //        dialog.setTitle("Set Parent-Child Relationship");